@@ -0,0 +1,68 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.enums.C2bValidationResult;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.internal.C2bValidationRuleSet;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of answering a C2B validation request from the compiled rule snapshot, for a shortcode
+ * with every rule set and 10,000 allowed accounts among 1,000 configured shortcodes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class C2bValidationBenchmark {
+    private C2bValidationRuleSet rules;
+    private C2bCallback accepted;
+    private C2bCallback unknownAccount;
+
+    @Setup
+    public void setUp() {
+        List<MpesaConfig> configs = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            MpesaConfig config = new MpesaConfig();
+            config.setShortcode(String.valueOf(600000 + i));
+            config.setEnvironment(MpesaEnvironment.PRODUCTION);
+            config.setValidationMinAmount(new BigDecimal("10"));
+            config.setValidationMaxAmount(new BigDecimal("150000"));
+            config.setValidationBillRefPattern("INV\\d{6}");
+            config.setValidationAllowedAccounts(
+                    IntStream.range(0, 10_000).mapToObj(n -> String.format("INV%06d", n)).toList());
+            configs.add(config);
+        }
+        rules = C2bValidationRuleSet.compile(configs);
+
+        accepted = callback("INV004242");
+        unknownAccount = callback("INV999999");
+    }
+
+    @Benchmark
+    public C2bValidationResult validateAccepted() {
+        return rules.validate(accepted, true);
+    }
+
+    @Benchmark
+    public C2bValidationResult validateRejected() {
+        return rules.validate(unknownAccount, true);
+    }
+
+    private static C2bCallback callback(String billRefNumber) {
+        return new C2bCallback(
+                "Pay Bill", "RKTQDM7W6S", "20191122063845", "1500.00", "600638", billRefNumber,
+                "", "49197.00", "", "254708374149", "John", "", "Doe");
+    }
+}
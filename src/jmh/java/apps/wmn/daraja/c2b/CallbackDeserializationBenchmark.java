@@ -0,0 +1,96 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of reading the Daraja callback bodies into their DTOs, as the message converter does for
+ * every callback request, and of filling {@code rawCallback} from the parsed callback by
+ * serializing it again ({@code *Reserialized}) against keeping the bytes as received
+ * ({@code *Captured}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CallbackDeserializationBenchmark {
+    private static final String C2B_CALLBACK = """
+            {"TransactionType":"Pay Bill","TransID":"RKTQDM7W6S","TransTime":"20191122063845",\
+            "TransAmount":"10","BusinessShortCode":"600638","BillRefNumber":"invoice008",\
+            "InvoiceNumber":"","OrgAccountBalance":"49197.00","ThirdPartyTransID":"",\
+            "MSISDN":"25470****149","FirstName":"John","MiddleName":"","LastName":"Doe"}""";
+
+    private static final String STK_CALLBACK = """
+            {"MerchantRequestID":"29115-34620561-1","CheckoutRequestID":"ws_CO_191220191020363925",\
+            "ResultCode":"0","ResultDesc":"The service request is processed successfully.",\
+            "callbackMetadata":{"Item":[{"name":"Amount","value":1.00},\
+            {"name":"MpesaReceiptNumber","value":"NLJ7RT61SV"},\
+            {"name":"TransactionDate","value":20191219102115},\
+            {"name":"PhoneNumber","value":254708374149}]}}""";
+
+    private byte[] c2bBody;
+    private byte[] stkBody;
+    private ObjectReader c2bReader;
+    private ObjectReader stkReader;
+
+    @Setup
+    public void setUp() {
+        ObjectMapper objectMapper = new ObjectMapper();
+        c2bReader = objectMapper.readerFor(C2bCallback.class);
+        stkReader = objectMapper.readerFor(StkCallback.class);
+        c2bBody = C2B_CALLBACK.getBytes(StandardCharsets.UTF_8);
+        stkBody = STK_CALLBACK.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public C2bCallback c2bCallback() throws Exception {
+        return c2bReader.readValue(c2bBody);
+    }
+
+    @Benchmark
+    public StkCallback stkCallback() throws Exception {
+        return stkReader.readValue(stkBody);
+    }
+
+    @Benchmark
+    public MpesaPayment c2bCallbackReserialized() throws Exception {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithC2BCallback(payment, c2bReader.readValue(c2bBody));
+        return payment;
+    }
+
+    @Benchmark
+    public MpesaPayment c2bCallbackCaptured() throws Exception {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithC2BCallback(
+                payment, c2bReader.readValue(c2bBody), new String(c2bBody, StandardCharsets.UTF_8));
+        return payment;
+    }
+
+    @Benchmark
+    public MpesaPayment stkCallbackReserialized() throws Exception {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithStkCallback(payment, stkReader.readValue(stkBody));
+        return payment;
+    }
+
+    @Benchmark
+    public MpesaPayment stkCallbackCaptured() throws Exception {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithStkCallback(
+                payment, stkReader.readValue(stkBody), new String(stkBody, StandardCharsets.UTF_8));
+        return payment;
+    }
+}
@@ -0,0 +1,70 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.internal.MpesaCredentialVault;
+import apps.wmn.daraja.c2b.service.MpesaConfigService.MpesaCredentials;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.security.crypto.encrypt.Encryptors;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+
+/**
+ * Credential resolution cost per STK push: decrypting on every request, as the payment and
+ * authentication services used to, against a lookup in {@link MpesaCredentialVault}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CredentialDecryptionBenchmark {
+    private TextEncryptor textEncryptor;
+    private MpesaCredentialVault credentialVault;
+    private MpesaConfig config;
+
+    @Setup
+    public void setUp() {
+        textEncryptor = Encryptors.text("benchmark-secret-key", "c8e6d42a1f953b7e");
+        credentialVault = new MpesaCredentialVault(textEncryptor, new CaffeineCacheManager());
+
+        config = new MpesaConfig();
+        config.setUuid(UUID.randomUUID());
+        config.setModifiedDate(LocalDateTime.now());
+        config.setShortcode("174379");
+        config.setConsumerKey(textEncryptor.encrypt("consumer-key"));
+        config.setConsumerSecret(textEncryptor.encrypt("consumer-secret"));
+        config.setPasskey(textEncryptor.encrypt("bfb279f9aa9bdbcf158e97dd71a467cd2e0c893059b10f78e6b72ada1ed2c919"));
+        config.setSecurityCredential(textEncryptor.encrypt("security-credential"));
+    }
+
+    /**
+     * Four decryptions for the credentials record, then the consumer key and secret decrypted twice
+     * each while building the OAuth headers.
+     */
+    @Benchmark
+    public void decryptPerRequest(Blackhole blackhole) {
+        MpesaCredentials credentials = new MpesaCredentials(
+                textEncryptor.decrypt(config.getConsumerKey()),
+                textEncryptor.decrypt(config.getConsumerSecret()),
+                textEncryptor.decrypt(config.getPasskey()),
+                textEncryptor.decrypt(config.getSecurityCredential()));
+        blackhole.consume(credentials);
+        for (int i = 0; i < 2; i++) {
+            blackhole.consume(textEncryptor.decrypt(config.getConsumerKey()));
+            blackhole.consume(textEncryptor.decrypt(config.getConsumerSecret()));
+        }
+    }
+
+    @Benchmark
+    public MpesaCredentials vaultLookup() {
+        return credentialVault.getCredentials(config);
+    }
+}
@@ -0,0 +1,86 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Per-callback cost of the {@link PaymentMapperFactory} mappings on the callback and status paths.
+ * Each invocation maps onto a fresh entity, as the callback handlers do after loading one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PaymentMapperBenchmark {
+    private C2bCallback c2bCallback;
+    private StkCallback stkCallback;
+    private MpesaPayment settledPayment;
+
+    @Setup
+    public void setUp() {
+        c2bCallback = new C2bCallback(
+                "Pay Bill", "RKTQDM7W6S", "20191122063845", "10.00", "600638", "invoice008",
+                "", "49197.00", "", "254708374149", "John", "", "Doe");
+
+        stkCallback = new StkCallback(
+                "29115-34620561-1", "ws_CO_191220191020363925", "0",
+                "The service request is processed successfully.",
+                new StkCallback.CallbackMetadata(new StkCallback.CallbackMetadata.Item[] {
+                    new StkCallback.CallbackMetadata.Item("Amount", 1.00),
+                    new StkCallback.CallbackMetadata.Item("MpesaReceiptNumber", "NLJ7RT61SV"),
+                    new StkCallback.CallbackMetadata.Item("TransactionDate", 20191219102115L),
+                    new StkCallback.CallbackMetadata.Item("PhoneNumber", "254708374149")
+                }));
+
+        settledPayment = MpesaPayment.builder()
+                .transactionId("NLJ7RT61SV")
+                .checkoutRequestId("ws_CO_191220191020363925")
+                .phoneNumber("254708374149")
+                .payerIdentifier("254708374149")
+                .payeeIdentifier("174379")
+                .amount(new BigDecimal("100.00"))
+                .currency("KES")
+                .accountReference("ABC123")
+                .transactionDesc("Payment for service X")
+                .transactionType("STK_PUSH")
+                .transactionStatus("COMPLETED")
+                .businessShortCode("174379")
+                .environment(MpesaEnvironment.SANDBOX)
+                .completedDate(LocalDateTime.now())
+                .build();
+        settledPayment.setUuid(UUID.randomUUID());
+    }
+
+    @Benchmark
+    public MpesaPayment updateWithC2BCallback() {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithC2BCallback(payment, c2bCallback);
+        return payment;
+    }
+
+    @Benchmark
+    public MpesaPayment updateWithStkCallback() {
+        MpesaPayment payment = new MpesaPayment();
+        PaymentMapperFactory.updateWithStkCallback(payment, stkCallback);
+        return payment;
+    }
+
+    @Benchmark
+    public PaymentView toView() {
+        return PaymentMapperFactory.toView(settledPayment);
+    }
+}
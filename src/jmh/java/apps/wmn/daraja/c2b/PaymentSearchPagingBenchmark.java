@@ -0,0 +1,153 @@
+package apps.wmn.daraja.c2b;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Latency of one page of payment search at increasing depth, with offset paging plus its COUNT (as
+ * {@code GET /payments/search} does) against keyset paging on {@code (created_date, id)} (as
+ * {@code GET /payments/search/cursor} does). The queries mirror the SQL Hibernate generates for
+ * {@code MpesaPaymentRepository.findPaymentViews} and {@code findPaymentsAfter} without filters.
+ *
+ * <p>Needs a migrated PostgreSQL database, taken from {@code DARAJA_BENCH_DB_URL} (default: the dev
+ * profile database) with the {@code DCPIT_POSTGRES_USER}/{@code DCPIT_POSTGRES_PASSWORD}
+ * credentials. Set {@code DARAJA_BENCH_SEED_ROWS} to top the payments table up with synthetic rows
+ * first; the deepest page needs at least 200,000.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PaymentSearchPagingBenchmark {
+    private static final int PAGE_SIZE = 20;
+
+    private static final String OFFSET_PAGE_SQL = """
+            SELECT * FROM mpesa_payments
+            ORDER BY created_date DESC
+            OFFSET ? LIMIT ?""";
+    private static final String COUNT_SQL = "SELECT count(*) FROM mpesa_payments";
+    private static final String KEYSET_PAGE_SQL = """
+            SELECT * FROM mpesa_payments
+            WHERE (created_date, id) < (?, ?)
+            ORDER BY created_date DESC, id DESC
+            LIMIT ?""";
+
+    @Param({"1", "100", "10000"})
+    public int page;
+
+    private Connection connection;
+    private PreparedStatement offsetPage;
+    private PreparedStatement count;
+    private PreparedStatement keysetPage;
+    private Timestamp cursorCreatedDate;
+    private long cursorId;
+
+    @Setup
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection(
+                env("DARAJA_BENCH_DB_URL", "jdbc:postgresql://localhost:5433/mpesa_payments"),
+                env("DCPIT_POSTGRES_USER", "admin"),
+                env("DCPIT_POSTGRES_PASSWORD", "maarifa"));
+        seed(Long.parseLong(env("DARAJA_BENCH_SEED_ROWS", "0")));
+
+        offsetPage = connection.prepareStatement(OFFSET_PAGE_SQL);
+        count = connection.prepareStatement(COUNT_SQL);
+        keysetPage = connection.prepareStatement(KEYSET_PAGE_SQL);
+
+        // The keyset page starts after the last row of the page before it, found once up front
+        long skipped = (long) (page - 1) * PAGE_SIZE;
+        if (skipped == 0) {
+            cursorCreatedDate = Timestamp.valueOf("9999-12-31 23:59:59");
+            cursorId = Long.MAX_VALUE;
+            return;
+        }
+        try (PreparedStatement previous = connection.prepareStatement("""
+                SELECT created_date, id FROM mpesa_payments
+                ORDER BY created_date DESC, id DESC
+                OFFSET ? LIMIT 1""")) {
+            previous.setLong(1, skipped - 1);
+            try (ResultSet row = previous.executeQuery()) {
+                if (!row.next()) {
+                    throw new IllegalStateException("mpesa_payments has fewer than " + skipped
+                            + " rows; set DARAJA_BENCH_SEED_ROWS to seed it");
+                }
+                cursorCreatedDate = row.getTimestamp(1);
+                cursorId = row.getLong(2);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Benchmark
+    public void offsetWithCount(Blackhole blackhole) throws SQLException {
+        offsetPage.setLong(1, (long) (page - 1) * PAGE_SIZE);
+        offsetPage.setInt(2, PAGE_SIZE);
+        consume(offsetPage, blackhole);
+        consume(count, blackhole);
+    }
+
+    @Benchmark
+    public void keyset(Blackhole blackhole) throws SQLException {
+        keysetPage.setTimestamp(1, cursorCreatedDate);
+        keysetPage.setLong(2, cursorId);
+        // One extra row tells whether there is a next page
+        keysetPage.setInt(3, PAGE_SIZE + 1);
+        consume(keysetPage, blackhole);
+    }
+
+    private static void consume(PreparedStatement statement, Blackhole blackhole) throws SQLException {
+        try (ResultSet rows = statement.executeQuery()) {
+            while (rows.next()) {
+                blackhole.consume(rows.getObject(1));
+            }
+        }
+    }
+
+    private void seed(long targetRows) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            long existing;
+            try (ResultSet rows = statement.executeQuery(COUNT_SQL)) {
+                rows.next();
+                existing = rows.getLong(1);
+            }
+            if (existing >= targetRows) {
+                return;
+            }
+            statement.execute("""
+                    INSERT INTO mpesa_payments
+                        (transaction_id, transaction_type, transaction_status, amount, phone_number,
+                         business_short_code, account_reference, created_date, modified_date, created_by)
+                    SELECT 'JMH' || lpad(n::text, 12, '0'), 'PAYBILL_COLLECTION',
+                           (ARRAY['PENDING', 'COMPLETED', 'FAILED'])[1 + n % 3], 1 + n % 5000,
+                           '2547' || lpad((n % 100000000)::text, 8, '0'), '600638', 'JMH' || n % 1000,
+                           now() - n * interval '1 second', now(), 'jmh'
+                    FROM generate_series(%d, %d) AS n
+                    ON CONFLICT (transaction_id) DO NOTHING""".formatted(existing + 1, targetRows));
+            statement.execute("ANALYZE mpesa_payments");
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isBlank() ? value : defaultValue;
+    }
+}
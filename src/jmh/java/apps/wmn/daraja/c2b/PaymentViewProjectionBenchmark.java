@@ -0,0 +1,152 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.hibernate.SessionFactory;
+import org.hibernate.cfg.Configuration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Throughput of reading payment views the way the read endpoints used to, by loading managed
+ * {@link MpesaPayment} entities and mapping them with {@link PaymentMapperFactory#toView}, against
+ * projecting {@link PaymentView} directly with the constructor expression the repository now uses.
+ * Each invocation reads the newest {@code rows} payments of one phone number in its own read-only
+ * session, as {@code GET /payments/phone/{phoneNumber}} does.
+ *
+ * <p>Needs a migrated PostgreSQL database, taken from {@code DARAJA_BENCH_DB_URL} (default: the dev
+ * profile database) with the {@code DCPIT_POSTGRES_USER}/{@code DCPIT_POSTGRES_PASSWORD}
+ * credentials. Setup seeds the benchmark phone number with payments carrying realistic raw request
+ * and callback documents; run with {@code -prof gc} to compare allocation per read as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PaymentViewProjectionBenchmark {
+    private static final String PHONE_NUMBER = "254799000001";
+    private static final int SEED_ROWS = 1000;
+
+    private static final String ENTITY_QUERY = """
+            SELECT p FROM MpesaPayment p
+            WHERE p.phoneNumber = :phoneNumber
+            ORDER BY p.createdDate DESC""";
+    private static final String VIEW_QUERY =
+            "SELECT new apps.wmn.daraja.c2b.dto.PaymentView(" + MpesaPaymentRepository.PAYMENT_VIEW_COLUMNS + """
+            ) FROM MpesaPayment p
+            WHERE p.phoneNumber = :phoneNumber
+            ORDER BY p.createdDate DESC""";
+
+    @Param({"20", "200", "1000"})
+    public int rows;
+
+    private SessionFactory sessionFactory;
+
+    @Setup
+    public void setUp() throws SQLException {
+        String url = env("DARAJA_BENCH_DB_URL", "jdbc:postgresql://localhost:5433/mpesa_payments");
+        String user = env("DCPIT_POSTGRES_USER", "admin");
+        String password = env("DCPIT_POSTGRES_PASSWORD", "maarifa");
+        try (Connection connection = DriverManager.getConnection(url, user, password)) {
+            seed(connection);
+        }
+        sessionFactory = new Configuration()
+                .addAnnotatedClass(MpesaPayment.class)
+                .setProperty("hibernate.connection.url", url)
+                .setProperty("hibernate.connection.username", user)
+                .setProperty("hibernate.connection.password", password)
+                .setProperty("hibernate.connection.pool_size", "1")
+                .setProperty("hibernate.hbm2ddl.auto", "none")
+                .buildSessionFactory();
+    }
+
+    @TearDown
+    public void tearDown() {
+        sessionFactory.close();
+    }
+
+    @Benchmark
+    public List<PaymentView> entities() {
+        return sessionFactory.fromTransaction(session -> {
+            session.setDefaultReadOnly(true);
+            return session.createSelectionQuery(ENTITY_QUERY, MpesaPayment.class)
+                    .setParameter("phoneNumber", PHONE_NUMBER)
+                    .setMaxResults(rows)
+                    .getResultList()
+                    .stream()
+                    .map(PaymentMapperFactory::toView)
+                    .toList();
+        });
+    }
+
+    @Benchmark
+    public List<PaymentView> projection() {
+        return sessionFactory.fromTransaction(session -> {
+            session.setDefaultReadOnly(true);
+            return session.createSelectionQuery(VIEW_QUERY, PaymentView.class)
+                    .setParameter("phoneNumber", PHONE_NUMBER)
+                    .setMaxResults(rows)
+                    .getResultList();
+        });
+    }
+
+    private static void seed(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            long existing;
+            try (ResultSet result = statement.executeQuery(
+                    "SELECT count(*) FROM mpesa_payments WHERE phone_number = '" + PHONE_NUMBER + "'")) {
+                result.next();
+                existing = result.getLong(1);
+            }
+            if (existing >= SEED_ROWS) {
+                return;
+            }
+            // Raw documents of about the size Daraja sends: an STK push request and its callback
+            statement.execute("""
+                    INSERT INTO mpesa_payments
+                        (transaction_id, merchant_request_id, checkout_request_id, transaction_type,
+                         transaction_status, amount, currency, phone_number, payer_identifier,
+                         payee_identifier, business_short_code, account_reference, transaction_desc,
+                         raw_request, raw_callback, completed_date, created_date, modified_date, created_by)
+                    SELECT 'JMV' || lpad(n::text, 12, '0'), '29115-' || n, 'ws_CO_JMV' || n, 'STK_PUSH',
+                           'COMPLETED', 1 + n % 5000, 'KES', '%1$s', '%1$s', '174379', '174379',
+                           'JMV' || n, 'Payment for service',
+                           jsonb_build_object('phone_number', '%1$s', 'amount', 1 + n % 5000,
+                               'account_reference', 'JMV' || n, 'transaction_desc', 'Payment for service',
+                               'short_code', '174379', 'environment', 'SANDBOX',
+                               'callback_url', 'https://example.com/api/v1/daraja/payments/stk/callback'),
+                           jsonb_build_object('Body', jsonb_build_object('stkCallback', jsonb_build_object(
+                               'MerchantRequestID', '29115-' || n, 'CheckoutRequestID', 'ws_CO_JMV' || n,
+                               'ResultCode', 0, 'ResultDesc', 'The service request is processed successfully.',
+                               'CallbackMetadata', jsonb_build_object('Item', jsonb_build_array(
+                                   jsonb_build_object('Name', 'Amount', 'Value', 1 + n % 5000),
+                                   jsonb_build_object('Name', 'MpesaReceiptNumber', 'Value', 'JMV' || n),
+                                   jsonb_build_object('Name', 'TransactionDate', 'Value', 20191219102115),
+                                   jsonb_build_object('Name', 'PhoneNumber', 'Value', %1$s)))))),
+                           now() - n * interval '1 minute', now() - n * interval '1 minute', now(), 'jmh'
+                    FROM generate_series(%2$d, %3$d) AS n
+                    ON CONFLICT (transaction_id) DO NOTHING""".formatted(PHONE_NUMBER, existing + 1, SEED_ROWS));
+            statement.execute("ANALYZE mpesa_payments");
+        }
+    }
+
+    private static String env(String name, String defaultValue) {
+        String value = System.getenv(name);
+        return value != null && !value.isBlank() ? value : defaultValue;
+    }
+}
@@ -0,0 +1,84 @@
+package apps.wmn.daraja.c2b;
+
+import apps.wmn.daraja.c2b.dto.DarajaStkPushRequest;
+import apps.wmn.daraja.c2b.dto.StkPushRequest;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.internal.StkPushTemplate;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of building and serializing one STK push body. Run with {@code -prof gc} (the default in
+ * build.gradle) and compare {@code gc.alloc.rate.norm}, the bytes allocated per push.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StkPushSerializationBenchmark {
+    private static final String PASSKEY = "bfb279f9aa9bdbcf158e97dd71a467cd2e0c893059b10f78e6b72ada1ed2c919";
+
+    private ObjectMapper objectMapper;
+    private ObjectWriter requestWriter;
+    private MpesaConfig config;
+    private StkPushTemplate template;
+    private StkPushRequest request;
+
+    @Setup
+    public void setUp() {
+        objectMapper = new ObjectMapper();
+        requestWriter = objectMapper.writerFor(DarajaStkPushRequest.class);
+
+        config = new MpesaConfig();
+        config.setShortcode("174379");
+        config.setStkCallbackUrl("https://example.com/api/v1/daraja/payments/stk/callback");
+        config.setModifiedDate(LocalDateTime.now());
+        template = StkPushTemplate.of(config, PASSKEY);
+
+        request = new StkPushRequest(
+                "254712345678", new BigDecimal("100.00"), "ABC123", "Payment for service X", "174379", "SANDBOX");
+    }
+
+    /**
+     * The body as it used to be built: a map per push, a formatter per timestamp, a default-charset
+     * password and reflective map serialization.
+     */
+    @Benchmark
+    public byte[] hashMapBody() throws Exception {
+        String timestamp = DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(LocalDateTime.now());
+        String password = Base64.getEncoder()
+                .encodeToString((config.getShortcode() + PASSKEY + timestamp).getBytes());
+
+        Map<String, Object> body = new HashMap<>();
+        body.put("BusinessShortCode", config.getShortcode());
+        body.put("Password", password);
+        body.put("Timestamp", timestamp);
+        body.put("TransactionType", "CustomerPayBillOnline");
+        body.put("Amount", request.amount());
+        body.put("PartyA", request.phoneNumber());
+        body.put("PartyB", config.getShortcode());
+        body.put("PhoneNumber", request.phoneNumber());
+        body.put("CallBackURL", config.getStkCallbackUrl());
+        body.put("AccountReference", request.accountReference());
+        body.put("TransactionDesc", request.transactionDesc());
+        return objectMapper.writeValueAsBytes(body);
+    }
+
+    @Benchmark
+    public byte[] templateBody() throws Exception {
+        return requestWriter.writeValueAsBytes(template.bind(request, LocalDateTime.now()));
+    }
+}
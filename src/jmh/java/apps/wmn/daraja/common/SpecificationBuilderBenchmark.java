@@ -0,0 +1,47 @@
+package apps.wmn.daraja.common;
+
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.common.util.GenericSpecificationBuilder;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.springframework.data.jpa.domain.Specification;
+
+/**
+ * Cost of turning the payment search query parameters into a {@link Specification}. The field to
+ * column map is warmed in setup, so this measures the per-request parsing only.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SpecificationBuilderBenchmark {
+    private GenericSpecificationBuilder<MpesaPayment> specificationBuilder;
+    private Map<String, String> searchParams;
+
+    @Setup
+    public void setUp() {
+        specificationBuilder = new GenericSpecificationBuilder<>();
+
+        searchParams = new LinkedHashMap<>();
+        searchParams.put("transactionStatus", "COMPLETED");
+        searchParams.put("businessShortCode", "174379");
+        searchParams.put("amount_between", "100,5000");
+        searchParams.put("phoneNumber_startswith", "2547");
+        searchParams.put("page", "0");
+        searchParams.put("size", "20");
+        searchParams.put("sort", "createdDate,desc");
+        specificationBuilder.buildSpecification(MpesaPayment.class, searchParams);
+    }
+
+    @Benchmark
+    public Specification<MpesaPayment> buildSpecification() {
+        return specificationBuilder.buildSpecification(MpesaPayment.class, searchParams);
+    }
+}
@@ -0,0 +1,42 @@
+package apps.wmn.daraja.c2b.controllers;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.C2bValidationResponse;
+import apps.wmn.daraja.c2b.internal.C2bValidationService;
+import io.swagger.v3.oas.annotations.Operation;
+import io.swagger.v3.oas.annotations.media.Content;
+import io.swagger.v3.oas.annotations.media.Schema;
+import io.swagger.v3.oas.annotations.responses.ApiResponse;
+import io.swagger.v3.oas.annotations.tags.Tag;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Validation URL registered with Daraja for C2B payments. Kept apart from the callback endpoints
+ * because it answers from memory only and never stores the request.
+ */
+@RestController
+@RequestMapping("/api/v1/daraja/payments")
+@Tag(name = "Mpesa Payments", description = "APIs for managing Mpesa payments and transactions")
+@RequiredArgsConstructor
+public class C2bValidationController {
+  private final C2bValidationService validationService;
+
+  @Operation(
+      summary = "Validate C2B payment",
+      description =
+          "Called by M-Pesa before completing a C2B payment. Accepts or rejects it against the"
+              + " amount range, BillRefNumber pattern and allowed accounts of the shortcode.")
+  @ApiResponse(
+      responseCode = "200",
+      description = "Validation result; ResultCode 0 accepts the payment",
+      content = @Content(schema = @Schema(implementation = C2bValidationResponse.class)))
+  @PostMapping("/c2b/validation")
+  public ResponseEntity<C2bValidationResponse> validateC2BPayment(@RequestBody C2bCallback callback) {
+    return ResponseEntity.ok(validationService.validate(callback));
+  }
+}
@@ -0,0 +1,57 @@
+package apps.wmn.daraja.c2b.controllers;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import org.springframework.core.MethodParameter;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.bind.annotation.ControllerAdvice;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.servlet.mvc.method.annotation.RequestBodyAdviceAdapter;
+
+/**
+ * Reads Daraja callback bodies into memory once, before they are deserialized, and exposes the
+ * original bytes as the {@link #RAW_BODY_ATTRIBUTE} request attribute so they can be stored as
+ * received instead of being serialized again from the parsed callback.
+ */
+@ControllerAdvice(assignableTypes = MpesaPaymentController.class)
+public class CallbackBodyCaptureAdvice extends RequestBodyAdviceAdapter {
+    public static final String RAW_BODY_ATTRIBUTE = CallbackBodyCaptureAdvice.class.getName() + ".rawBody";
+
+    @Override
+    public boolean supports(
+            MethodParameter methodParameter,
+            Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType) {
+        return targetType == StkCallback.class || targetType == C2bCallback.class;
+    }
+
+    @Override
+    public HttpInputMessage beforeBodyRead(
+            HttpInputMessage inputMessage,
+            MethodParameter parameter,
+            Type targetType,
+            Class<? extends HttpMessageConverter<?>> converterType) throws IOException {
+        byte[] body = inputMessage.getBody().readAllBytes();
+        RequestContextHolder.currentRequestAttributes()
+                .setAttribute(RAW_BODY_ATTRIBUTE, body, RequestAttributes.SCOPE_REQUEST);
+
+        return new HttpInputMessage() {
+            @Override
+            public InputStream getBody() {
+                return new ByteArrayInputStream(body);
+            }
+
+            @Override
+            public HttpHeaders getHeaders() {
+                return inputMessage.getHeaders();
+            }
+        };
+    }
+}
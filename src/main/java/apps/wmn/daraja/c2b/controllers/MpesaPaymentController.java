@@ -2,9 +2,19 @@ package apps.wmn.daraja.c2b.controllers;
 
 import apps.wmn.daraja.c2b.dto.*;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
+import apps.wmn.daraja.c2b.internal.C2bCallbackBatcher;
+import apps.wmn.daraja.c2b.internal.CallbackDeduplicator;
+import apps.wmn.daraja.c2b.internal.CallbackJournal;
+import apps.wmn.daraja.c2b.internal.PaymentExporter;
 import apps.wmn.daraja.c2b.service.MpesaPaymentService;
+import apps.wmn.daraja.common.config.StkDispatchProperties;
 import apps.wmn.daraja.common.dto.ApiResponse;
+import apps.wmn.daraja.common.dto.CursorPage;
 import apps.wmn.daraja.common.dto.PagedDTO;
+import apps.wmn.daraja.common.exceptions.InvalidRequestException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
 import io.swagger.v3.oas.annotations.media.Content;
@@ -13,16 +23,27 @@ import io.swagger.v3.oas.annotations.responses.ApiResponses;
 import io.swagger.v3.oas.annotations.tags.Tag;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.ContentDisposition;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.servlet.support.ServletUriComponentsBuilder;
 
 @Slf4j
 @RestController
@@ -30,17 +51,31 @@ import org.springframework.web.bind.annotation.*;
 @Tag(name = "Mpesa Payments", description = "APIs for managing Mpesa payments and transactions")
 @RequiredArgsConstructor
 public class MpesaPaymentController {
+  private static final int MAX_CURSOR_PAGE_SIZE = 500;
 
   private final MpesaPaymentService paymentService;
+  private final CallbackJournal callbackJournal;
+  private final C2bCallbackBatcher c2bCallbackBatcher;
+  private final CallbackDeduplicator callbackDeduplicator;
+  private final PaymentExporter paymentExporter;
+  private final StkDispatchProperties dispatchProperties;
+  private final ObjectMapper objectMapper;
 
   @Operation(
       summary = "Initiate STK Push payment",
-      description = "Initiates an M-Pesa STK Push payment request to the customer's phone")
+      description =
+          "Initiates an M-Pesa STK Push payment request to the customer's phone. Shortcodes configured"
+              + " for ASYNC dispatch return 202 with the payment UUID straight away; poll"
+              + " GET /payments/{paymentId} for the checkout request ID and status.")
   @ApiResponses({
     @io.swagger.v3.oas.annotations.responses.ApiResponse(
         responseCode = "200",
         description = "STK Push initiated successfully",
         content = @Content(schema = @Schema(implementation = StkPushResponse.class))),
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+        responseCode = "202",
+        description = "STK Push accepted for asynchronous dispatch",
+        content = @Content(schema = @Schema(implementation = StkPushAcceptedResponse.class))),
     @io.swagger.v3.oas.annotations.responses.ApiResponse(
         responseCode = "400",
         description = "Invalid request parameters"),
@@ -49,12 +84,93 @@ public class MpesaPaymentController {
         description = "Error initiating STK Push")
   })
   @PostMapping("/stk/push")
-  public ResponseEntity<ApiResponse<StkPushResponse>> initiateSTKPush(
+  public ResponseEntity<ApiResponse<?>> initiateSTKPush(
       @Valid @RequestBody StkPushRequest request) {
     log.info("Received STK push request for phone: {}", request.phoneNumber());
+    MpesaEnvironment environment = MpesaEnvironment.valueOf(request.environment());
+    if (paymentService.getStkPushMode(request.shortCode(), environment) == StkPushMode.ASYNC) {
+      return ResponseEntity.accepted()
+          .body(
+              ApiResponse.success(
+                  paymentService.submitSTKPush(request, environment),
+                  "STK Push accepted for processing"));
+    }
     return ResponseEntity.ok(
         ApiResponse.success(
-            paymentService.initiateSTKPush(request, MpesaEnvironment.valueOf(request.environment())), "STK Push initiated successfully"));
+            paymentService.initiateSTKPush(request, environment), "STK Push initiated successfully"));
+  }
+
+  @Operation(
+      summary = "Initiate a batch of STK Push payments",
+      description =
+          "Initiates up to mpesa.stk-dispatch.max-batch-items (1000 by default) STK Push requests"
+              + " concurrently and returns the outcome of each once all have completed. Send Accept:"
+              + " application/x-ndjson to receive each outcome as a line as soon as it completes"
+              + " instead.")
+  @ApiResponses({
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+        responseCode = "200",
+        description = "Batch processed; see each item's outcome",
+        content = {
+          @Content(
+              mediaType = MediaType.APPLICATION_JSON_VALUE,
+              schema = @Schema(implementation = StkPushBatchItemResult.class)),
+          @Content(
+              mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+              schema = @Schema(implementation = StkPushBatchItemResult.class))
+        }),
+    @io.swagger.v3.oas.annotations.responses.ApiResponse(
+        responseCode = "400",
+        description = "Invalid request parameters")
+  })
+  @PostMapping(value = "/stk/push/batch", produces = MediaType.APPLICATION_JSON_VALUE)
+  public ResponseEntity<ApiResponse<List<StkPushBatchItemResult>>> initiateSTKPushBatch(
+      @Valid @RequestBody StkPushBatchRequest request) {
+    requireBatchSize(request);
+    log.info("Received batch of {} STK push requests", request.requests().size());
+    List<StkPushBatchItemResult> results = new ArrayList<>(request.requests().size());
+    paymentService.initiateSTKPushBatch(request.requests(), result -> {
+      synchronized (results) {
+        results.add(result);
+      }
+    });
+    results.sort(Comparator.comparingInt(StkPushBatchItemResult::index));
+    return ResponseEntity.ok(ApiResponse.success(results, "STK Push batch processed"));
+  }
+
+  @PostMapping(value = "/stk/push/batch", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> streamSTKPushBatch(
+      @Valid @RequestBody StkPushBatchRequest request) {
+    requireBatchSize(request);
+    log.info("Received streamed batch of {} STK push requests", request.requests().size());
+    ObjectWriter writer = objectMapper.writerFor(StkPushBatchItemResult.class);
+    ReentrantLock outputLock = new ReentrantLock();
+    StreamingResponseBody body = out -> paymentService.initiateSTKPushBatch(
+        request.requests(), result -> writeLine(out, outputLock, writer, result));
+    return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+  }
+
+  private void requireBatchSize(StkPushBatchRequest request) {
+    if (request.requests().size() > dispatchProperties.getMaxBatchItems()) {
+      throw new InvalidRequestException(
+          "A batch cannot exceed " + dispatchProperties.getMaxBatchItems() + " requests");
+    }
+  }
+
+  private void writeLine(
+      OutputStream out, ReentrantLock outputLock, ObjectWriter writer, StkPushBatchItemResult result) {
+    // A lock rather than a monitor, so pushes blocked on a slow client do not pin their carriers
+    outputLock.lock();
+    try {
+      out.write(writer.writeValueAsBytes(result));
+      out.write('\n');
+      out.flush();
+    } catch (IOException e) {
+      // The client went away; the remaining pushes still complete and are recorded
+      log.debug("Could not stream STK push result {}: {}", result.index(), e.getMessage());
+    } finally {
+      outputLock.unlock();
+    }
   }
 
   @Operation(
@@ -71,11 +187,20 @@ public class MpesaPaymentController {
   })
   @PostMapping("/stk/callback")
   public ResponseEntity<ApiResponse<PaymentView>> processStkCallback(
-      @Valid @RequestBody StkCallback callback) {
+      @Valid @RequestBody StkCallback callback,
+      @Parameter(hidden = true)
+          @RequestAttribute(name = CallbackBodyCaptureAdvice.RAW_BODY_ATTRIBUTE, required = false)
+          byte[] rawBody) {
     log.info("Received STK callback for request ID: {}", callback.merchantRequestId());
+    PaymentView payment =
+        callbackDeduplicator.processOnce(
+            CallbackDeduplicator.CallbackType.STK,
+            callback.checkoutRequestId(),
+            () -> ingest(callback, rawBody));
     return ResponseEntity.ok(
         ApiResponse.success(
-            paymentService.processStkCallback(callback), "STK callback processed successfully"));
+            payment,
+            payment != null ? "STK callback processed successfully" : "STK callback accepted"));
   }
 
   @Operation(
@@ -92,11 +217,50 @@ public class MpesaPaymentController {
   })
   @PostMapping("/c2b/callback")
   public ResponseEntity<ApiResponse<PaymentView>> processC2BCallback(
-      @Valid @RequestBody C2bCallback callback) {
+      @Valid @RequestBody C2bCallback callback,
+      @Parameter(hidden = true)
+          @RequestAttribute(name = CallbackBodyCaptureAdvice.RAW_BODY_ATTRIBUTE, required = false)
+          byte[] rawBody) {
     log.info("Received C2B callback for transaction: {}", callback.transId());
+    PaymentView payment =
+        callbackDeduplicator.processOnce(
+            CallbackDeduplicator.CallbackType.C2B,
+            callback.transId(),
+            () -> ingest(callback, rawBody));
     return ResponseEntity.ok(
         ApiResponse.success(
-            paymentService.processC2BCallback(callback), "C2B callback processed successfully"));
+            payment,
+            payment != null ? "C2B callback processed successfully" : "C2B callback accepted"));
+  }
+
+  /**
+   * Hands an STK callback to the configured ingestion path. Returns null if it was only journaled.
+   */
+  private PaymentView ingest(StkCallback callback, byte[] rawBody) {
+    if (callbackJournal.isEnabled()) {
+      callbackJournal.append(callback, rawBody);
+      return null;
+    }
+    return paymentService.processStkCallback(callback, toRawCallback(rawBody));
+  }
+
+  /**
+   * Hands a C2B callback to the configured ingestion path. Returns null if it was only journaled.
+   */
+  private PaymentView ingest(C2bCallback callback, byte[] rawBody) {
+    if (callbackJournal.isEnabled()) {
+      callbackJournal.append(callback, rawBody);
+      return null;
+    }
+    if (c2bCallbackBatcher.isEnabled()) {
+      // Waits outside any transaction so only the batch flush holds a connection
+      return c2bCallbackBatcher.process(callback, toRawCallback(rawBody));
+    }
+    return paymentService.processC2BCallback(callback, toRawCallback(rawBody));
+  }
+
+  private static String toRawCallback(byte[] rawBody) {
+    return rawBody != null ? new String(rawBody, StandardCharsets.UTF_8) : null;
   }
 
   @Operation(
@@ -173,6 +337,127 @@ public class MpesaPaymentController {
             "Payments retrieved successfully"));
   }
 
+  @Operation(
+      summary = "Search payments by cursor",
+      description =
+          "Search payments with filters, newest first, using keyset pagination. Pass the nextCursor"
+              + " of a page to fetch the next one. Pages cost the same at any depth and no total is"
+              + " counted.")
+  @io.swagger.v3.oas.annotations.responses.ApiResponse(
+      responseCode = "200",
+      description = "Search results retrieved",
+      content = @Content(schema = @Schema(implementation = PagedDTO.class)))
+  @GetMapping("/search/cursor")
+  public ResponseEntity<ApiResponse<PagedDTO<PaymentView>>> searchPaymentsByCursor(
+      @Parameter(description = "Customer phone number") @RequestParam(required = false)
+          String phoneNumber,
+      @Parameter(description = "Transaction status") @RequestParam(required = false) String status,
+      @Parameter(description = "Start date (yyyy-MM-dd'T'HH:mm:ss)")
+          @RequestParam(required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime startDate,
+      @Parameter(description = "End date (yyyy-MM-dd'T'HH:mm:ss)")
+          @RequestParam(required = false)
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime endDate,
+      @Parameter(description = "nextCursor of the previous page; omit for the first page")
+          @RequestParam(required = false)
+          String cursor,
+      @Parameter(description = "Page size, at most " + MAX_CURSOR_PAGE_SIZE)
+          @RequestParam(defaultValue = "20")
+          int size) {
+
+    CursorPage<PaymentView> page =
+        paymentService.getPaymentsAfter(
+            phoneNumber,
+            status,
+            startDate,
+            endDate,
+            cursor,
+            Math.max(1, Math.min(size, MAX_CURSOR_PAGE_SIZE)));
+
+    return ResponseEntity.ok(
+        ApiResponse.success(
+            PagedDTO.from(page, ServletUriComponentsBuilder.fromCurrentRequest()),
+            "Payments retrieved successfully"));
+  }
+
+  @Operation(
+      summary = "Export payments",
+      description =
+          "Streams every payment created in [startDate, endDate), oldest first, as NDJSON"
+              + " (Accept: application/x-ndjson) or CSV (Accept: text/csv). Rows are written as"
+              + " they are read, so exports of any size use constant memory. A complete export"
+              + " ends with a trailer line, {\"export_complete\":true,\"rows\":N} for NDJSON and"
+              + " '# export_complete,rows=N' for CSV; an export cut off part way still returns 200"
+              + " but has no trailer.")
+  @io.swagger.v3.oas.annotations.responses.ApiResponse(
+      responseCode = "200",
+      description = "Export streamed",
+      content = {
+        @Content(
+            mediaType = MediaType.APPLICATION_NDJSON_VALUE,
+            schema = @Schema(implementation = PaymentExportRow.class)),
+        @Content(mediaType = "text/csv")
+      })
+  @io.swagger.v3.oas.annotations.responses.ApiResponse(
+      responseCode = "429",
+      description = "The maximum number of concurrent exports is already running")
+  @GetMapping(value = "/export", produces = MediaType.APPLICATION_NDJSON_VALUE)
+  public ResponseEntity<StreamingResponseBody> exportPaymentsNdjson(
+      @Parameter(description = "Start date, inclusive (yyyy-MM-dd'T'HH:mm:ss)")
+          @RequestParam
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime startDate,
+      @Parameter(description = "End date, exclusive (yyyy-MM-dd'T'HH:mm:ss)")
+          @RequestParam
+          @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME)
+          LocalDateTime endDate) {
+
+    requireRange(startDate, endDate);
+    PaymentExporter.Slot slot = paymentExporter.reserve();
+    StreamingResponseBody body =
+        out -> {
+          try (slot) {
+            paymentExporter.exportNdjson(startDate, endDate, out);
+          }
+        };
+    return exportResponse(MediaType.APPLICATION_NDJSON, "payments.ndjson", body);
+  }
+
+  @GetMapping(value = "/export", produces = "text/csv")
+  public ResponseEntity<StreamingResponseBody> exportPaymentsCsv(
+      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime startDate,
+      @RequestParam @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) LocalDateTime endDate) {
+
+    requireRange(startDate, endDate);
+    PaymentExporter.Slot slot = paymentExporter.reserve();
+    StreamingResponseBody body =
+        out -> {
+          try (slot) {
+            paymentExporter.exportCsv(startDate, endDate, out);
+          }
+        };
+    return exportResponse(
+        new MediaType("text", "csv", StandardCharsets.UTF_8), "payments.csv", body);
+  }
+
+  private static void requireRange(LocalDateTime startDate, LocalDateTime endDate) {
+    if (!startDate.isBefore(endDate)) {
+      throw new InvalidRequestException("startDate must be before endDate");
+    }
+  }
+
+  private static ResponseEntity<StreamingResponseBody> exportResponse(
+      MediaType contentType, String filename, StreamingResponseBody body) {
+    return ResponseEntity.ok()
+        .contentType(contentType)
+        .header(
+            HttpHeaders.CONTENT_DISPOSITION,
+            ContentDisposition.attachment().filename(filename).build().toString())
+        .body(body);
+  }
+
   @Operation(
       summary = "Get payments by phone number",
       description = "Retrieves all payments for a specific phone number")
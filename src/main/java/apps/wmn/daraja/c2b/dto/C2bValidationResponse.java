@@ -0,0 +1,28 @@
+package apps.wmn.daraja.c2b.dto;
+
+import apps.wmn.daraja.c2b.enums.C2bValidationResult;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "Answer to a Daraja C2B validation request")
+public record C2bValidationResponse(
+        @JsonProperty("ResultCode")
+        @Schema(description = "0 to accept the payment, or a C2B000xx rejection code", example = "0")
+        String resultCode,
+
+        @JsonProperty("ResultDesc")
+        @Schema(description = "Description of the result", example = "Accepted")
+        String resultDesc
+) {
+    private static final C2bValidationResponse[] RESPONSES = new C2bValidationResponse[C2bValidationResult.values().length];
+
+    static {
+        for (C2bValidationResult result : C2bValidationResult.values()) {
+            RESPONSES[result.ordinal()] = new C2bValidationResponse(result.resultCode(), result.resultDesc());
+        }
+    }
+
+    public static C2bValidationResponse of(C2bValidationResult result) {
+        return RESPONSES[result.ordinal()];
+    }
+}
@@ -2,12 +2,17 @@ package apps.wmn.daraja.c2b.dto;
 
 import apps.wmn.daraja.c2b.entity.MpesaConfig;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
 import apps.wmn.daraja.common.enums.ShortcodeType;
 import io.swagger.v3.oas.annotations.media.Schema;
 import jakarta.validation.constraints.NotBlank;
 import jakarta.validation.constraints.NotNull;
+import jakarta.validation.constraints.Positive;
+import jakarta.validation.constraints.PositiveOrZero;
 import jakarta.validation.constraints.Size;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import java.math.BigDecimal;
+import java.util.List;
 
 @Schema(description = "Payment configuration creation/update request")
 public record CreateMpesaConfigRequest(
@@ -94,6 +99,39 @@ public record CreateMpesaConfigRequest(
         @JsonProperty("stkCallbackUrl")
         String stkCallbackUrl,
 
+        @Schema(description = "STK Push dispatch mode (SYNC/ASYNC), defaults to SYNC")
+        @JsonProperty("stkPushMode")
+        StkPushMode stkPushMode,
+
+        @Positive
+        @Schema(description = "Outbound Daraja calls per second for this shortcode, defaults to mpesa.rate-limit.permits-per-second")
+        @JsonProperty("rateLimitPerSecond")
+        Double rateLimitPerSecond,
+
+        @Positive
+        @Schema(description = "Outbound Daraja calls allowed back to back, defaults to mpesa.rate-limit.burst")
+        @JsonProperty("rateLimitBurst")
+        Integer rateLimitBurst,
+
+        @PositiveOrZero
+        @Schema(description = "Smallest C2B amount accepted by the validation endpoint, unchecked when null")
+        @JsonProperty("validationMinAmount")
+        BigDecimal validationMinAmount,
+
+        @PositiveOrZero
+        @Schema(description = "Largest C2B amount accepted by the validation endpoint, unchecked when null")
+        @JsonProperty("validationMaxAmount")
+        BigDecimal validationMaxAmount,
+
+        @Size(max = 255)
+        @Schema(description = "Regular expression the whole BillRefNumber must match, unchecked when null", example = "^INV\\d{6}$")
+        @JsonProperty("validationBillRefPattern")
+        String validationBillRefPattern,
+
+        @Schema(description = "Account numbers (BillRefNumber, case-insensitive) accepted by the validation endpoint, unchecked when null or empty")
+        @JsonProperty("validationAllowedAccounts")
+        List<String> validationAllowedAccounts,
+
         @Schema(description = "Configuration description")
         @JsonProperty("description")
         String description
@@ -116,6 +154,13 @@ public record CreateMpesaConfigRequest(
         config.setDisbursementTimeoutUrl(disbursementTimeoutUrl);
         config.setDisbursementQueueUrl(disbursementQueueUrl);
         config.setStkCallbackUrl(stkCallbackUrl);
+        config.setStkPushMode(stkPushMode != null ? stkPushMode : StkPushMode.SYNC);
+        config.setRateLimitPerSecond(rateLimitPerSecond);
+        config.setRateLimitBurst(rateLimitBurst);
+        config.setValidationMinAmount(validationMinAmount);
+        config.setValidationMaxAmount(validationMaxAmount);
+        config.setValidationBillRefPattern(validationBillRefPattern);
+        config.setValidationAllowedAccounts(validationAllowedAccounts);
         config.setDescription(description);
         config.setActive(true);
 
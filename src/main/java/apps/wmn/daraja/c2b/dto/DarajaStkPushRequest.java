@@ -0,0 +1,47 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import java.math.BigDecimal;
+
+/**
+ * Body of the Daraja STK push (M-Pesa Express) request.
+ */
+@JsonPropertyOrder({
+        "BusinessShortCode", "Password", "Timestamp", "TransactionType", "Amount", "PartyA",
+        "PartyB", "PhoneNumber", "CallBackURL", "AccountReference", "TransactionDesc"
+})
+public record DarajaStkPushRequest(
+        @JsonProperty("BusinessShortCode")
+        String businessShortCode,
+
+        @JsonProperty("Password")
+        String password,
+
+        @JsonProperty("Timestamp")
+        String timestamp,
+
+        @JsonProperty("TransactionType")
+        String transactionType,
+
+        @JsonProperty("Amount")
+        BigDecimal amount,
+
+        @JsonProperty("PartyA")
+        String partyA,
+
+        @JsonProperty("PartyB")
+        String partyB,
+
+        @JsonProperty("PhoneNumber")
+        String phoneNumber,
+
+        @JsonProperty("CallBackURL")
+        String callBackUrl,
+
+        @JsonProperty("AccountReference")
+        String accountReference,
+
+        @JsonProperty("TransactionDesc")
+        String transactionDesc
+) {}
@@ -0,0 +1,22 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+
+/**
+ * Body of the Daraja STK push query request.
+ */
+@JsonPropertyOrder({"BusinessShortCode", "Password", "Timestamp", "CheckoutRequestID"})
+public record DarajaStkQueryRequest(
+        @JsonProperty("BusinessShortCode")
+        String businessShortCode,
+
+        @JsonProperty("Password")
+        String password,
+
+        @JsonProperty("Timestamp")
+        String timestamp,
+
+        @JsonProperty("CheckoutRequestID")
+        String checkoutRequestId
+) {}
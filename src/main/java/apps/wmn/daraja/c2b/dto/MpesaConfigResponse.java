@@ -2,9 +2,12 @@ package apps.wmn.daraja.c2b.dto;
 
 import apps.wmn.daraja.c2b.entity.MpesaConfig;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
 import apps.wmn.daraja.common.enums.ShortcodeType;
 import io.swagger.v3.oas.annotations.media.Schema;
 
+import java.math.BigDecimal;
+import java.util.List;
 import java.util.UUID;
 
 @Schema(description = "Mpesa configuration response")
@@ -51,6 +54,27 @@ public record MpesaConfigResponse(
         @Schema(description = "STK Push callback URL")
         String stkCallbackUrl,
 
+        @Schema(description = "STK Push dispatch mode (SYNC/ASYNC)")
+        StkPushMode stkPushMode,
+
+        @Schema(description = "Outbound Daraja calls per second, null when using the default")
+        Double rateLimitPerSecond,
+
+        @Schema(description = "Outbound Daraja calls allowed back to back, null when using the default")
+        Integer rateLimitBurst,
+
+        @Schema(description = "Smallest C2B amount accepted by the validation endpoint, null when unchecked")
+        BigDecimal validationMinAmount,
+
+        @Schema(description = "Largest C2B amount accepted by the validation endpoint, null when unchecked")
+        BigDecimal validationMaxAmount,
+
+        @Schema(description = "Regular expression the BillRefNumber must match, null when unchecked")
+        String validationBillRefPattern,
+
+        @Schema(description = "Account numbers accepted by the validation endpoint, null when unchecked")
+        List<String> validationAllowedAccounts,
+
         @Schema(description = "Configuration status")
         boolean active,
 
@@ -72,6 +96,13 @@ public record MpesaConfigResponse(
                 config.getDisbursementTimeoutUrl(),
                 config.getDisbursementQueueUrl(),
                 config.getStkCallbackUrl(),
+                config.getStkPushMode(),
+                config.getRateLimitPerSecond(),
+                config.getRateLimitBurst(),
+                config.getValidationMinAmount(),
+                config.getValidationMaxAmount(),
+                config.getValidationBillRefPattern(),
+                config.getValidationAllowedAccounts(),
                 config.isActive(),
                 config.getDescription()
         );
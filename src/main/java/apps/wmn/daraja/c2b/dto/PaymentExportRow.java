@@ -0,0 +1,50 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonPropertyOrder;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * One payment in an export. Holds only the columns finance needs, so the raw request and callback
+ * documents are never read.
+ */
+@JsonPropertyOrder({
+    "uuid", "transaction_id", "transaction_type", "transaction_status", "amount", "charges_amount",
+    "currency", "business_short_code", "phone_number", "payer_identifier", "payee_identifier",
+    "account_reference", "bill_ref_number", "transaction_desc", "created_date", "completed_date"
+})
+public record PaymentExportRow(
+        @JsonProperty("uuid") UUID uuid,
+        @JsonProperty("transaction_id") String transactionId,
+        @JsonProperty("transaction_type") String transactionType,
+        @JsonProperty("transaction_status") String transactionStatus,
+        @JsonProperty("amount") BigDecimal amount,
+        @JsonProperty("charges_amount") BigDecimal chargesAmount,
+        @JsonProperty("currency") String currency,
+        @JsonProperty("business_short_code") String businessShortCode,
+        @JsonProperty("phone_number") String phoneNumber,
+        @JsonProperty("payer_identifier") String payerIdentifier,
+        @JsonProperty("payee_identifier") String payeeIdentifier,
+        @JsonProperty("account_reference") String accountReference,
+        @JsonProperty("bill_ref_number") String billRefNumber,
+        @JsonProperty("transaction_desc") String transactionDesc,
+        @JsonProperty("created_date") LocalDateTime createdDate,
+        @JsonProperty("completed_date") LocalDateTime completedDate
+) {
+    /** Column names in CSV header order, matching {@link #values()}. */
+    public static final String[] COLUMNS = {
+        "uuid", "transaction_id", "transaction_type", "transaction_status", "amount", "charges_amount",
+        "currency", "business_short_code", "phone_number", "payer_identifier", "payee_identifier",
+        "account_reference", "bill_ref_number", "transaction_desc", "created_date", "completed_date"
+    };
+
+    public Object[] values() {
+        return new Object[] {
+            uuid, transactionId, transactionType, transactionStatus, amount, chargesAmount,
+            currency, businessShortCode, phoneNumber, payerIdentifier, payeeIdentifier,
+            accountReference, billRefNumber, transactionDesc, createdDate, completedDate
+        };
+    }
+}
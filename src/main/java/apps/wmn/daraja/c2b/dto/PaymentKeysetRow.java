@@ -0,0 +1,50 @@
+package apps.wmn.daraja.c2b.dto;
+
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import java.util.UUID;
+
+/**
+ * A payment as projected for keyset pagination: the fields of its {@link PaymentView} plus the
+ * internal id that, with the creation date, positions it in the {@code (created_date, id)} order.
+ */
+public record PaymentKeysetRow(
+        Long id,
+        UUID uuid,
+        String transactionId,
+        String checkoutRequestId,
+        String phoneNumber,
+        BigDecimal amount,
+        BigDecimal chargesAmount,
+        String currency,
+        String accountReference,
+        String transactionDesc,
+        String transactionType,
+        String transactionStatus,
+        String payerIdentifier,
+        String payeeIdentifier,
+        LocalDateTime createdDate,
+        LocalDateTime completedDate,
+        String errorMessage
+) {
+    public PaymentView toView() {
+        return new PaymentView(
+                uuid,
+                transactionId,
+                checkoutRequestId,
+                phoneNumber,
+                amount,
+                chargesAmount,
+                currency,
+                accountReference,
+                transactionDesc,
+                transactionType,
+                transactionStatus,
+                payerIdentifier,
+                payeeIdentifier,
+                createdDate,
+                completedDate,
+                errorMessage
+        );
+    }
+}
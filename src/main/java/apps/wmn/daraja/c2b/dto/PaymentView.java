@@ -16,6 +16,10 @@ public record PaymentView(
         @Schema(description = "Unique transaction identifier")
         String transactionId,
 
+        @JsonProperty("checkout_request_id")
+        @Schema(description = "Daraja checkout request ID of an STK Push")
+        String checkoutRequestId,
+
         @JsonProperty("phone_number")
         @Schema(description = "Customer phone number")
         String phoneNumber,
@@ -62,5 +66,9 @@ public record PaymentView(
 
         @JsonProperty("completed_date")
         @Schema(description = "Transaction completion date")
-        LocalDateTime completedDate
+        LocalDateTime completedDate,
+
+        @JsonProperty("error_message")
+        @Schema(description = "Reason the transaction failed, if it did")
+        String errorMessage
 ) {}
\ No newline at end of file
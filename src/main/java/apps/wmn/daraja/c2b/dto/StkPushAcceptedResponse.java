@@ -0,0 +1,16 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.UUID;
+
+@Schema(description = "Acknowledgement of an STK Push queued for asynchronous dispatch")
+public record StkPushAcceptedResponse(
+        @JsonProperty("payment_id")
+        @Schema(description = "Payment UUID to poll for the Daraja checkout request ID and status")
+        UUID paymentId,
+
+        @JsonProperty("transaction_status")
+        @Schema(description = "Status of the transaction", example = "PENDING")
+        String transactionStatus
+) {}
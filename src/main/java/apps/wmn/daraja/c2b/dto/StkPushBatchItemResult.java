@@ -0,0 +1,37 @@
+package apps.wmn.daraja.c2b.dto;
+
+import apps.wmn.daraja.c2b.enums.StkPushBatchOutcome;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import java.util.UUID;
+
+@Schema(description = "Outcome of one STK Push in a batch")
+public record StkPushBatchItemResult(
+        @JsonProperty("index")
+        @Schema(description = "Position of the request in the batch")
+        int index,
+
+        @JsonProperty("payment_id")
+        @Schema(description = "Payment UUID, absent when no payment was created")
+        UUID paymentId,
+
+        @JsonProperty("phone_number")
+        @Schema(description = "Customer phone number")
+        String phoneNumber,
+
+        @JsonProperty("outcome")
+        @Schema(description = "Outcome of the push (ACCEPTED/FAILED/THROTTLED/UNKNOWN)")
+        StkPushBatchOutcome outcome,
+
+        @JsonProperty("merchant_request_id")
+        @Schema(description = "Daraja merchant request ID")
+        String merchantRequestId,
+
+        @JsonProperty("checkout_request_id")
+        @Schema(description = "Daraja checkout request ID")
+        String checkoutRequestId,
+
+        @JsonProperty("error_message")
+        @Schema(description = "Why the push was not accepted")
+        String errorMessage
+) {}
@@ -0,0 +1,16 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.Valid;
+import jakarta.validation.constraints.NotEmpty;
+import java.util.List;
+
+@Schema(description = "A batch of STK Push payment requests")
+public record StkPushBatchRequest(
+        @NotEmpty(message = "At least one request is required")
+        @Valid
+        @JsonProperty("requests")
+        @Schema(description = "STK Push requests, processed concurrently")
+        List<StkPushRequest> requests
+) {}
@@ -0,0 +1,25 @@
+package apps.wmn.daraja.c2b.dto;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import io.swagger.v3.oas.annotations.media.Schema;
+
+@Schema(description = "STK Push query API response")
+public record StkQueryResponse(
+        @JsonProperty("ResponseCode")
+        String responseCode,
+
+        @JsonProperty("ResponseDescription")
+        String responseDescription,
+
+        @JsonProperty("MerchantRequestID")
+        String merchantRequestId,
+
+        @JsonProperty("CheckoutRequestID")
+        String checkoutRequestId,
+
+        @JsonProperty("ResultCode")
+        String resultCode,
+
+        @JsonProperty("ResultDesc")
+        String resultDesc
+) {}
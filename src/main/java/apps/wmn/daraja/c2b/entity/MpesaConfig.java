@@ -1,13 +1,18 @@
 package apps.wmn.daraja.c2b.entity;
 
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
 import apps.wmn.daraja.common.entity.BaseEntity;
 import apps.wmn.daraja.common.enums.ShortcodeType;
 import jakarta.persistence.*;
+import java.math.BigDecimal;
+import java.util.List;
 import lombok.AllArgsConstructor;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
 
 @Entity
 @Table(
@@ -73,6 +78,29 @@ public class MpesaConfig extends BaseEntity {
   @Column(name = "stk_callback_url")
   private String stkCallbackUrl;
 
+  @Enumerated(EnumType.STRING)
+  @Column(name = "stk_push_mode")
+  private StkPushMode stkPushMode = StkPushMode.SYNC;
+
+  @Column(name = "rate_limit_per_second")
+  private Double rateLimitPerSecond;
+
+  @Column(name = "rate_limit_burst")
+  private Integer rateLimitBurst;
+
+  @Column(name = "validation_min_amount")
+  private BigDecimal validationMinAmount;
+
+  @Column(name = "validation_max_amount")
+  private BigDecimal validationMaxAmount;
+
+  @Column(name = "validation_bill_ref_pattern")
+  private String validationBillRefPattern;
+
+  @JdbcTypeCode(SqlTypes.ARRAY)
+  @Column(name = "validation_allowed_accounts", columnDefinition = "text[]")
+  private List<String> validationAllowedAccounts;
+
   @Column(name = "is_active")
   private boolean active = true;
 
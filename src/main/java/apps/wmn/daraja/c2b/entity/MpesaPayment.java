@@ -1,5 +1,6 @@
 package apps.wmn.daraja.c2b.entity;
 
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
 import apps.wmn.daraja.common.entity.BaseEntity;
 import jakarta.persistence.*;
 import lombok.*;
@@ -21,6 +22,12 @@ public class MpesaPayment extends BaseEntity {
     @Column(name = "transaction_id")
     private String transactionId;
 
+    @Column(name = "merchant_request_id")
+    private String merchantRequestId;
+
+    @Column(name = "checkout_request_id")
+    private String checkoutRequestId;
+
     @Column(name = "origin_transaction_id")
     private String originTransactionId;
 
@@ -45,6 +52,10 @@ public class MpesaPayment extends BaseEntity {
     @Column(name = "business_short_code")
     private String businessShortCode;
 
+    @Enumerated(EnumType.STRING)
+    @Column(name = "environment")
+    private MpesaEnvironment environment;
+
     @Column(name = "initiator_identifier")
     private String initiatorIdentifier;
 
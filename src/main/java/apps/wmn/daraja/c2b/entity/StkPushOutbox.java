@@ -0,0 +1,68 @@
+package apps.wmn.daraja.c2b.entity;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.OutboxStatus;
+import apps.wmn.daraja.common.entity.BaseEntity;
+import jakarta.persistence.*;
+import java.time.LocalDateTime;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import org.hibernate.annotations.JdbcTypeCode;
+import org.hibernate.type.SqlTypes;
+
+@Entity
+@Table(name = "stk_push_outbox")
+@Getter
+@Setter
+@AllArgsConstructor
+@NoArgsConstructor
+public class StkPushOutbox extends BaseEntity {
+
+  @Column(name = "payment_id")
+  private Long paymentId;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "environment")
+  private MpesaEnvironment environment;
+
+  @Enumerated(EnumType.STRING)
+  @Column(name = "status")
+  private OutboxStatus status = OutboxStatus.PENDING;
+
+  @Column(name = "payload")
+  @JdbcTypeCode(SqlTypes.JSON)
+  private String payload;
+
+  @Column(name = "attempts")
+  private int attempts;
+
+  @Column(name = "claimed_date")
+  private LocalDateTime claimedDate;
+
+  @Column(name = "completed_date")
+  private LocalDateTime completedDate;
+
+  @Column(name = "last_error")
+  private String lastError;
+
+  public static StkPushOutbox pending(MpesaPayment payment, MpesaEnvironment environment) {
+    StkPushOutbox entry = new StkPushOutbox();
+    entry.setPaymentId(payment.getId());
+    entry.setEnvironment(environment);
+    entry.setPayload(payment.getRawRequest());
+    return entry;
+  }
+
+  /**
+   * An entry claimed by the request thread that pushes it, so that dispatchers leave it alone.
+   */
+  public static StkPushOutbox claimed(MpesaPayment payment, MpesaEnvironment environment) {
+    StkPushOutbox entry = pending(payment, environment);
+    entry.setStatus(OutboxStatus.DISPATCHING);
+    entry.setClaimedDate(LocalDateTime.now());
+    entry.setAttempts(1);
+    return entry;
+  }
+}
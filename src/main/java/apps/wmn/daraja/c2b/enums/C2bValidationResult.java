@@ -0,0 +1,29 @@
+package apps.wmn.daraja.c2b.enums;
+
+/**
+ * Outcomes of C2B validation, with the result codes Daraja expects in the validation response.
+ */
+public enum C2bValidationResult {
+    ACCEPTED("0", "Accepted"),
+    INVALID_MSISDN("C2B00011", "Rejected: invalid MSISDN"),
+    INVALID_ACCOUNT("C2B00012", "Rejected: invalid account number"),
+    INVALID_AMOUNT("C2B00013", "Rejected: invalid amount"),
+    INVALID_SHORTCODE("C2B00015", "Rejected: invalid shortcode"),
+    OTHER_ERROR("C2B00016", "Rejected: other error");
+
+    private final String resultCode;
+    private final String resultDesc;
+
+    C2bValidationResult(String resultCode, String resultDesc) {
+        this.resultCode = resultCode;
+        this.resultDesc = resultDesc;
+    }
+
+    public String resultCode() {
+        return resultCode;
+    }
+
+    public String resultDesc() {
+        return resultDesc;
+    }
+}
@@ -0,0 +1,10 @@
+package apps.wmn.daraja.c2b.enums;
+
+public enum DeadLetterReason {
+    /** An STK callback that arrived before its push response was persisted. */
+    UNMATCHED,
+    /** A callback that kept failing to apply. */
+    UNAPPLIABLE,
+    /** A journal entry that could not be decoded into a callback. */
+    UNREADABLE
+}
\ No newline at end of file
@@ -0,0 +1,10 @@
+package apps.wmn.daraja.c2b.enums;
+
+public enum OutboxStatus {
+    PENDING,
+    DISPATCHING,
+    DISPATCHED,
+    FAILED,
+    /** Claimed but the dispatch outcome is unknown; reconciliation flags the payment for manual review. */
+    ABANDONED
+}
@@ -0,0 +1,12 @@
+package apps.wmn.daraja.c2b.enums;
+
+public enum StkPushBatchOutcome {
+    /** Daraja accepted the push and the customer is being prompted. */
+    ACCEPTED,
+    /** The push was not sent; the payment, if one was created, is marked FAILED. */
+    FAILED,
+    /** The shortcode's rate limit or an open circuit kept the push from being sent; safe to retry. */
+    THROTTLED,
+    /** The call to Daraja failed in transit; the payment stays PENDING for reconciliation. */
+    UNKNOWN
+}
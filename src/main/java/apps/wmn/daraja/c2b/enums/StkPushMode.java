@@ -0,0 +1,6 @@
+package apps.wmn.daraja.c2b.enums;
+
+public enum StkPushMode {
+    SYNC,
+    ASYNC
+}
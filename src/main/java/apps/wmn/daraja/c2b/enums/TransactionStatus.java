@@ -4,5 +4,7 @@ public enum TransactionStatus {
     PENDING,
     COMPLETED,
     FAILED,
-    CANCELLED
+    CANCELLED,
+    /** The outcome could not be established from Daraja; the payment must be reconciled manually. */
+    REQUIRES_REVIEW
 }
\ No newline at end of file
@@ -2,6 +2,7 @@ package apps.wmn.daraja.c2b.factory;
 
 import apps.wmn.daraja.c2b.dto.*;
 import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.extern.slf4j.Slf4j;
 import java.time.LocalDateTime;
@@ -26,6 +27,7 @@ public class PaymentMapperFactory {
                 .transactionStatus("PENDING")
                 .currency("KES")
                 .businessShortCode(request.shortCode())
+                .environment(MpesaEnvironment.valueOf(request.environment()))
                 .payeeIdentifier(request.shortCode())
                 .rawRequest(toJson(request))
                 .retryCount(0)
@@ -34,10 +36,20 @@ public class PaymentMapperFactory {
 
     public static void updateWithStkResponse(MpesaPayment entity, StkPushResponse response) {
         entity.setTransactionId(response.merchantRequestId());
+        entity.setMerchantRequestId(response.merchantRequestId());
+        entity.setCheckoutRequestId(response.checkoutRequestId());
         entity.setRawCallback(toJson(response));
     }
 
     public static void updateWithStkCallback(MpesaPayment entity, StkCallback callback) {
+        updateWithStkCallback(entity, callback, null);
+    }
+
+    /**
+     * Applies an STK callback, storing {@code rawCallback} (the body as received) as the raw
+     * callback, or the serialized callback if it is null.
+     */
+    public static void updateWithStkCallback(MpesaPayment entity, StkCallback callback, String rawCallback) {
         Map<String, Object> metadata = extractStkMetadata(callback.callbackMetadata());
 
         entity.setTransactionStatus("0".equals(callback.resultCode()) ? "COMPLETED" : "FAILED");
@@ -46,7 +58,7 @@ public class PaymentMapperFactory {
         entity.setPhoneNumber((String) metadata.get("PhoneNumber"));
         entity.setPayerIdentifier((String) metadata.get("PhoneNumber"));
         entity.setTransactionId((String) metadata.get("MpesaReceiptNumber"));
-        entity.setRawCallback(toJson(callback));
+        entity.setRawCallback(rawCallback != null ? rawCallback : toJson(callback));
 
         if (metadata.containsKey("Amount")) {
             entity.setAmount(new java.math.BigDecimal(metadata.get("Amount").toString()));
@@ -54,6 +66,14 @@ public class PaymentMapperFactory {
     }
 
     public static void updateWithC2BCallback(MpesaPayment entity, C2bCallback callback) {
+        updateWithC2BCallback(entity, callback, null);
+    }
+
+    /**
+     * Applies a C2B callback, storing {@code rawCallback} (the body as received) as the raw
+     * callback, or the serialized callback if it is null.
+     */
+    public static void updateWithC2BCallback(MpesaPayment entity, C2bCallback callback, String rawCallback) {
         log.debug("C2B callback received: {}", callback);
         entity.setTransactionId(callback.transId());
         entity.setMsisdn(callback.msisdn());
@@ -84,7 +104,7 @@ public class PaymentMapperFactory {
         entity.setFirstName(callback.firstName());
         entity.setMiddleName(callback.middleName());
         entity.setLastName(callback.lastName());
-        entity.setRawCallback(toJson(callback));
+        entity.setRawCallback(rawCallback != null ? rawCallback : toJson(callback));
 
         log.info("Mpesa payment callback processed successfully {}", entity);
     }
@@ -93,6 +113,7 @@ public class PaymentMapperFactory {
         return new PaymentView(
                 entity.getUuid(),
                 entity.getTransactionId(),
+                entity.getCheckoutRequestId(),
                 entity.getPhoneNumber(),
                 entity.getAmount(),
                 entity.getChargesAmount(),
@@ -104,7 +125,8 @@ public class PaymentMapperFactory {
                 entity.getPayerIdentifier(),
                 entity.getPayeeIdentifier(),
                 entity.getCreatedDate(),
-                entity.getCompletedDate()
+                entity.getCompletedDate(),
+                entity.getErrorMessage()
         );
     }
 
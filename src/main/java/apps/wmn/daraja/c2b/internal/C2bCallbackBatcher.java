@@ -0,0 +1,121 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentBatchRepository;
+import apps.wmn.daraja.common.concurrent.MicroBatcher;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import apps.wmn.daraja.common.exceptions.PaymentException;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.stereotype.Component;
+
+/**
+ * Persists C2B callbacks in BATCHED ingestion mode. Callbacks arriving together are mapped in
+ * memory and written with one batched upsert on {@code transaction_id}, in one transaction, and
+ * each caller is answered once that transaction commits.
+ */
+@Component
+@Slf4j
+public class C2bCallbackBatcher {
+    private final MpesaPaymentBatchRepository paymentBatchRepository;
+    private final MicroBatcher<ReceivedCallback, PaymentView> batcher;
+    private final Duration batchTimeout;
+
+    public C2bCallbackBatcher(
+            MpesaPaymentBatchRepository paymentBatchRepository,
+            CallbackIngestionProperties properties,
+            MeterRegistry meterRegistry) {
+        this.paymentBatchRepository = paymentBatchRepository;
+        this.batchTimeout = properties.getBatchTimeout();
+        this.batcher = properties.getMode() == CallbackIngestionProperties.Mode.BATCHED
+                ? new MicroBatcher<>(
+                        "c2b-callbacks",
+                        properties.getBatchSize(),
+                        properties.getBatchMaxDelay(),
+                        properties.getBatchQueueCapacity(),
+                        this::flush,
+                        meterRegistry)
+                : null;
+    }
+
+    public boolean isEnabled() {
+        return batcher != null;
+    }
+
+    /**
+     * Queues the callback and waits until the batch holding it has been committed, or fails once
+     * {@code batchTimeout} has passed so that the callback is answered with an error and redelivered.
+     */
+    public PaymentView process(C2bCallback callback, String rawCallback) {
+        try {
+            PaymentView view = batcher.submit(new ReceivedCallback(callback, rawCallback))
+                    .orTimeout(batchTimeout.toMillis(), TimeUnit.MILLISECONDS)
+                    .join();
+            if (view == null) {
+                throw new PaymentException("Failed to process C2B callback " + callback.transId());
+            }
+            return view;
+        } catch (CompletionException e) {
+            log.error("Error processing C2B callback {} in batch", callback.transId(), e.getCause());
+            throw new PaymentException("Failed to process C2B callback", e.getCause());
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        if (batcher != null) {
+            batcher.close();
+        }
+    }
+
+    private List<PaymentView> flush(List<ReceivedCallback> callbacks) {
+        // Safaricom retries can put the same transaction in one batch twice; the last one wins
+        Map<String, MpesaPayment> payments = new LinkedHashMap<>();
+        for (ReceivedCallback received : callbacks) {
+            MpesaPayment payment = new MpesaPayment();
+            PaymentMapperFactory.updateWithC2BCallback(payment, received.callback(), received.rawCallback());
+            payments.put(received.callback().transId(), payment);
+        }
+        try {
+            paymentBatchRepository.upsertC2bCallbacks(new ArrayList<>(payments.values()));
+        } catch (DataIntegrityViolationException e) {
+            if (payments.size() == 1) {
+                throw e;
+            }
+            log.warn("Batch of {} C2B callbacks was rejected, upserting them one by one", payments.size(), e);
+            payments.values().removeIf(payment -> !upsertSingle(payment));
+        }
+
+        List<PaymentView> views = new ArrayList<>(callbacks.size());
+        for (ReceivedCallback received : callbacks) {
+            MpesaPayment payment = payments.get(received.callback().transId());
+            views.add(payment != null ? PaymentMapperFactory.toView(payment) : null);
+        }
+        return views;
+    }
+
+    private boolean upsertSingle(MpesaPayment payment) {
+        try {
+            paymentBatchRepository.upsertC2bCallbacks(List.of(payment));
+            return true;
+        } catch (DataIntegrityViolationException e) {
+            log.error("Rejected C2B callback for transaction {}", payment.getTransactionId(), e);
+            return false;
+        }
+    }
+
+    private record ReceivedCallback(C2bCallback callback, String rawCallback) {
+    }
+}
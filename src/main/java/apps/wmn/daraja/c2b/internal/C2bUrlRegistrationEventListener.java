@@ -5,9 +5,13 @@ import apps.wmn.daraja.c2b.dto.MpesaUrlRegistrationResponse;
 import apps.wmn.daraja.c2b.entity.MpesaConfig;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
 import apps.wmn.daraja.c2b.repository.MpesaConfigRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
 import apps.wmn.daraja.common.config.MpesaUrlConfig;
 import apps.wmn.daraja.common.event.CallbackValidationUrlRegistrationEvent;
 import apps.wmn.daraja.common.exceptions.ConfigurationException;
+import apps.wmn.daraja.common.http.DarajaCallGuard;
+import apps.wmn.daraja.common.http.DarajaEndpoint;
+import apps.wmn.daraja.common.http.DarajaHttpClient;
 import apps.wmn.daraja.common.services.DarajaAuthenticationService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -16,25 +20,27 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.modulith.events.ApplicationModuleListener;
 import org.springframework.stereotype.Component;
-import org.springframework.web.client.RestTemplate;
 
 @Component
 @RequiredArgsConstructor
 @Slf4j
 public class C2bUrlRegistrationEventListener {
   private final MpesaConfigRepository configRepository;
+  private final MpesaConfigService configService;
   private final DarajaAuthenticationService darajaAuthenticationService;
   private final MpesaUrlConfig mpesaUrlConfig;
-  private final RestTemplate restTemplate;
+  private final DarajaHttpClient darajaHttpClient;
+  private final DarajaRateLimiter rateLimiter;
+  private final DarajaCallGuard callGuard;
 
   @ApplicationModuleListener
   public void onCallbackValidationUrlRegistration(CallbackValidationUrlRegistrationEvent event) {
     log.debug("Received callback validation URL registration event: {}", event);
 
     MpesaConfig config = getMpesaConfig(event);
-    log.info("Mpesa config: {}", config);
+    log.info("Registering C2B URLs for shortcode: {} in environment: {}", config.getShortcode(), config.getEnvironment());
     String accessToken = authenticateWithDaraja(config);
-    log.info("Access token: {}", accessToken);
+    rateLimiter.acquireForBackground(config);
     MpesaUrlRegistrationResponse response = registerCallbackUrls(event, accessToken);
 
     log.info("URL registration response: {}", response);
@@ -47,9 +53,11 @@ public class C2bUrlRegistrationEventListener {
   }
 
   private String authenticateWithDaraja(MpesaConfig config) {
+    MpesaConfigService.MpesaCredentials credentials = configService.getDecryptedCredentials(config);
     return darajaAuthenticationService.getAccessToken(
-            config.getConsumerKey(),
-            config.getConsumerSecret(),
+            config.getUuid(),
+            credentials.consumerKey(),
+            credentials.consumerSecret(),
             config.getShortcode(),
             config.getEnvironment()
     );
@@ -62,13 +70,15 @@ public class C2bUrlRegistrationEventListener {
     HttpEntity<MpesaUrlRegistrationRequest> httpEntity = createHttpEntity(event, accessToken);
     String registrationUrl = getRegistrationUrl(event.environment());
 
-    log.info("HttpEntity: {}", httpEntity);
+    log.debug("Registering confirmation URL: {} and validation URL: {} for shortcode: {}",
+            event.confirmationUrl(), event.validationUrl(), event.shortcode());
 
-    return restTemplate.postForObject(
-            registrationUrl,
-            httpEntity,
-            MpesaUrlRegistrationResponse.class
-    );
+    return callGuard.call(event.environment(), DarajaEndpoint.REGISTER_URL,
+            () -> darajaHttpClient.forEnvironment(event.environment()).postForObject(
+                    registrationUrl,
+                    httpEntity,
+                    MpesaUrlRegistrationResponse.class
+            ));
   }
 
   private HttpEntity<MpesaUrlRegistrationRequest> createHttpEntity(
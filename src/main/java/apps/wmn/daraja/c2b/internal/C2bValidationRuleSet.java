@@ -0,0 +1,157 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.enums.C2bValidationResult;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import java.math.BigDecimal;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable snapshot of the C2B validation rules of every active shortcode, compiled from the
+ * shortcode configurations so that validating a payment only touches memory: amounts are parsed
+ * once, BillRefNumber patterns are precompiled and allowed accounts are held in a hash set.
+ *
+ * <p>Rules are keyed by shortcode alone, since Daraja validation requests carry no environment.
+ * If a shortcode is configured in both environments, the production rules apply.
+ */
+public final class C2bValidationRuleSet {
+    private static final C2bValidationRuleSet EMPTY = new C2bValidationRuleSet(Map.of());
+
+    private final Map<String, ShortcodeRules> rulesByShortcode;
+
+    private C2bValidationRuleSet(Map<String, ShortcodeRules> rulesByShortcode) {
+        this.rulesByShortcode = rulesByShortcode;
+    }
+
+    public static C2bValidationRuleSet empty() {
+        return EMPTY;
+    }
+
+    public static C2bValidationRuleSet compile(Collection<MpesaConfig> configs) {
+        Map<String, ShortcodeRules> rules = new HashMap<>();
+        for (MpesaConfig config : configs) {
+            rules.merge(config.getShortcode(), ShortcodeRules.of(config), ShortcodeRules::preferred);
+        }
+        return new C2bValidationRuleSet(Map.copyOf(rules));
+    }
+
+    /**
+     * Returns a copy of this snapshot with the rules of one shortcode recompiled from its active
+     * configurations, or removed if it has none.
+     */
+    public C2bValidationRuleSet withShortcode(String shortcode, List<MpesaConfig> configs) {
+        Map<String, ShortcodeRules> rules = new HashMap<>(rulesByShortcode);
+        rules.remove(shortcode);
+        for (MpesaConfig config : configs) {
+            rules.merge(shortcode, ShortcodeRules.of(config), ShortcodeRules::preferred);
+        }
+        return new C2bValidationRuleSet(Map.copyOf(rules));
+    }
+
+    public int size() {
+        return rulesByShortcode.size();
+    }
+
+    /**
+     * Checks a payment against the rules of its shortcode.
+     *
+     * @param rejectUnknownShortcodes whether payments to shortcodes without an active configuration
+     *     are rejected rather than accepted
+     */
+    public C2bValidationResult validate(C2bCallback callback, boolean rejectUnknownShortcodes) {
+        ShortcodeRules rules = callback.businessShortCode() != null
+                ? rulesByShortcode.get(callback.businessShortCode())
+                : null;
+        if (rules == null) {
+            return rejectUnknownShortcodes ? C2bValidationResult.INVALID_SHORTCODE : C2bValidationResult.ACCEPTED;
+        }
+        return rules.validate(callback);
+    }
+
+    private record ShortcodeRules(
+            MpesaEnvironment environment,
+            BigDecimal minAmount,
+            BigDecimal maxAmount,
+            Pattern billRefPattern,
+            Set<String> allowedAccounts,
+            boolean misconfigured) {
+
+        static ShortcodeRules of(MpesaConfig config) {
+            List<String> accounts = config.getValidationAllowedAccounts();
+            Pattern billRefPattern = null;
+            boolean misconfigured = false;
+            if (config.getValidationBillRefPattern() != null) {
+                try {
+                    billRefPattern = Pattern.compile(config.getValidationBillRefPattern());
+                } catch (PatternSyntaxException e) {
+                    // Only possible for rows written around the API; fail closed rather than accept everything
+                    misconfigured = true;
+                }
+            }
+            return new ShortcodeRules(
+                    config.getEnvironment(),
+                    config.getValidationMinAmount(),
+                    config.getValidationMaxAmount(),
+                    billRefPattern,
+                    accounts != null && !accounts.isEmpty()
+                            ? accounts.stream().map(ShortcodeRules::normalizeAccount).collect(Collectors.toUnmodifiableSet())
+                            : null,
+                    misconfigured);
+        }
+
+        static ShortcodeRules preferred(ShortcodeRules existing, ShortcodeRules candidate) {
+            return candidate.environment() == MpesaEnvironment.PRODUCTION ? candidate : existing;
+        }
+
+        C2bValidationResult validate(C2bCallback callback) {
+            if (misconfigured) {
+                return C2bValidationResult.OTHER_ERROR;
+            }
+            if (minAmount != null || maxAmount != null) {
+                BigDecimal amount = parseAmount(callback.transAmount());
+                if (amount == null
+                        || (minAmount != null && amount.compareTo(minAmount) < 0)
+                        || (maxAmount != null && amount.compareTo(maxAmount) > 0)) {
+                    return C2bValidationResult.INVALID_AMOUNT;
+                }
+            }
+            if (billRefPattern != null || allowedAccounts != null) {
+                String account = callback.billRefNumber();
+                if (account == null) {
+                    return C2bValidationResult.INVALID_ACCOUNT;
+                }
+                if (billRefPattern != null && !billRefPattern.matcher(account).matches()) {
+                    return C2bValidationResult.INVALID_ACCOUNT;
+                }
+                if (allowedAccounts != null && !allowedAccounts.contains(normalizeAccount(account))) {
+                    return C2bValidationResult.INVALID_ACCOUNT;
+                }
+            }
+            return C2bValidationResult.ACCEPTED;
+        }
+
+        private static BigDecimal parseAmount(String amount) {
+            if (amount == null || amount.isBlank()) {
+                return null;
+            }
+            try {
+                return new BigDecimal(amount.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private static String normalizeAccount(String account) {
+            return account.trim().toUpperCase(Locale.ROOT);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.C2bValidationResponse;
+import apps.wmn.daraja.c2b.enums.C2bValidationResult;
+import apps.wmn.daraja.c2b.repository.MpesaConfigRepository;
+import apps.wmn.daraja.common.config.C2bValidationProperties;
+import apps.wmn.daraja.common.event.MpesaConfigChangedEvent;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+/**
+ * Answers Daraja C2B validation requests from an in-memory {@link C2bValidationRuleSet}, so that no
+ * request waits on the database or a downstream lookup within Safaricom's validation timeout.
+ *
+ * <p>The snapshot is replaced, never modified: a configuration change recompiles the rules of its
+ * shortcode once the change commits, and the whole set is reloaded periodically to pick up changes
+ * made through other nodes. Validations in progress keep using the snapshot they started with.
+ */
+@Component
+@Slf4j
+public class C2bValidationService implements SmartInitializingSingleton {
+    private final MpesaConfigRepository configRepository;
+    private final C2bValidationProperties properties;
+    private final Map<C2bValidationResult, Timer> timers = new EnumMap<>(C2bValidationResult.class);
+    private final ReentrantLock reloadLock = new ReentrantLock();
+    private volatile C2bValidationRuleSet rules = C2bValidationRuleSet.empty();
+
+    public C2bValidationService(
+            MpesaConfigRepository configRepository,
+            C2bValidationProperties properties,
+            MeterRegistry meterRegistry) {
+        this.configRepository = configRepository;
+        this.properties = properties;
+        for (C2bValidationResult result : C2bValidationResult.values()) {
+            timers.put(result, Timer.builder("daraja.c2b.validation")
+                    .description("Time to answer a C2B validation request")
+                    .tag("result", result.name().toLowerCase())
+                    .publishPercentiles(0.5, 0.99, 0.999)
+                    .register(meterRegistry));
+        }
+        Gauge.builder("daraja.c2b.validation.shortcodes", this, service -> service.rules.size())
+                .description("Shortcodes in the current validation rule snapshot")
+                .register(meterRegistry);
+    }
+
+    public C2bValidationResponse validate(C2bCallback callback) {
+        long start = System.nanoTime();
+        C2bValidationResult result = rules.validate(callback, properties.isRejectUnknownShortcodes());
+        timers.get(result).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (result != C2bValidationResult.ACCEPTED) {
+            log.info("Rejected C2B payment {} to shortcode {}: {}",
+                    callback.transId(), callback.businessShortCode(), result);
+        }
+        return C2bValidationResponse.of(result);
+    }
+
+    /**
+     * Loads the rules before the web server starts accepting requests.
+     */
+    @Override
+    public void afterSingletonsInstantiated() {
+        reload();
+    }
+
+    @Scheduled(
+            initialDelayString = "${mpesa.c2b-validation.refresh-interval:1m}",
+            fixedDelayString = "${mpesa.c2b-validation.refresh-interval:1m}")
+    public void reload() {
+        reloadLock.lock();
+        try {
+            rules = C2bValidationRuleSet.compile(configRepository.findAllByActiveTrue());
+            log.debug("Loaded C2B validation rules for {} shortcodes", rules.size());
+        } catch (RuntimeException e) {
+            log.warn("Failed to reload C2B validation rules, keeping the current snapshot", e);
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onConfigChanged(MpesaConfigChangedEvent event) {
+        reloadLock.lock();
+        try {
+            rules = rules.withShortcode(event.shortcode(), configRepository.findByShortcodeAndActiveTrue(event.shortcode()));
+            log.debug("Recompiled C2B validation rules for shortcode {}", event.shortcode());
+        } catch (RuntimeException e) {
+            // The change has already committed; the periodic reload picks it up once this clears
+            log.warn("Failed to recompile C2B validation rules for shortcode {}, keeping the current snapshot",
+                    event.shortcode(), e);
+        } finally {
+            reloadLock.unlock();
+        }
+    }
+}
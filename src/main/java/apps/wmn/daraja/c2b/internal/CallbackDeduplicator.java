@@ -0,0 +1,93 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Front-line filter for callbacks Safaricom delivers more than once. The outcome of every processed
+ * callback is kept in the bounded, time-windowed {@code processedCallbacks} cache under its
+ * {@code TransID} or {@code CheckoutRequestID}; a repeat within the window is answered with that
+ * outcome without touching the database, and a repeat that arrives while the first delivery is
+ * still being processed waits for it. Only callbacks applied to their payment are remembered:
+ * retries of failed deliveries, and of callbacks that were only journaled or parked, are processed
+ * again, which is harmless as applying a callback twice leaves the payment in the same state.
+ */
+@Component
+public class CallbackDeduplicator {
+    private static final String PROCESSED_CACHE = "processedCallbacks";
+
+    private final Cache<Object, Object> processed;
+    private final Map<String, CompletableFuture<ProcessedCallback>> inFlight = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+
+    public enum CallbackType {
+        STK,
+        C2B
+    }
+
+    @SuppressWarnings("unchecked")
+    public CallbackDeduplicator(CacheManager cacheManager, MeterRegistry meterRegistry) {
+        this.processed = (Cache<Object, Object>) cacheManager.getCache(PROCESSED_CACHE).getNativeCache();
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs {@code processor} unless a callback with the same id has already been applied within
+     * the window, in which case the earlier result is returned. A null result means the callback was
+     * not applied yet and is not remembered.
+     */
+    public PaymentView processOnce(CallbackType type, String callbackId, Supplier<PaymentView> processor) {
+        if (callbackId == null || callbackId.isBlank()) {
+            return processor.get();
+        }
+        String key = type.name() + ":" + callbackId;
+
+        ProcessedCallback previous = (ProcessedCallback) processed.getIfPresent(key);
+        if (previous != null) {
+            count(type, "duplicate");
+            return previous.view();
+        }
+
+        CompletableFuture<ProcessedCallback> delivery = new CompletableFuture<>();
+        CompletableFuture<ProcessedCallback> concurrent = inFlight.putIfAbsent(key, delivery);
+        if (concurrent != null) {
+            count(type, "concurrent-duplicate");
+            try {
+                return concurrent.join().view();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof RuntimeException cause ? cause : e;
+            }
+        }
+
+        try {
+            count(type, "first");
+            ProcessedCallback result = new ProcessedCallback(processor.get());
+            if (result.view() != null) {
+                processed.put(key, result);
+            }
+            delivery.complete(result);
+            return result.view();
+        } catch (RuntimeException e) {
+            delivery.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, delivery);
+        }
+    }
+
+    private void count(CallbackType type, String result) {
+        meterRegistry.counter("daraja.callback.dedupe", "type", type.name(), "result", result).increment();
+    }
+
+    /** The view is null for callbacks that were only journaled or parked. */
+    private record ProcessedCallback(PaymentView view) {
+    }
+}
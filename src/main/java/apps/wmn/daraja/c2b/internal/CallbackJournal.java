@@ -0,0 +1,108 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import apps.wmn.daraja.common.journal.MappedSegmentJournal;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import java.util.List;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+
+/**
+ * Durable intake for Daraja callbacks in JOURNAL ingestion mode. A validated callback is appended
+ * to a local {@link MappedSegmentJournal} and acknowledged as soon as it is on disk;
+ * {@link CallbackJournalApplier} applies it to the payments table afterwards.
+ */
+@Component
+@Slf4j
+public class CallbackJournal {
+    static final byte STK_CALLBACK = 1;
+    static final byte C2B_CALLBACK = 2;
+
+    private final MappedSegmentJournal journal;
+    private final ObjectWriter stkWriter;
+    private final ObjectWriter c2bWriter;
+    private final Timer appendTimer;
+
+    public CallbackJournal(
+            CallbackIngestionProperties properties,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.stkWriter = objectMapper.writerFor(StkCallback.class);
+        this.c2bWriter = objectMapper.writerFor(C2bCallback.class);
+        this.appendTimer = Timer.builder("daraja.callback.journal.append")
+                .description("Time to append a callback to the journal and force it to disk")
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+
+        if (properties.getMode() != CallbackIngestionProperties.Mode.JOURNAL) {
+            this.journal = null;
+            return;
+        }
+        this.journal = MappedSegmentJournal.open(
+                properties.getDirectory(), (int) properties.getSegmentSize().toBytes());
+        Gauge.builder("daraja.callback.journal.backlog", journal, MappedSegmentJournal::backlogBytes)
+                .description("Journaled callback bytes not yet applied to the payments table")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        if (journal.backlogBytes() > 0) {
+            log.info("Replaying {} bytes of journaled callbacks from position {}",
+                    journal.backlogBytes(), journal.checkpointPosition());
+        }
+    }
+
+    public boolean isEnabled() {
+        return journal != null;
+    }
+
+    /**
+     * Journals the callback body as received, or the serialized callback if {@code rawBody} is null.
+     */
+    public void append(StkCallback callback, byte[] rawBody) {
+        append(STK_CALLBACK, rawBody != null ? rawBody : serialize(stkWriter, callback));
+    }
+
+    /**
+     * Journals the callback body as received, or the serialized callback if {@code rawBody} is null.
+     */
+    public void append(C2bCallback callback, byte[] rawBody) {
+        append(C2B_CALLBACK, rawBody != null ? rawBody : serialize(c2bWriter, callback));
+    }
+
+    List<MappedSegmentJournal.Entry> readPending(int maxEntries) {
+        return journal.read(journal.checkpointPosition(), maxEntries);
+    }
+
+    void checkpoint(long position) {
+        journal.checkpoint(position);
+    }
+
+    @PreDestroy
+    void close() {
+        if (journal != null) {
+            journal.close();
+        }
+    }
+
+    private void append(byte type, byte[] payload) {
+        if (journal == null) {
+            throw new IllegalStateException("Callback journal is disabled in DIRECT ingestion mode");
+        }
+        appendTimer.record(() -> journal.append(type, payload));
+    }
+
+    private static byte[] serialize(ObjectWriter writer, Object callback) {
+        try {
+            return writer.writeValueAsBytes(callback);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Callback cannot be serialized", e);
+        }
+    }
+}
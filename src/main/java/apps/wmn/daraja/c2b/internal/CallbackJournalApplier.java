@@ -0,0 +1,338 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.DeadLetterReason;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.CallbackDeadLetterRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import apps.wmn.daraja.common.journal.MappedSegmentJournal;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.TransientDataAccessException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Applies journaled callbacks to the payments table in micro-batches: one lookup for the whole
+ * batch, the usual {@link PaymentMapperFactory} mapping, one save and one commit, then a checkpoint
+ * past the batch. Entries after the last checkpoint are applied again after a restart, which is
+ * safe because applying a callback twice leaves the payment in the same state.
+ *
+ * <p>The checkpoint only ever moves past a callback once it is durable elsewhere: applied to its
+ * payment, or in the dead-letter store. STK callbacks that arrive before their push response are
+ * parked through {@link StkCallbackCorrelator}, which records them there; entries that cannot be
+ * decoded, or that keep failing to apply, are dead-lettered directly.
+ */
+@Component
+@Slf4j
+public class CallbackJournalApplier {
+    private final CallbackJournal callbackJournal;
+    private final MpesaPaymentRepository paymentRepository;
+    private final CallbackDeadLetterRepository deadLetters;
+    private final PaymentStatusQueryService statusQueryService;
+    private final StkCallbackCorrelator stkCallbackCorrelator;
+    private final TransactionTemplate transactionTemplate;
+    private final CallbackIngestionProperties properties;
+    private final ObjectReader stkReader;
+    private final ObjectReader c2bReader;
+    private final MeterRegistry meterRegistry;
+    private final Timer batchTimer;
+
+    // Only touched by the scheduled apply, which never overlaps itself
+    private long failingPosition = -1;
+    private int failures;
+
+    public CallbackJournalApplier(
+            CallbackJournal callbackJournal,
+            MpesaPaymentRepository paymentRepository,
+            CallbackDeadLetterRepository deadLetters,
+            PaymentStatusQueryService statusQueryService,
+            StkCallbackCorrelator stkCallbackCorrelator,
+            TransactionTemplate transactionTemplate,
+            CallbackIngestionProperties properties,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.callbackJournal = callbackJournal;
+        this.paymentRepository = paymentRepository;
+        this.deadLetters = deadLetters;
+        this.statusQueryService = statusQueryService;
+        this.stkCallbackCorrelator = stkCallbackCorrelator;
+        this.transactionTemplate = transactionTemplate;
+        this.properties = properties;
+        this.stkReader = objectMapper.readerFor(StkCallback.class);
+        this.c2bReader = objectMapper.readerFor(C2bCallback.class);
+        this.meterRegistry = meterRegistry;
+        this.batchTimer = Timer.builder("daraja.callback.journal.apply")
+                .description("Time to apply one batch of journaled callbacks")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.callback-ingestion.apply-interval:100ms}")
+    public void applyPending() {
+        if (!callbackJournal.isEnabled()) {
+            return;
+        }
+        while (true) {
+            List<MappedSegmentJournal.Entry> batch = callbackJournal.readPending(properties.getApplyBatchSize());
+            if (batch.isEmpty()) {
+                return;
+            }
+            long consumed = applyBatch(batch);
+            if (consumed == batch.getFirst().position()) {
+                // Retried on the next pass
+                return;
+            }
+            callbackJournal.checkpoint(consumed);
+            if (consumed == batch.getLast().nextPosition() && batch.size() < properties.getApplyBatchSize()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Applies the batch up to its first unreadable entry. An unreadable entry at the start of the
+     * batch is moved to the dead-letter store on its own.
+     *
+     * @return the position up to which the batch was consumed and may be checkpointed
+     */
+    private long applyBatch(List<MappedSegmentJournal.Entry> batch) {
+        List<JournaledCallback> callbacks = new ArrayList<>(batch.size());
+        for (MappedSegmentJournal.Entry entry : batch) {
+            try {
+                callbacks.add(decode(entry));
+            } catch (IOException e) {
+                if (callbacks.isEmpty()) {
+                    return deadLetterUnreadable(entry, e);
+                }
+                break;
+            }
+        }
+        return applyDecoded(callbacks);
+    }
+
+    /**
+     * Applies the callbacks in one transaction. If that fails, they are applied one at a time so
+     * that a single bad entry cannot hold up the journal.
+     */
+    private long applyDecoded(List<JournaledCallback> callbacks) {
+        long end = callbacks.getLast().entry().nextPosition();
+        List<JournaledCallback> unmatched;
+        try {
+            unmatched = batchTimer.record(() -> transactionTemplate.execute(status -> apply(callbacks)));
+        } catch (RuntimeException e) {
+            log.warn("Applying {} journaled callbacks failed, retrying them one by one", callbacks.size(), e);
+            return applyOneByOne(callbacks, end);
+        }
+        count("applied", callbacks.size() - unmatched.size());
+        evictStatuses(callbacks);
+
+        for (JournaledCallback callback : unmatched) {
+            try {
+                park(callback);
+            } catch (RuntimeException e) {
+                // Everything else in the batch is applied, and applying it again is harmless
+                if (!applyFailed(callback, e)) {
+                    return callback.entry().position();
+                }
+            }
+        }
+        return end;
+    }
+
+    private long applyOneByOne(List<JournaledCallback> callbacks, long end) {
+        for (JournaledCallback callback : callbacks) {
+            if (!applySingle(callback)) {
+                return callback.entry().position();
+            }
+        }
+        return end;
+    }
+
+    /**
+     * @return whether the callback is durable, applied or dead-lettered, and may be checkpointed
+     */
+    private boolean applySingle(JournaledCallback callback) {
+        try {
+            if (transactionTemplate.execute(status -> apply(List.of(callback))).isEmpty()) {
+                count("applied", 1);
+                evictStatuses(List.of(callback));
+            } else {
+                park(callback);
+            }
+            return true;
+        } catch (RuntimeException e) {
+            return applyFailed(callback, e);
+        }
+    }
+
+    /**
+     * Retries an entry on later passes until it has failed {@code maxApplyAttempts} times, then moves
+     * it to the dead-letter store. Failures of the database itself are not held against the entry.
+     */
+    private boolean applyFailed(JournaledCallback callback, RuntimeException cause) {
+        long position = callback.entry().position();
+        if (position != failingPosition) {
+            failingPosition = position;
+            failures = 0;
+        }
+        if (!isDatabaseUnavailable(cause)) {
+            failures++;
+        }
+        if (failures < properties.getMaxApplyAttempts()) {
+            log.warn("Applying journaled callback at position {} failed ({} of {} attempts), will retry",
+                    position, failures, properties.getMaxApplyAttempts(), cause);
+            return false;
+        }
+        try {
+            deadLetter(callback.entry(), callback.callbackId(), DeadLetterReason.UNAPPLIABLE, cause);
+        } catch (RuntimeException e) {
+            log.error("Could not dead-letter journaled callback at position {}, will retry", position, e);
+            return false;
+        }
+        log.error("Moved journaled callback at position {} to the dead-letter store after {} attempts",
+                position, failures, cause);
+        failingPosition = -1;
+        return true;
+    }
+
+    private static boolean isDatabaseUnavailable(RuntimeException e) {
+        return e instanceof TransientDataAccessException
+                || e instanceof DataAccessResourceFailureException
+                || e instanceof CannotCreateTransactionException;
+    }
+
+    /**
+     * Hands an STK callback whose payment has no CheckoutRequestID yet to the correlator, which
+     * records it durably before holding it, and applies it straight away if the push response was
+     * persisted in the meantime.
+     */
+    private void park(JournaledCallback journaled) {
+        StkCallback stk = (StkCallback) journaled.callback();
+        if (stkCallbackCorrelator.apply(stk, journaled.rawCallback()) != null) {
+            count("applied", 1);
+        } else {
+            count("parked", 1);
+        }
+    }
+
+    /**
+     * @return the STK callbacks that have no payment with their CheckoutRequestID yet
+     */
+    private List<JournaledCallback> apply(List<JournaledCallback> callbacks) {
+        List<String> checkoutRequestIds = new ArrayList<>();
+        List<String> transactionIds = new ArrayList<>();
+        for (JournaledCallback journaled : callbacks) {
+            if (journaled.callback() instanceof StkCallback stk) {
+                checkoutRequestIds.add(stk.checkoutRequestId());
+            } else if (journaled.callback() instanceof C2bCallback c2b) {
+                transactionIds.add(c2b.transId());
+            }
+        }
+        Map<String, MpesaPayment> stkPayments = checkoutRequestIds.isEmpty() ? Map.of()
+                : paymentRepository.findByCheckoutRequestIdIn(checkoutRequestIds).stream()
+                        .collect(Collectors.toMap(MpesaPayment::getCheckoutRequestId, Function.identity()));
+        Map<String, MpesaPayment> c2bPayments = transactionIds.isEmpty() ? new HashMap<>()
+                : paymentRepository.findByTransactionIdIn(transactionIds).stream()
+                        .collect(Collectors.toMap(MpesaPayment::getTransactionId, Function.identity(), (a, b) -> a));
+        Set<MpesaPayment> changed = Collections.newSetFromMap(new IdentityHashMap<>());
+        List<JournaledCallback> unmatched = new ArrayList<>();
+
+        for (JournaledCallback journaled : callbacks) {
+            if (journaled.callback() instanceof StkCallback stk) {
+                MpesaPayment payment = stkPayments.get(stk.checkoutRequestId());
+                if (payment == null) {
+                    // Parked once this commits, like an early direct callback
+                    unmatched.add(journaled);
+                    continue;
+                }
+                PaymentMapperFactory.updateWithStkCallback(payment, stk, journaled.rawCallback());
+                changed.add(payment);
+            } else if (journaled.callback() instanceof C2bCallback c2b) {
+                MpesaPayment payment = c2bPayments.computeIfAbsent(c2b.transId(), id -> {
+                    MpesaPayment newPayment = new MpesaPayment();
+                    newPayment.setBusinessShortCode(c2b.businessShortCode());
+                    return newPayment;
+                });
+                PaymentMapperFactory.updateWithC2BCallback(payment, c2b, journaled.rawCallback());
+                changed.add(payment);
+            }
+        }
+        paymentRepository.saveAll(changed);
+        return unmatched;
+    }
+
+    private JournaledCallback decode(MappedSegmentJournal.Entry entry) throws IOException {
+        Object callback = switch (entry.type()) {
+            case CallbackJournal.STK_CALLBACK -> stkReader.readValue(entry.payload());
+            case CallbackJournal.C2B_CALLBACK -> c2bReader.readValue(entry.payload());
+            default -> throw new IOException("Unknown journal entry type " + entry.type());
+        };
+        return new JournaledCallback(entry, callback, new String(entry.payload(), StandardCharsets.UTF_8));
+    }
+
+    private long deadLetterUnreadable(MappedSegmentJournal.Entry entry, IOException cause) {
+        try {
+            deadLetter(entry, null, DeadLetterReason.UNREADABLE, cause);
+        } catch (RuntimeException e) {
+            log.error("Could not dead-letter unreadable journal entry at position {}, will retry", entry.position(), e);
+            return entry.position();
+        }
+        log.error("Moved unreadable journal entry at position {} to the dead-letter store", entry.position(), cause);
+        return entry.nextPosition();
+    }
+
+    private void deadLetter(
+            MappedSegmentJournal.Entry entry, String callbackId, DeadLetterReason reason, Exception cause) {
+        deadLetters.save(typeOf(entry), callbackId, reason, entry.payload(), cause.getMessage());
+        count("dead_lettered", 1);
+    }
+
+    private static String typeOf(MappedSegmentJournal.Entry entry) {
+        return switch (entry.type()) {
+            case CallbackJournal.STK_CALLBACK -> CallbackDeduplicator.CallbackType.STK.name();
+            case CallbackJournal.C2B_CALLBACK -> CallbackDeduplicator.CallbackType.C2B.name();
+            default -> "UNKNOWN";
+        };
+    }
+
+    private void evictStatuses(List<JournaledCallback> callbacks) {
+        for (JournaledCallback journaled : callbacks) {
+            if (journaled.callback() instanceof StkCallback stk) {
+                statusQueryService.evict(stk.merchantRequestId());
+            }
+        }
+    }
+
+    private void count(String result, int amount) {
+        meterRegistry.counter("daraja.callback.journal.entries", "result", result).increment(amount);
+    }
+
+    /** A decoded journal entry together with the callback body exactly as it was received. */
+    private record JournaledCallback(MappedSegmentJournal.Entry entry, Object callback, String rawCallback) {
+        String callbackId() {
+            return callback instanceof StkCallback stk ? stk.checkoutRequestId()
+                    : callback instanceof C2bCallback c2b ? c2b.transId()
+                    : null;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.common.concurrent.TokenBucket;
+import apps.wmn.daraja.common.config.DarajaRateLimitProperties;
+import apps.wmn.daraja.common.event.MpesaConfigChangedEvent;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+/**
+ * Limits outbound Daraja calls per shortcode and environment, since Safaricom throttles per
+ * consumer key. Every call to Daraja for a shortcode (STK push, URL registration, status queries)
+ * takes a permit here first.
+ */
+@Component
+@Slf4j
+public class DarajaRateLimiter {
+    private final DarajaRateLimitProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Map<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    public DarajaRateLimiter(DarajaRateLimitProperties properties, MeterRegistry meterRegistry) {
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Takes a permit for the configuration, failing fast if none is available right away. Used on
+     * API request threads, where the client is better placed to retry.
+     */
+    public void acquireForRequest(MpesaConfig config) {
+        acquire(config, properties.getRequestWait());
+    }
+
+    /**
+     * Takes a permit for the configuration, waiting for one if needed. Used by background work,
+     * which can afford to be smoothed out.
+     */
+    public void acquireForBackground(MpesaConfig config) {
+        acquire(config, properties.getBackgroundWait());
+    }
+
+    /**
+     * Takes a permit for the configuration, waiting up to {@code maxWait} for one.
+     *
+     * @throws RateLimitExceededException if no permit becomes available within {@code maxWait}
+     */
+    public void acquire(MpesaConfig config, Duration maxWait) {
+        TokenBucket bucket = buckets.computeIfAbsent(key(config), k -> createBucket(config));
+        long waitNanos = bucket.tryReserve(maxWait.toNanos());
+
+        if (waitNanos < 0) {
+            record(config, "rejected");
+            throw new RateLimitExceededException(
+                    "Rate limit exceeded for shortcode " + config.getShortcode(), Duration.ofNanos(-waitNanos));
+        }
+        if (waitNanos > 0) {
+            record(config, "delayed");
+            meterRegistry.timer("daraja.ratelimit.wait", "environment", config.getEnvironment().name())
+                    .record(waitNanos, TimeUnit.NANOSECONDS);
+            LockSupport.parkNanos(waitNanos);
+            return;
+        }
+        record(config, "immediate");
+    }
+
+    @EventListener
+    public void onConfigChanged(MpesaConfigChangedEvent event) {
+        buckets.remove(event.shortcode() + "_" + event.environment());
+    }
+
+    private TokenBucket createBucket(MpesaConfig config) {
+        double permitsPerSecond = config.getRateLimitPerSecond() != null
+                ? config.getRateLimitPerSecond()
+                : properties.getPermitsPerSecond();
+        int burst = config.getRateLimitBurst() != null
+                ? config.getRateLimitBurst()
+                : properties.getBurst();
+        log.debug("Limiting shortcode: {} in environment: {} to {}/s with burst {}",
+                config.getShortcode(), config.getEnvironment(), permitsPerSecond, burst);
+        return new TokenBucket(permitsPerSecond, burst);
+    }
+
+    private void record(MpesaConfig config, String outcome) {
+        meterRegistry.counter("daraja.ratelimit.permits",
+                "shortcode", config.getShortcode(),
+                "environment", config.getEnvironment().name(),
+                "outcome", outcome).increment();
+    }
+
+    private static String key(MpesaConfig config) {
+        return config.getShortcode() + "_" + config.getEnvironment();
+    }
+}
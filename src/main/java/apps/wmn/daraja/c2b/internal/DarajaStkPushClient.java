@@ -0,0 +1,201 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.DarajaStkPushRequest;
+import apps.wmn.daraja.c2b.dto.DarajaStkQueryRequest;
+import apps.wmn.daraja.c2b.dto.StkPushRequest;
+import apps.wmn.daraja.c2b.dto.StkPushResponse;
+import apps.wmn.daraja.c2b.dto.StkQueryResponse;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.config.MpesaUrlConfig;
+import apps.wmn.daraja.common.event.MpesaConfigChangedEvent;
+import apps.wmn.daraja.common.exceptions.PaymentException;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import apps.wmn.daraja.common.http.DarajaCallGuard;
+import apps.wmn.daraja.common.http.DarajaEndpoint;
+import apps.wmn.daraja.common.http.DarajaHttpClient;
+import apps.wmn.daraja.common.services.DarajaAuthenticationService;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.*;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.HttpServerErrorException;
+
+/**
+ * Sends STK push requests, and queries of their status, to Daraja for a shortcode configuration.
+ */
+@Component
+public class DarajaStkPushClient {
+  /** Error code Daraja answers a query with while the customer has not yet responded. */
+  private static final String QUERY_IN_PROGRESS_ERROR = "500.001.1001";
+
+  private final DarajaAuthenticationService authService;
+  private final MpesaConfigService configService;
+  private final MpesaUrlConfig mpesaUrlConfig;
+  private final DarajaHttpClient darajaHttpClient;
+  private final DarajaCallGuard callGuard;
+  private final ObjectWriter requestWriter;
+  private final Map<UUID, StkPushTemplate> templates = new ConcurrentHashMap<>();
+
+  public DarajaStkPushClient(
+      DarajaAuthenticationService authService,
+      MpesaConfigService configService,
+      MpesaUrlConfig mpesaUrlConfig,
+      DarajaHttpClient darajaHttpClient,
+      DarajaCallGuard callGuard,
+      ObjectMapper objectMapper) {
+    this.authService = authService;
+    this.configService = configService;
+    this.mpesaUrlConfig = mpesaUrlConfig;
+    this.darajaHttpClient = darajaHttpClient;
+    this.callGuard = callGuard;
+    this.requestWriter = objectMapper.writerFor(DarajaStkPushRequest.class);
+  }
+
+  public StkPushResponse push(StkPushRequest request, MpesaConfig config, MpesaEnvironment environment) {
+    MpesaConfigService.MpesaCredentials credentials = configService.getDecryptedCredentials(config);
+
+    HttpEntity<byte[]> requestEntity =
+        prepareStkPushRequest(request, config, credentials, environment);
+    return executeStkPushRequest(requestEntity, environment);
+  }
+
+  /**
+   * Queries the outcome of an STK push. A response without a result code means the customer has
+   * not responded yet.
+   */
+  public StkQueryResponse query(String checkoutRequestId, MpesaConfig config, MpesaEnvironment environment) {
+    MpesaConfigService.MpesaCredentials credentials = configService.getDecryptedCredentials(config);
+    HttpHeaders headers =
+        createHeaders(config, credentials, config.getShortcode(), environment);
+    DarajaStkQueryRequest body =
+        template(config, credentials).bindQuery(checkoutRequestId, LocalDateTime.now());
+    HttpEntity<DarajaStkQueryRequest> requestEntity = new HttpEntity<>(body, headers);
+    String stkQueryUrl = getStkQueryUrl(environment);
+
+    StkQueryResponse response =
+        callGuard.call(
+            environment,
+            DarajaEndpoint.STK_QUERY,
+            () -> {
+              try {
+                return darajaHttpClient
+                    .forEnvironment(environment)
+                    .postForObject(stkQueryUrl, requestEntity, StkQueryResponse.class);
+              } catch (HttpServerErrorException e) {
+                // Not a failure of the endpoint, so it is answered here rather than tripping the breaker
+                if (e.getResponseBodyAsString().contains(QUERY_IN_PROGRESS_ERROR)) {
+                  return new StkQueryResponse(null, "The transaction is being processed", null, checkoutRequestId, null, null);
+                }
+                throw e;
+              }
+            });
+    if (response == null) {
+      throw new PaymentException("Failed to query STK push: Empty response from Mpesa");
+    }
+    return response;
+  }
+
+  @EventListener
+  public void onConfigChanged(MpesaConfigChangedEvent event) {
+    templates.remove(event.configId());
+  }
+
+  private HttpEntity<byte[]> prepareStkPushRequest(
+      StkPushRequest request,
+      MpesaConfig config,
+      MpesaConfigService.MpesaCredentials credentials,
+      MpesaEnvironment environment) {
+
+    HttpHeaders headers =
+        createHeaders(config, credentials, request.shortCode(), environment);
+    DarajaStkPushRequest body = template(config, credentials).bind(request, LocalDateTime.now());
+    try {
+      return new HttpEntity<>(requestWriter.writeValueAsBytes(body), headers);
+    } catch (JsonProcessingException e) {
+      throw new PaymentException("Failed to serialize STK push request", e);
+    }
+  }
+
+  private StkPushTemplate template(MpesaConfig config, MpesaConfigService.MpesaCredentials credentials) {
+    StkPushTemplate template = templates.get(config.getUuid());
+    if (template == null || !template.isCurrent(config)) {
+      template = StkPushTemplate.of(config, credentials.passkey());
+      templates.put(config.getUuid(), template);
+    }
+    return template;
+  }
+
+  private StkPushResponse executeStkPushRequest(
+      HttpEntity<byte[]> requestEntity, MpesaEnvironment environment) {
+    String stkPushUrl = getStkPushUrl(environment);
+
+    ResponseEntity<StkPushResponse> response;
+    try {
+      response =
+          callGuard.call(
+              environment,
+              DarajaEndpoint.STK_PUSH,
+              () ->
+                  darajaHttpClient
+                      .forEnvironment(environment)
+                      .exchange(stkPushUrl, HttpMethod.POST, requestEntity, StkPushResponse.class));
+    } catch (HttpClientErrorException.TooManyRequests e) {
+      throw new RateLimitExceededException("Daraja throttled the STK push", retryAfter(e));
+    }
+
+    if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
+      return response.getBody();
+    }
+
+    throw new PaymentException("Failed to initiate STK push: Invalid response from Mpesa");
+  }
+
+  private Duration retryAfter(HttpClientErrorException e) {
+    String retryAfter =
+        e.getResponseHeaders() != null ? e.getResponseHeaders().getFirst(HttpHeaders.RETRY_AFTER) : null;
+    try {
+      return Duration.ofSeconds(Long.parseLong(retryAfter));
+    } catch (NumberFormatException ignored) {
+      return Duration.ofSeconds(1);
+    }
+  }
+
+  private HttpHeaders createHeaders(
+      MpesaConfig config,
+      MpesaConfigService.MpesaCredentials credentials,
+      String shortCode,
+      MpesaEnvironment environment) {
+    HttpHeaders headers = new HttpHeaders();
+    headers.setContentType(MediaType.APPLICATION_JSON);
+    headers.setBearerAuth(
+        authService.getAccessToken(
+            config.getUuid(),
+            credentials.consumerKey(),
+            credentials.consumerSecret(),
+            shortCode,
+            environment));
+    return headers;
+  }
+
+  private String getStkQueryUrl(MpesaEnvironment environment) {
+    return MpesaEnvironment.PRODUCTION == environment
+        ? mpesaUrlConfig.getUrls().getProd().getStkQueryUrl()
+        : mpesaUrlConfig.getUrls().getSandbox().getStkQueryUrl();
+  }
+
+  private String getStkPushUrl(MpesaEnvironment environment) {
+    return MpesaEnvironment.PRODUCTION == environment
+        ? mpesaUrlConfig.getUrls().getProd().getStkPushUrl()
+        : mpesaUrlConfig.getUrls().getSandbox().getStkPushUrl();
+  }
+}
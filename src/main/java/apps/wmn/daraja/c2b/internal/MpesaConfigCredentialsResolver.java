@@ -0,0 +1,32 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.repository.MpesaConfigRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.services.DarajaCredentialsResolver;
+import java.util.Optional;
+import java.util.UUID;
+import org.springframework.stereotype.Component;
+
+/**
+ * Resolves consumer credentials from the shortcode configurations, decrypting through
+ * {@link MpesaConfigService} so that renewals reuse the credential vault.
+ */
+@Component
+public class MpesaConfigCredentialsResolver implements DarajaCredentialsResolver {
+    private final MpesaConfigRepository configRepository;
+    private final MpesaConfigService configService;
+
+    public MpesaConfigCredentialsResolver(MpesaConfigRepository configRepository, MpesaConfigService configService) {
+        this.configRepository = configRepository;
+        this.configService = configService;
+    }
+
+    @Override
+    public Optional<ConsumerCredentials> resolve(UUID configId) {
+        return configRepository.findByUuid(configId)
+                .filter(MpesaConfig::isActive)
+                .map(configService::getDecryptedCredentials)
+                .map(credentials -> new ConsumerCredentials(credentials.consumerKey(), credentials.consumerSecret()));
+    }
+}
@@ -0,0 +1,70 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.service.MpesaConfigService.MpesaCredentials;
+import apps.wmn.daraja.common.event.MpesaConfigChangedEvent;
+import com.github.benmanes.caffeine.cache.Cache;
+import java.time.LocalDateTime;
+import java.util.Objects;
+import java.util.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.context.event.EventListener;
+import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds decrypted shortcode credentials in a bounded in-memory store so that each configuration
+ * version is decrypted once rather than on every request.
+ */
+@Component
+@Slf4j
+public class MpesaCredentialVault {
+    private static final String CREDENTIALS_CACHE = "mpesaCredentials";
+
+    private final TextEncryptor textEncryptor;
+    private final Cache<Object, Object> credentials;
+
+    @SuppressWarnings("unchecked")
+    public MpesaCredentialVault(TextEncryptor textEncryptor, CacheManager cacheManager) {
+        this.textEncryptor = textEncryptor;
+        this.credentials = (Cache<Object, Object>) cacheManager.getCache(CREDENTIALS_CACHE).getNativeCache();
+    }
+
+    /**
+     * Returns the decrypted credentials of the given configuration, decrypting only when the vault
+     * holds nothing for this configuration version.
+     */
+    public MpesaCredentials getCredentials(MpesaConfig config) {
+        VaultEntry entry = (VaultEntry) credentials.getIfPresent(config.getUuid());
+        if (entry != null && Objects.equals(entry.version(), config.getModifiedDate())) {
+            return entry.credentials();
+        }
+
+        log.debug("Decrypting credentials for shortcode: {}", config.getShortcode());
+        MpesaCredentials decrypted = decrypt(config);
+        credentials.put(config.getUuid(), new VaultEntry(config.getModifiedDate(), decrypted));
+        return decrypted;
+    }
+
+    public void invalidate(UUID configId) {
+        credentials.invalidate(configId);
+    }
+
+    @EventListener
+    public void onConfigChanged(MpesaConfigChangedEvent event) {
+        log.debug("Invalidating credentials for shortcode: {} in environment: {}", event.shortcode(), event.environment());
+        invalidate(event.configId());
+    }
+
+    private MpesaCredentials decrypt(MpesaConfig config) {
+        return new MpesaCredentials(
+                textEncryptor.decrypt(config.getConsumerKey()),
+                textEncryptor.decrypt(config.getConsumerSecret()),
+                config.getPasskey() != null ? textEncryptor.decrypt(config.getPasskey()) : null,
+                config.getSecurityCredential() != null ? textEncryptor.decrypt(config.getSecurityCredential()) : null
+        );
+    }
+
+    private record VaultEntry(LocalDateTime version, MpesaCredentials credentials) {}
+}
@@ -0,0 +1,205 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.PaymentExportRow;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentExportRepository;
+import apps.wmn.daraja.common.config.PaymentExportProperties;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Writes payments in a date range to a response stream as NDJSON or CSV while they are read from
+ * the database cursor. Each row is serialised and dropped before the next is fetched, so an export
+ * holds one fetch of rows plus the output buffer no matter how many payments it covers.
+ *
+ * <p>Writes block when the client reads slowly, which in turn stops the cursor from advancing; a
+ * client that goes away fails the next write, which rolls back the read-only transaction and frees
+ * its connection. Since every running export holds a connection for as long as its client keeps
+ * reading, callers {@link #reserve() reserve} a slot first and at most {@code max-concurrent}
+ * exports run at once.
+ *
+ * <p>The status line has gone out before the first row is read, so an export that fails part way
+ * still ends with 200. Only a complete export ends with a trailer carrying its row count:
+ * {@code {"export_complete":true,"rows":N}} as the last NDJSON line, {@code # export_complete,rows=N}
+ * as the last CSV line. A file without one is truncated.
+ */
+@Component
+@Slf4j
+public class PaymentExporter {
+    private static final Duration RETRY_AFTER = Duration.ofSeconds(30);
+
+    private final MpesaPaymentExportRepository exportRepository;
+    private final PaymentExportProperties properties;
+    private final TransactionTemplate transactionTemplate;
+    private final ObjectWriter rowWriter;
+    private final Semaphore slots;
+
+    public PaymentExporter(
+            MpesaPaymentExportRepository exportRepository,
+            PaymentExportProperties properties,
+            PlatformTransactionManager transactionManager,
+            ObjectMapper objectMapper) {
+        this.exportRepository = exportRepository;
+        this.properties = properties;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.transactionTemplate.setReadOnly(true);
+        this.transactionTemplate.setTimeout((int) properties.getQueryTimeout().toSeconds());
+        this.slots = new Semaphore(properties.getMaxConcurrent());
+        this.rowWriter = objectMapper.writerFor(PaymentExportRow.class)
+                .without(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+                // Rows are flushed once per fetch, not once per row
+                .without(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM)
+                .withRootValueSeparator((String) null);
+    }
+
+    /**
+     * Takes one of the {@code max-concurrent} export slots, to be closed once the export has been
+     * written or abandoned.
+     *
+     * @throws RateLimitExceededException if every slot is taken
+     */
+    public Slot reserve() {
+        if (!slots.tryAcquire()) {
+            throw new RateLimitExceededException(
+                    "Another " + properties.getMaxConcurrent() + " exports are running; try again later", RETRY_AFTER);
+        }
+        return new Slot();
+    }
+
+    /** Writes one JSON object per line, then the completion trailer. */
+    public void exportNdjson(LocalDateTime from, LocalDateTime to, OutputStream out) {
+        OutputStream buffered = new BufferedOutputStream(out, bufferSize());
+        long rows = export(from, to, buffered, row -> {
+            rowWriter.writeValue(buffered, row);
+            buffered.write('\n');
+        });
+        writeTrailer(buffered, ("{\"export_complete\":true,\"rows\":" + rows + "}\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Writes a header line followed by one RFC 4180 record per payment, then the completion trailer. */
+    public void exportCsv(LocalDateTime from, LocalDateTime to, OutputStream out) {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), bufferSize());
+        try {
+            writer.write(String.join(",", PaymentExportRow.COLUMNS));
+            writer.write("\r\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        long rows = export(from, to, writer, row -> {
+            Object[] values = row.values();
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writeCsvField(writer, values[i]);
+            }
+            writer.write("\r\n");
+        });
+        try {
+            writer.write("# export_complete,rows=" + rows + "\r\n");
+            writer.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private long export(LocalDateTime from, LocalDateTime to, Flushable output, RowWriter writeRow) {
+        long start = System.nanoTime();
+        long[] rows = {0};
+        int flushEvery = properties.getFetchSize();
+        transactionTemplate.executeWithoutResult(status ->
+                exportRepository.streamCreatedBetween(from, to, flushEvery, row -> {
+                    try {
+                        writeRow.write(row);
+                        // Hand each fetch to the client before reading the next one
+                        if (++rows[0] % flushEvery == 0) {
+                            output.flush();
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+        try {
+            output.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        log.info("Exported {} payments created between {} and {} in {} ms",
+                rows[0], from, to, (System.nanoTime() - start) / 1_000_000);
+        return rows[0];
+    }
+
+    private static void writeTrailer(OutputStream out, byte[] trailer) {
+        try {
+            out.write(trailer);
+            out.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private int bufferSize() {
+        return (int) properties.getBufferSize().toBytes();
+    }
+
+    private static void writeCsvField(Writer writer, Object value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        String text = value.toString();
+        if (value instanceof String && !text.isEmpty() && "=+-@\t\r".indexOf(text.charAt(0)) >= 0) {
+            // Keep spreadsheets from evaluating payer-supplied text such as references as formulas
+            text = "'" + text;
+        }
+        boolean quote = false;
+        for (int i = 0; i < text.length() && !quote; i++) {
+            char c = text.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            writer.write(text);
+            return;
+        }
+        writer.write('"');
+        writer.write(text.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    /** A reserved export slot; closing it more than once is harmless. */
+    public final class Slot implements AutoCloseable {
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot() {
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                slots.release();
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowWriter {
+        void write(PaymentExportRow row) throws IOException;
+    }
+}
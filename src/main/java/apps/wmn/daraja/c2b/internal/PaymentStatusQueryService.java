@@ -0,0 +1,157 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.enums.TransactionStatus;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.cache.ExpiringValue;
+import apps.wmn.daraja.common.config.PaymentStatusQueryProperties;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.exceptions.PaymentException;
+import apps.wmn.daraja.common.exceptions.PaymentNotFoundException;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.cache.CacheManager;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.RestClientException;
+
+/**
+ * Answers payment status queries from API clients, which tend to poll the same transaction
+ * repeatedly. Concurrent queries for a transaction share one lookup, settled statuses are cached
+ * until evicted by size, unsettled ones for {@code pendingTtl}, and Daraja is asked about a
+ * transaction at most once per {@code minQueryInterval}. If Daraja cannot be asked, or does not
+ * answer, the stored status is returned; only a rate-limited shortcode fails the query fast.
+ */
+@Component
+@Slf4j
+public class PaymentStatusQueryService {
+    private static final String STATUS_CACHE = "paymentStatus";
+    private static final Set<String> SETTLED_STATUSES = Set.of(
+            TransactionStatus.COMPLETED.name(),
+            TransactionStatus.FAILED.name(),
+            TransactionStatus.CANCELLED.name());
+
+    private final MpesaPaymentRepository paymentRepository;
+    private final StkPaymentReconciler reconciler;
+    private final PaymentStatusQueryProperties properties;
+
+    private final Cache<Object, Object> statusCache;
+    private final Cache<String, Instant> recentDarajaQueries;
+    private final Map<String, CompletableFuture<PaymentView>> inFlightQueries = new ConcurrentHashMap<>();
+
+    private final Counter cacheHits;
+    private final Counter coalescedQueries;
+    private final Counter lookups;
+    private final Counter darajaQueries;
+
+    @SuppressWarnings("unchecked")
+    public PaymentStatusQueryService(
+            MpesaPaymentRepository paymentRepository,
+            StkPaymentReconciler reconciler,
+            PaymentStatusQueryProperties properties,
+            CacheManager cacheManager,
+            MeterRegistry meterRegistry) {
+        this.paymentRepository = paymentRepository;
+        this.reconciler = reconciler;
+        this.properties = properties;
+        this.statusCache = (Cache<Object, Object>) cacheManager.getCache(STATUS_CACHE).getNativeCache();
+        this.recentDarajaQueries = Caffeine.newBuilder()
+                .expireAfterWrite(properties.getMinQueryInterval())
+                .maximumSize(100_000)
+                .build();
+
+        this.cacheHits = meterRegistry.counter("daraja.status.query", "result", "hit");
+        this.coalescedQueries = meterRegistry.counter("daraja.status.query", "result", "coalesced");
+        this.lookups = meterRegistry.counter("daraja.status.query", "result", "lookup");
+        this.darajaQueries = meterRegistry.counter("daraja.status.query.outbound");
+    }
+
+    public PaymentView getStatus(String transactionId) {
+        CachedStatus cached = (CachedStatus) statusCache.getIfPresent(transactionId);
+        if (cached != null) {
+            cacheHits.increment();
+            return cached.view();
+        }
+
+        CompletableFuture<PaymentView> query = new CompletableFuture<>();
+        CompletableFuture<PaymentView> inFlight = inFlightQueries.putIfAbsent(transactionId, query);
+        if (inFlight != null) {
+            coalescedQueries.increment();
+            return await(inFlight);
+        }
+
+        try {
+            lookups.increment();
+            PaymentView view = lookup(transactionId);
+            statusCache.put(transactionId, new CachedStatus(view, SETTLED_STATUSES.contains(view.transactionStatus())
+                    ? null
+                    : Instant.now().plus(properties.getPendingTtl())));
+            query.complete(view);
+            return view;
+        } catch (RuntimeException e) {
+            query.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightQueries.remove(transactionId, query);
+        }
+    }
+
+    /**
+     * Drops the cached status of a transaction, e.g. once its callback has been processed.
+     */
+    public void evict(String transactionId) {
+        statusCache.invalidate(transactionId);
+    }
+
+    private PaymentView lookup(String transactionId) {
+        PaymentView view = paymentRepository.findViewByTransactionId(transactionId)
+                .orElseThrow(() -> new PaymentNotFoundException("Payment not found: " + transactionId));
+
+        if (!isQueryable(view) || recentDarajaQueries.asMap().putIfAbsent(transactionId, Instant.now()) != null) {
+            return view;
+        }
+        log.debug("Querying Daraja for the status of transaction: {}", transactionId);
+        darajaQueries.increment();
+        try {
+            // Only a query needs the managed entity, which the reconciler settles and writes back
+            return paymentRepository.findByTransactionId(transactionId)
+                    .map(reconciler::reconcile)
+                    .map(PaymentMapperFactory::toView)
+                    .orElse(view);
+        } catch (DarajaUnavailableException | PaymentException | RestClientException e) {
+            // A status read must not fail because Daraja does; the stored status is still the answer
+            log.debug("Could not query Daraja for transaction: {}, answering with the stored status: {}",
+                    transactionId, e.getMessage());
+            return view;
+        }
+    }
+
+    private boolean isQueryable(PaymentView payment) {
+        return TransactionStatus.PENDING.name().equals(payment.transactionStatus())
+                && "STK_PUSH".equals(payment.transactionType())
+                && payment.checkoutRequestId() != null;
+    }
+
+    private PaymentView await(CompletableFuture<PaymentView> inFlight) {
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw e;
+        }
+    }
+
+    private record CachedStatus(PaymentView view, Instant expiryTime) implements ExpiringValue {
+    }
+}
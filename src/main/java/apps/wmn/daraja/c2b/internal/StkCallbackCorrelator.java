@@ -0,0 +1,156 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.DeadLetterReason;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.CallbackDeadLetterRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.nio.charset.StandardCharsets;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Matches STK callbacks to their payments by {@code CheckoutRequestID}. Daraja can call back
+ * before the push response has been written, in which case the callback is parked in memory for
+ * {@code earlyCallbackTtl} and applied as soon as the response is persisted, rather than failing
+ * and prompting Safaricom to retry. A parked callback is also written to the dead-letter store,
+ * so one that expires or is lost to a restart is still on record for reconciliation.
+ */
+@Component
+@Slf4j
+public class StkCallbackCorrelator {
+    private final MpesaPaymentRepository paymentRepository;
+    private final PaymentStatusQueryService statusQueryService;
+    private final TransactionTemplate transactionTemplate;
+    private final CallbackDeadLetterRepository deadLetters;
+    private final ObjectWriter callbackWriter;
+    private final Cache<String, ParkedCallback> parked;
+    private final Counter parkedCallbacks;
+    private final Counter rematchedCallbacks;
+
+    public StkCallbackCorrelator(
+            MpesaPaymentRepository paymentRepository,
+            PaymentStatusQueryService statusQueryService,
+            TransactionTemplate transactionTemplate,
+            CallbackDeadLetterRepository deadLetters,
+            CallbackIngestionProperties properties,
+            ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.paymentRepository = paymentRepository;
+        this.statusQueryService = statusQueryService;
+        this.transactionTemplate = transactionTemplate;
+        this.deadLetters = deadLetters;
+        this.callbackWriter = objectMapper.writerFor(StkCallback.class);
+        this.parkedCallbacks = meterRegistry.counter("daraja.stk.callback.parked", "result", "parked");
+        this.rematchedCallbacks = meterRegistry.counter("daraja.stk.callback.parked", "result", "rematched");
+        Counter expiredCallbacks = meterRegistry.counter("daraja.stk.callback.parked", "result", "expired");
+        this.parked = Caffeine.newBuilder()
+                .expireAfterWrite(properties.getEarlyCallbackTtl())
+                .maximumSize(properties.getEarlyCallbackCapacity())
+                .<String, ParkedCallback>removalListener((checkoutRequestId, callback, cause) -> {
+                    if (cause == RemovalCause.EXPIRED || cause == RemovalCause.SIZE) {
+                        log.warn("Dropped parked STK callback {} ({}), leaving it in the dead-letter store",
+                                checkoutRequestId, cause);
+                        expiredCallbacks.increment();
+                    }
+                })
+                .build();
+        meterRegistry.gauge("daraja.stk.callback.parked.size", parked, Cache::estimatedSize);
+    }
+
+    /**
+     * Applies the callback to its payment.
+     *
+     * @return the updated payment, or null if the callback was parked until the push response is
+     *     persisted
+     */
+    public PaymentView apply(StkCallback callback, String rawCallback) {
+        PaymentView view = transactionTemplate.execute(status -> paymentRepository
+                .findByCheckoutRequestId(callback.checkoutRequestId())
+                .map(payment -> applyTo(payment, callback, rawCallback))
+                .orElse(null));
+        if (view != null) {
+            statusQueryService.evict(callback.merchantRequestId());
+            return view;
+        }
+
+        park(callback, rawCallback);
+        // The push response may have been persisted between the lookup and parking
+        if (paymentRepository.findByCheckoutRequestId(callback.checkoutRequestId()).isPresent()) {
+            return responsePersisted(callback.checkoutRequestId());
+        }
+        return null;
+    }
+
+    private PaymentView applyTo(MpesaPayment payment, StkCallback callback, String rawCallback) {
+        PaymentMapperFactory.updateWithStkCallback(payment, callback, rawCallback);
+        return PaymentMapperFactory.toView(paymentRepository.save(payment));
+    }
+
+    /**
+     * Records the callback in the dead-letter store before holding it in memory, so that it is only
+     * ever dropped from memory once it is durable. Throws if it cannot be recorded.
+     */
+    private void park(StkCallback callback, String rawCallback) {
+        deadLetters.save(CallbackDeduplicator.CallbackType.STK.name(), callback.checkoutRequestId(),
+                DeadLetterReason.UNMATCHED, payload(callback, rawCallback), "Push response not yet persisted");
+        log.info("Parking STK callback {} until its push response is persisted", callback.checkoutRequestId());
+        parked.put(callback.checkoutRequestId(), new ParkedCallback(callback, rawCallback));
+        parkedCallbacks.increment();
+    }
+
+    /**
+     * Applies a callback parked for this push, if any. Called once the push response carrying the
+     * checkout request id has been committed.
+     *
+     * @return the updated payment, or null if no callback was waiting
+     */
+    public PaymentView responsePersisted(String checkoutRequestId) {
+        if (checkoutRequestId == null) {
+            return null;
+        }
+        ParkedCallback waiting = parked.asMap().remove(checkoutRequestId);
+        if (waiting == null) {
+            return null;
+        }
+        rematchedCallbacks.increment();
+        log.info("Applying parked STK callback {}", checkoutRequestId);
+        try {
+            PaymentView view = apply(waiting.callback(), waiting.rawCallback());
+            if (view != null) {
+                deadLetters.delete(CallbackDeduplicator.CallbackType.STK.name(), checkoutRequestId,
+                        DeadLetterReason.UNMATCHED);
+            }
+            return view;
+        } catch (RuntimeException e) {
+            log.error("Failed to apply parked STK callback {}", checkoutRequestId, e);
+            parked.put(checkoutRequestId, waiting);
+            return null;
+        }
+    }
+
+    private byte[] payload(StkCallback callback, String rawCallback) {
+        try {
+            return rawCallback != null
+                    ? rawCallback.getBytes(StandardCharsets.UTF_8)
+                    : callbackWriter.writeValueAsBytes(callback);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Callback cannot be serialized", e);
+        }
+    }
+
+    private record ParkedCallback(StkCallback callback, String rawCallback) {
+    }
+}
@@ -0,0 +1,213 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.StkQueryResponse;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.TransactionStatus;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentBatchRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.config.ReconciliationProperties;
+import apps.wmn.daraja.common.config.SchedulingConfig;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Settles STK pushes that never received a callback by asking Daraja for their outcome. Stuck
+ * payments are read in keyset pages, queried concurrently with a cap per shortcode, and written
+ * back in one batch per page. Payments that are still in progress are retried with exponential
+ * backoff on {@code retryCount}; once {@code maxRetries} queries have gone unanswered the payment
+ * is moved to {@link TransactionStatus#REQUIRES_REVIEW}, since an unknown outcome may still be a
+ * successful charge. Stuck pushes that never got a CheckoutRequestID cannot be queried at all and
+ * are moved there directly.
+ */
+@Component
+@Slf4j
+public class StkPaymentReconciler {
+    private static final String RESULT_SUCCESS = "0";
+    private static final String RESULT_CANCELLED_BY_USER = "1032";
+
+    private final MpesaPaymentRepository paymentRepository;
+    private final MpesaPaymentBatchRepository paymentBatchRepository;
+    private final MpesaConfigService configService;
+    private final DarajaStkPushClient stkPushClient;
+    private final DarajaRateLimiter rateLimiter;
+    private final ReconciliationProperties properties;
+    private final MeterRegistry meterRegistry;
+    private final Timer runTimer;
+
+    public StkPaymentReconciler(
+            MpesaPaymentRepository paymentRepository,
+            MpesaPaymentBatchRepository paymentBatchRepository,
+            MpesaConfigService configService,
+            DarajaStkPushClient stkPushClient,
+            DarajaRateLimiter rateLimiter,
+            ReconciliationProperties properties,
+            MeterRegistry meterRegistry) {
+        this.paymentRepository = paymentRepository;
+        this.paymentBatchRepository = paymentBatchRepository;
+        this.configService = configService;
+        this.stkPushClient = stkPushClient;
+        this.rateLimiter = rateLimiter;
+        this.properties = properties;
+        this.meterRegistry = meterRegistry;
+        this.runTimer = Timer.builder("daraja.reconciliation.run")
+                .description("Time taken by one pass over the stuck STK pushes")
+                .register(meterRegistry);
+    }
+
+    @Scheduled(fixedDelayString = "${mpesa.reconciliation.interval:1m}", scheduler = SchedulingConfig.RECONCILIATION_SCHEDULER)
+    public void reconcileStuckPayments() {
+        if (!properties.isEnabled()) {
+            return;
+        }
+        runTimer.record(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            long afterId = 0;
+            int reconciled = 0;
+            List<MpesaPayment> page;
+            do {
+                page = paymentRepository.findReconcilable(
+                        now.minus(properties.getStuckAfter()),
+                        now,
+                        properties.getMaxRetries(),
+                        properties.getBackoffBase().toSeconds(),
+                        properties.getMaxBackoff().toSeconds(),
+                        afterId,
+                        properties.getPageSize());
+                if (page.isEmpty()) {
+                    break;
+                }
+                reconciled += reconcilePage(page);
+                afterId = page.get(page.size() - 1).getId();
+            } while (page.size() == properties.getPageSize());
+
+            if (reconciled > 0) {
+                log.info("Reconciled {} stuck STK pushes", reconciled);
+            }
+
+            int flagged = paymentBatchRepository.flagUnqueryableForReview(now.minus(properties.getStuckAfter()));
+            if (flagged > 0) {
+                log.warn("Flagged {} stuck STK pushes without a CheckoutRequestID for manual review", flagged);
+                meterRegistry.counter("daraja.reconciliation.results", "outcome", "unqueryable").increment(flagged);
+            }
+        });
+    }
+
+    /**
+     * Queries the outcome of a single pending STK push on behalf of an API request, failing fast if
+     * the shortcode is rate limited. The payment is only written back once it has settled: clients
+     * polling a slow payment must not use up the retries and backoff of background reconciliation.
+     */
+    public MpesaPayment reconcile(MpesaPayment payment) {
+        MpesaConfig config = configService.getConfig(payment.getBusinessShortCode(), payment.getEnvironment());
+        rateLimiter.acquireForRequest(config);
+        if (apply(payment, stkPushClient.query(payment.getCheckoutRequestId(), config, payment.getEnvironment()))) {
+            paymentBatchRepository.updateReconciled(List.of(payment));
+        }
+        return payment;
+    }
+
+    private int reconcilePage(List<MpesaPayment> page) {
+        Map<String, Semaphore> shortcodePermits = new HashMap<>();
+        List<MpesaPayment> updated = Collections.synchronizedList(new ArrayList<>(page.size()));
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (MpesaPayment payment : page) {
+                Semaphore permits = shortcodePermits.computeIfAbsent(
+                        payment.getBusinessShortCode() + "_" + payment.getEnvironment(),
+                        key -> new Semaphore(properties.getPerShortcodeConcurrency()));
+                executor.execute(() -> {
+                    permits.acquireUninterruptibly();
+                    try {
+                        if (query(payment)) {
+                            updated.add(payment);
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+
+        paymentBatchRepository.updateReconciled(updated);
+        return updated.size();
+    }
+
+    /**
+     * @return whether the payment changed and needs to be written back
+     */
+    private boolean query(MpesaPayment payment) {
+        try {
+            MpesaConfig config = configService.getConfig(payment.getBusinessShortCode(), payment.getEnvironment());
+            rateLimiter.acquireForBackground(config);
+            if (!apply(payment, stkPushClient.query(payment.getCheckoutRequestId(), config, payment.getEnvironment()))) {
+                scheduleRetry(payment);
+            }
+            return true;
+        } catch (RateLimitExceededException | DarajaUnavailableException e) {
+            // Not the payment's fault, so it is picked up again on the next pass without using a retry
+            log.debug("Skipping reconciliation of payment: {}: {}", payment.getUuid(), e.getMessage());
+            record("skipped");
+            return false;
+        } catch (Exception e) {
+            log.warn("Error reconciling payment: {}", payment.getUuid(), e);
+            payment.setErrorMessage(e.getMessage());
+            scheduleRetry(payment);
+            record("error");
+            return true;
+        }
+    }
+
+    /**
+     * @return whether the payment settled; a payment that is still in progress is left unchanged
+     */
+    private boolean apply(MpesaPayment payment, StkQueryResponse response) {
+        if (response.resultCode() == null) {
+            record("in_progress");
+            return false;
+        }
+
+        TransactionStatus status = switch (response.resultCode()) {
+            case RESULT_SUCCESS -> TransactionStatus.COMPLETED;
+            case RESULT_CANCELLED_BY_USER -> TransactionStatus.CANCELLED;
+            default -> TransactionStatus.FAILED;
+        };
+        payment.setTransactionStatus(status.name());
+        payment.setCompletedDate(LocalDateTime.now());
+        payment.setErrorMessage(status == TransactionStatus.COMPLETED ? null : response.resultDesc());
+        record(status.name().toLowerCase());
+        return true;
+    }
+
+    private void scheduleRetry(MpesaPayment payment) {
+        payment.setRetryCount(payment.getRetryCount() + 1);
+        if (payment.getRetryCount() >= properties.getMaxRetries()) {
+            log.warn("Giving up reconciling payment: {} after {} queries; flagging it for manual review",
+                    payment.getUuid(), payment.getRetryCount());
+            payment.setTransactionStatus(TransactionStatus.REQUIRES_REVIEW.name());
+            payment.setErrorMessage("Outcome unknown after " + payment.getRetryCount()
+                    + " status queries; reconcile manually"
+                    + (payment.getErrorMessage() != null ? ": " + payment.getErrorMessage() : ""));
+            record("gave_up");
+        }
+    }
+
+    private void record(String outcome) {
+        meterRegistry.counter("daraja.reconciliation.results", "outcome", outcome).increment();
+    }
+}
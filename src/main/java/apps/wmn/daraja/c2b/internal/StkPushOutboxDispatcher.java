@@ -0,0 +1,260 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.StkPushRequest;
+import apps.wmn.daraja.c2b.dto.StkPushResponse;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.entity.StkPushOutbox;
+import apps.wmn.daraja.c2b.enums.OutboxStatus;
+import apps.wmn.daraja.c2b.enums.TransactionStatus;
+import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.c2b.repository.StkPushOutboxRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.concurrent.BoundedVirtualThreadExecutor;
+import apps.wmn.daraja.common.config.StkDispatchProperties;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.exceptions.PaymentNotFoundException;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Drains the STK push outbox. Entries are claimed in batches with {@code FOR UPDATE SKIP LOCKED}
+ * and marked DISPATCHING before the Daraja call, so every node can run a dispatcher and each entry
+ * is pushed at most once.
+ */
+@Component
+@Slf4j
+public class StkPushOutboxDispatcher {
+  private final StkPushOutboxRepository outboxRepository;
+  private final MpesaPaymentRepository paymentRepository;
+  private final MpesaConfigService configService;
+  private final DarajaStkPushClient stkPushClient;
+  private final DarajaRateLimiter rateLimiter;
+  private final StkCallbackCorrelator stkCallbackCorrelator;
+  private final BoundedVirtualThreadExecutor stkDispatchExecutor;
+  private final TransactionTemplate transactionTemplate;
+  private final ObjectMapper objectMapper;
+  private final StkDispatchProperties properties;
+  private final MeterRegistry meterRegistry;
+
+  private final Timer dispatchLag;
+  private final AtomicLong backlog = new AtomicLong();
+  private final AtomicLong oldestPendingAge = new AtomicLong();
+  private final AtomicBoolean deferred = new AtomicBoolean();
+
+  public StkPushOutboxDispatcher(
+      StkPushOutboxRepository outboxRepository,
+      MpesaPaymentRepository paymentRepository,
+      MpesaConfigService configService,
+      DarajaStkPushClient stkPushClient,
+      DarajaRateLimiter rateLimiter,
+      StkCallbackCorrelator stkCallbackCorrelator,
+      BoundedVirtualThreadExecutor stkDispatchExecutor,
+      TransactionTemplate transactionTemplate,
+      ObjectMapper objectMapper,
+      StkDispatchProperties properties,
+      MeterRegistry meterRegistry) {
+    this.outboxRepository = outboxRepository;
+    this.paymentRepository = paymentRepository;
+    this.configService = configService;
+    this.stkPushClient = stkPushClient;
+    this.rateLimiter = rateLimiter;
+    this.stkCallbackCorrelator = stkCallbackCorrelator;
+    this.stkDispatchExecutor = stkDispatchExecutor;
+    this.transactionTemplate = transactionTemplate;
+    this.objectMapper = objectMapper;
+    this.properties = properties;
+    this.meterRegistry = meterRegistry;
+
+    this.dispatchLag = Timer.builder("daraja.stk.outbox.lag")
+        .description("Time from outbox insert until a dispatcher claims the entry")
+        .publishPercentiles(0.5, 0.95, 0.99)
+        .register(meterRegistry);
+    Gauge.builder("daraja.stk.outbox.backlog", backlog, AtomicLong::get)
+        .description("Outbox entries waiting to be dispatched")
+        .register(meterRegistry);
+    Gauge.builder("daraja.stk.outbox.oldest.age", oldestPendingAge, AtomicLong::get)
+        .description("Age in seconds of the oldest entry waiting to be dispatched")
+        .baseUnit("seconds")
+        .register(meterRegistry);
+  }
+
+  @Scheduled(fixedDelayString = "${mpesa.stk-dispatch.poll-interval:250ms}")
+  public void drain() {
+    // Entries handed back to the queue are picked up on the next poll rather than re-claimed here
+    deferred.set(false);
+    int claimed;
+    do {
+      int capacity = Math.min(properties.getBatchSize(), stkDispatchExecutor.availableCapacity());
+      if (capacity == 0) {
+        return;
+      }
+      List<StkPushOutbox> batch = transactionTemplate.execute(status -> claim(capacity));
+      batch.forEach(this::submit);
+      claimed = batch.size();
+    } while (claimed == properties.getBatchSize() && !deferred.get());
+  }
+
+  @Scheduled(fixedDelayString = "${mpesa.stk-dispatch.maintenance-interval:15s}")
+  public void maintain() {
+    LocalDateTime now = LocalDateTime.now();
+    transactionTemplate.executeWithoutResult(status -> {
+      int abandoned = outboxRepository.abandonStaleClaims(now.minus(properties.getClaimTimeout()));
+      if (abandoned > 0) {
+        log.warn("Abandoned {} STK push outbox entries with no dispatch outcome", abandoned);
+      }
+      outboxRepository.deleteCompletedBefore(now.minus(properties.getRetention()));
+    });
+
+    backlog.set(outboxRepository.countByStatus(OutboxStatus.PENDING));
+    LocalDateTime oldest = outboxRepository.findOldestCreatedDateByStatus(OutboxStatus.PENDING);
+    oldestPendingAge.set(oldest != null ? Duration.between(oldest, now).toSeconds() : 0);
+  }
+
+  private List<StkPushOutbox> claim(int batchSize) {
+    List<StkPushOutbox> batch = outboxRepository.lockPendingBatch(batchSize);
+    LocalDateTime now = LocalDateTime.now();
+    for (StkPushOutbox entry : batch) {
+      entry.setStatus(OutboxStatus.DISPATCHING);
+      entry.setClaimedDate(now);
+      entry.setAttempts(entry.getAttempts() + 1);
+      dispatchLag.record(Duration.between(entry.getCreatedDate(), now));
+    }
+    return batch;
+  }
+
+  private void submit(StkPushOutbox entry) {
+    try {
+      stkDispatchExecutor.execute(() -> dispatch(entry));
+    } catch (RejectedExecutionException e) {
+      log.debug("Dispatch capacity exhausted, returning outbox entry {} to the queue", entry.getId());
+      release(entry);
+    }
+  }
+
+  private void release(StkPushOutbox entry) {
+    deferred.set(true);
+    entry.setStatus(OutboxStatus.PENDING);
+    entry.setClaimedDate(null);
+    transactionTemplate.executeWithoutResult(status -> outboxRepository.save(entry));
+  }
+
+  private void dispatch(StkPushOutbox entry) {
+    MpesaPayment payment;
+    try {
+      payment = paymentRepository.findById(entry.getPaymentId())
+          .orElseThrow(() -> new PaymentNotFoundException("Payment not found: " + entry.getPaymentId()));
+    } catch (Exception e) {
+      log.error("Cannot dispatch outbox entry {}: payment {} could not be loaded",
+          entry.getId(), entry.getPaymentId(), e);
+      failEntry(entry, e);
+      return;
+    }
+    dispatch(entry, payment);
+  }
+
+  private void dispatch(StkPushOutbox entry, MpesaPayment payment) {
+    StkPushResponse response;
+    try {
+      StkPushRequest request = objectMapper.readValue(entry.getPayload(), StkPushRequest.class);
+      MpesaConfig config = configService.getConfig(request.shortCode(), entry.getEnvironment());
+      rateLimiter.acquireForBackground(config);
+      response = stkPushClient.push(request, config, entry.getEnvironment());
+
+    } catch (RateLimitExceededException | DarajaUnavailableException e) {
+      // Nothing was sent, so the entry can safely go back to the queue
+      log.debug("Deferring STK push for payment: {}: {}", payment.getUuid(), e.getMessage());
+      release(entry);
+      return;
+
+    } catch (ResourceAccessException e) {
+      // The request may have reached Daraja, but with no CheckoutRequestID to query the payment is
+      // flagged for manual review by reconciliation rather than failed
+      log.error("STK push outcome unknown for payment: {}", payment.getUuid(), e);
+      transactionTemplate.executeWithoutResult(status -> {
+        payment.setErrorMessage(e.getMessage());
+        paymentRepository.save(payment);
+        complete(entry, OutboxStatus.ABANDONED, e.getMessage());
+      });
+      return;
+
+    } catch (Exception e) {
+      log.error("Error dispatching STK push for payment: {}", payment.getUuid(), e);
+      transactionTemplate.executeWithoutResult(status -> {
+        payment.setTransactionStatus(TransactionStatus.FAILED.name());
+        payment.setErrorMessage(e.getMessage());
+        paymentRepository.save(payment);
+        complete(entry, OutboxStatus.FAILED, e.getMessage());
+      });
+      return;
+    }
+
+    recordResponse(entry, payment, response);
+  }
+
+  /**
+   * Records a push Daraja has accepted. The customer may already be paying, so if the write fails
+   * the payment stays pending and the entry is abandoned with the CheckoutRequestID in its error,
+   * which is all that is needed to settle the payment by hand.
+   */
+  private void recordResponse(StkPushOutbox entry, MpesaPayment payment, StkPushResponse response) {
+    try {
+      transactionTemplate.executeWithoutResult(status -> {
+        PaymentMapperFactory.updateWithStkResponse(payment, response);
+        paymentRepository.save(payment);
+        complete(entry, OutboxStatus.DISPATCHED, null);
+      });
+    } catch (RuntimeException e) {
+      log.error("STK push for payment: {} was accepted with CheckoutRequestID {} but could not be recorded",
+          payment.getUuid(), response.checkoutRequestId(), e);
+      completeQuietly(entry, OutboxStatus.ABANDONED,
+          "Accepted with CheckoutRequestID " + response.checkoutRequestId()
+              + " but the response could not be recorded: " + e.getMessage());
+      return;
+    }
+    stkCallbackCorrelator.responsePersisted(response.checkoutRequestId());
+    log.info("Dispatched STK push for payment: {}", payment.getUuid());
+  }
+
+  /**
+   * Marks an entry failed when its payment cannot be loaded.
+   */
+  private void failEntry(StkPushOutbox entry, Exception cause) {
+    completeQuietly(entry, OutboxStatus.FAILED, cause.getMessage());
+  }
+
+  /**
+   * Completes an entry after something else has already gone wrong. If this write fails too, the
+   * entry stays DISPATCHING until the maintenance sweep abandons it.
+   */
+  private void completeQuietly(StkPushOutbox entry, OutboxStatus status, String error) {
+    try {
+      transactionTemplate.executeWithoutResult(tx -> complete(entry, status, error));
+    } catch (RuntimeException e) {
+      log.error("Could not mark outbox entry {} {}", entry.getId(), status, e);
+    }
+  }
+
+  private void complete(StkPushOutbox entry, OutboxStatus status, String error) {
+    entry.setStatus(status);
+    entry.setCompletedDate(LocalDateTime.now());
+    entry.setLastError(error);
+    outboxRepository.save(entry);
+    meterRegistry.counter("daraja.stk.outbox.dispatched", "outcome", status.name()).increment();
+  }
+}
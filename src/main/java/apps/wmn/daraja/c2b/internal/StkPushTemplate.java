@@ -0,0 +1,79 @@
+package apps.wmn.daraja.c2b.internal;
+
+import apps.wmn.daraja.c2b.dto.DarajaStkPushRequest;
+import apps.wmn.daraja.c2b.dto.DarajaStkQueryRequest;
+import apps.wmn.daraja.c2b.dto.StkPushRequest;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * The parts of an STK push request that only depend on the shortcode configuration, computed once
+ * per configuration version and bound to each payment with {@link #bind}, or to a status query
+ * with {@link #bindQuery}.
+ */
+public final class StkPushTemplate {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final int TIMESTAMP_LENGTH = 14;
+    private static final String TRANSACTION_TYPE = "CustomerPayBillOnline";
+
+    private final LocalDateTime version;
+    private final String businessShortCode;
+    private final String callBackUrl;
+    /** UTF-8 bytes of shortcode + passkey, the fixed start of every password. */
+    private final byte[] passwordPrefix;
+
+    private StkPushTemplate(LocalDateTime version, String businessShortCode, String callBackUrl, byte[] passwordPrefix) {
+        this.version = version;
+        this.businessShortCode = businessShortCode;
+        this.callBackUrl = callBackUrl;
+        this.passwordPrefix = passwordPrefix;
+    }
+
+    public static StkPushTemplate of(MpesaConfig config, String passkey) {
+        return new StkPushTemplate(
+                config.getModifiedDate(),
+                config.getShortcode(),
+                config.getStkCallbackUrl(),
+                (config.getShortcode() + passkey).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Whether this template was built from the given version of its configuration.
+     */
+    public boolean isCurrent(MpesaConfig config) {
+        return version == null ? config.getModifiedDate() == null : version.equals(config.getModifiedDate());
+    }
+
+    public DarajaStkPushRequest bind(StkPushRequest request, LocalDateTime now) {
+        String timestamp = TIMESTAMP_FORMAT.format(now);
+        return new DarajaStkPushRequest(
+                businessShortCode,
+                password(timestamp),
+                timestamp,
+                TRANSACTION_TYPE,
+                request.amount(),
+                request.phoneNumber(),
+                businessShortCode,
+                request.phoneNumber(),
+                callBackUrl,
+                request.accountReference(),
+                request.transactionDesc());
+    }
+
+    public DarajaStkQueryRequest bindQuery(String checkoutRequestId, LocalDateTime now) {
+        String timestamp = TIMESTAMP_FORMAT.format(now);
+        return new DarajaStkQueryRequest(businessShortCode, password(timestamp), timestamp, checkoutRequestId);
+    }
+
+    private String password(String timestamp) {
+        byte[] raw = Arrays.copyOf(passwordPrefix, passwordPrefix.length + TIMESTAMP_LENGTH);
+        for (int i = 0; i < TIMESTAMP_LENGTH; i++) {
+            raw[passwordPrefix.length + i] = (byte) timestamp.charAt(i);
+        }
+        return Base64.getEncoder().encodeToString(raw);
+    }
+}
@@ -0,0 +1,50 @@
+package apps.wmn.daraja.c2b.repository;
+
+import apps.wmn.daraja.c2b.enums.DeadLetterReason;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.stereotype.Repository;
+
+/**
+ * JDBC access to {@code callback_dead_letters}, where callbacks that were acknowledged to Safaricom
+ * but could not be applied are kept, so that nothing Safaricom will not redeliver is lost.
+ */
+@Repository
+public class CallbackDeadLetterRepository {
+    /** A redelivery of a callback that is already dead-lettered replaces the earlier copy. */
+    private static final String UPSERT_SQL = """
+        INSERT INTO callback_dead_letters (callback_type, callback_id, reason, payload, last_error)
+        VALUES (?, ?, ?, ?, ?)
+        ON CONFLICT (callback_type, callback_id) WHERE callback_id IS NOT NULL DO UPDATE SET
+            reason = EXCLUDED.reason,
+            payload = EXCLUDED.payload,
+            last_error = EXCLUDED.last_error
+        """;
+
+    private static final String DELETE_SQL = """
+        DELETE FROM callback_dead_letters
+        WHERE callback_type = ?
+        AND callback_id = ?
+        AND reason = ?
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public CallbackDeadLetterRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * @param callbackType {@code STK}, {@code C2B} or {@code UNKNOWN}
+     * @param callbackId the {@code CheckoutRequestID} or {@code TransID}, if it could be read
+     */
+    public void save(String callbackType, String callbackId, DeadLetterReason reason, byte[] payload, String error) {
+        jdbcTemplate.update(UPSERT_SQL, callbackType, callbackId, reason.name(), payload, error);
+    }
+
+    /**
+     * Removes the dead letter of a callback once it has been applied after all.
+     */
+    public void delete(String callbackType, String callbackId, DeadLetterReason reason) {
+        jdbcTemplate.update(DELETE_SQL, callbackType, callbackId, reason.name());
+    }
+}
@@ -18,6 +18,10 @@ public interface MpesaConfigRepository
 
   Page<MpesaConfig> findByActiveTrue(Pageable pageable);
 
+  List<MpesaConfig> findAllByActiveTrue();
+
+  List<MpesaConfig> findByShortcodeAndActiveTrue(String shortcode);
+
   List<MpesaConfig> findByEnvironmentAndActiveTrue(MpesaEnvironment environment);
 
   boolean existsByShortcodeAndEnvironment(String shortcode, MpesaEnvironment environment);
@@ -0,0 +1,309 @@
+package apps.wmn.daraja.c2b.repository;
+
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.LocalDateTime;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import org.springframework.data.domain.AuditorAware;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.support.GeneratedKeyHolder;
+import org.springframework.jdbc.support.KeyHolder;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * JDBC access to {@code mpesa_payments} for bulk operations. Payment ids come from an identity
+ * column, which stops Hibernate from batching inserts, so bulk writes bypass JPA.
+ */
+@Repository
+public class MpesaPaymentBatchRepository {
+    private static final String INSERT_SQL = """
+        INSERT INTO mpesa_payments (
+            uuid, transaction_type, transaction_status, amount, currency, business_short_code,
+            environment, phone_number, payer_identifier, payee_identifier, account_reference,
+            transaction_desc, raw_request, retry_count, created_date, created_by)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CAST(? AS JSONB), ?, ?, ?)
+        """;
+
+    private static final String UPDATE_STK_RESPONSE_SQL = """
+        UPDATE mpesa_payments
+        SET transaction_id = ?, merchant_request_id = ?, checkout_request_id = ?, raw_callback = CAST(? AS JSONB)
+        WHERE id = ?
+        """;
+
+    private static final String UPDATE_ERROR_SQL = """
+        UPDATE mpesa_payments
+        SET transaction_status = ?, error_message = ?
+        WHERE id = ?
+        """;
+
+    /** Leaves payments alone if a callback settled them while the status query was in flight. */
+    private static final String UPDATE_RECONCILED_SQL = """
+        UPDATE mpesa_payments
+        SET transaction_status = ?, error_message = ?, completed_date = ?, retry_count = ?
+        WHERE id = ?
+        AND transaction_status = 'PENDING'
+        """;
+
+    /**
+     * STK pushes with no CheckoutRequestID cannot be queried. Once no outbox entry is left to push
+     * them, the request either never reached Daraja or its response was lost.
+     */
+    private static final String FLAG_UNQUERYABLE_SQL = """
+        UPDATE mpesa_payments p
+        SET transaction_status = 'REQUIRES_REVIEW',
+            error_message = CONCAT_WS(': ', 'STK push outcome unknown and no CheckoutRequestID to query; reconcile manually', p.error_message)
+        WHERE p.transaction_status = 'PENDING'
+        AND p.transaction_type = 'STK_PUSH'
+        AND p.checkout_request_id IS NULL
+        AND p.created_date <= ?
+        AND NOT EXISTS (
+            SELECT 1 FROM stk_push_outbox o
+            WHERE o.payment_id = p.id
+            AND o.status IN ('PENDING', 'DISPATCHING'))
+        """;
+
+    /**
+     * Applies a C2B callback whether or not a payment with its transaction id exists yet. Only
+     * the columns a C2B callback carries are written on conflict.
+     */
+    private static final String UPSERT_C2B_SQL = """
+        INSERT INTO mpesa_payments (
+            uuid, transaction_id, transaction_type, transaction_status, amount, currency,
+            org_account_balance, business_short_code, phone_number, msisdn, payer_identifier,
+            payee_identifier, bill_ref_number, third_party_trans_id, first_name, middle_name,
+            last_name, completed_date, raw_callback, created_date, created_by)
+        VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, CAST(? AS JSONB), ?, ?)
+        ON CONFLICT (transaction_id) DO UPDATE SET
+            transaction_type = EXCLUDED.transaction_type,
+            transaction_status = EXCLUDED.transaction_status,
+            amount = EXCLUDED.amount,
+            currency = EXCLUDED.currency,
+            org_account_balance = EXCLUDED.org_account_balance,
+            business_short_code = EXCLUDED.business_short_code,
+            phone_number = EXCLUDED.phone_number,
+            msisdn = EXCLUDED.msisdn,
+            payer_identifier = EXCLUDED.payer_identifier,
+            payee_identifier = EXCLUDED.payee_identifier,
+            bill_ref_number = EXCLUDED.bill_ref_number,
+            third_party_trans_id = EXCLUDED.third_party_trans_id,
+            first_name = EXCLUDED.first_name,
+            middle_name = EXCLUDED.middle_name,
+            last_name = EXCLUDED.last_name,
+            completed_date = EXCLUDED.completed_date,
+            raw_callback = EXCLUDED.raw_callback,
+            modified_date = CURRENT_TIMESTAMP,
+            modified_by = EXCLUDED.created_by
+        """;
+
+    private static final String[] UPSERT_RETURNED_COLUMNS = {"id", "uuid", "transaction_id", "created_date", "created_by"};
+
+    private final JdbcTemplate jdbcTemplate;
+    private final AuditorAware<String> auditorAware;
+
+    public MpesaPaymentBatchRepository(JdbcTemplate jdbcTemplate, AuditorAware<String> auditorAware) {
+        this.jdbcTemplate = jdbcTemplate;
+        this.auditorAware = auditorAware;
+    }
+
+    /**
+     * Inserts the payments in a single JDBC batch and assigns each its generated id, uuid and audit
+     * fields.
+     */
+    @Transactional
+    public List<MpesaPayment> insertAll(List<MpesaPayment> payments) {
+        LocalDateTime now = LocalDateTime.now();
+        String createdBy = auditorAware.getCurrentAuditor().orElse("SYSTEM");
+        for (MpesaPayment payment : payments) {
+            payment.setUuid(UUID.randomUUID());
+            payment.setCreatedDate(now);
+            payment.setCreatedBy(createdBy);
+        }
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(INSERT_SQL, new String[] {"id"}),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        bindInsert(ps, payments.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return payments.size();
+                    }
+                },
+                keyHolder);
+
+        List<Map<String, Object>> keys = keyHolder.getKeyList();
+        for (int i = 0; i < payments.size(); i++) {
+            payments.get(i).setId(((Number) keys.get(i).get("id")).longValue());
+        }
+        return payments;
+    }
+
+    public void updateStkResponse(MpesaPayment payment) {
+        jdbcTemplate.update(UPDATE_STK_RESPONSE_SQL,
+                payment.getTransactionId(),
+                payment.getMerchantRequestId(),
+                payment.getCheckoutRequestId(),
+                payment.getRawCallback(),
+                payment.getId());
+    }
+
+    public void updateError(MpesaPayment payment) {
+        jdbcTemplate.update(UPDATE_ERROR_SQL,
+                payment.getTransactionStatus(),
+                payment.getErrorMessage(),
+                payment.getId());
+    }
+
+    /**
+     * Writes the status, error, completion date and retry count of reconciled payments in a single
+     * JDBC batch.
+     */
+    @Transactional
+    public void updateReconciled(List<MpesaPayment> payments) {
+        if (payments.isEmpty()) {
+            return;
+        }
+        jdbcTemplate.batchUpdate(UPDATE_RECONCILED_SQL, payments, payments.size(), (ps, payment) -> {
+            ps.setString(1, payment.getTransactionStatus());
+            ps.setString(2, payment.getErrorMessage());
+            ps.setTimestamp(3, payment.getCompletedDate() != null ? Timestamp.valueOf(payment.getCompletedDate()) : null);
+            ps.setInt(4, payment.getRetryCount());
+            ps.setLong(5, payment.getId());
+        });
+    }
+
+    /**
+     * Flags STK pushes still pending after {@code stuckBefore} that have no CheckoutRequestID and
+     * are no longer waiting in the outbox for manual review.
+     *
+     * @return the number of payments flagged
+     */
+    @Transactional
+    public int flagUnqueryableForReview(LocalDateTime stuckBefore) {
+        return jdbcTemplate.update(FLAG_UNQUERYABLE_SQL, Timestamp.valueOf(stuckBefore));
+    }
+
+    /**
+     * Upserts payments built from C2B callbacks in a single JDBC batch, keyed on transaction id,
+     * and copies the id, uuid and creation audit fields of the stored rows back onto them. The
+     * transaction ids must be distinct, as one batch cannot update the same row twice.
+     */
+    @Transactional
+    public List<MpesaPayment> upsertC2bCallbacks(List<MpesaPayment> payments) {
+        LocalDateTime now = LocalDateTime.now();
+        String auditor = auditorAware.getCurrentAuditor().orElse("SYSTEM");
+        payments.forEach(payment -> prepareUpsert(payment, now, auditor));
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.batchUpdate(
+                connection -> connection.prepareStatement(UPSERT_C2B_SQL, UPSERT_RETURNED_COLUMNS),
+                new BatchPreparedStatementSetter() {
+                    @Override
+                    public void setValues(PreparedStatement ps, int i) throws SQLException {
+                        bindC2bUpsert(ps, payments.get(i));
+                    }
+
+                    @Override
+                    public int getBatchSize() {
+                        return payments.size();
+                    }
+                },
+                keyHolder);
+
+        // Rows of a rewritten multi-row insert are matched back by transaction id, not by position
+        Map<String, MpesaPayment> byTransactionId = new HashMap<>();
+        payments.forEach(payment -> byTransactionId.put(payment.getTransactionId(), payment));
+        for (Map<String, Object> row : keyHolder.getKeyList()) {
+            applyReturnedRow(byTransactionId.get((String) row.get("transaction_id")), row);
+        }
+        return payments;
+    }
+
+    /**
+     * Applies a payment built from a C2B callback with a single {@code INSERT ... ON CONFLICT}
+     * statement, inserting it or updating the existing payment with the same transaction id, and
+     * copies the id, uuid and creation audit fields of the stored row back onto it. Concurrent
+     * duplicates of the same callback serialize on the row instead of failing on the unique key.
+     */
+    public MpesaPayment upsertC2bCallback(MpesaPayment payment) {
+        prepareUpsert(payment, LocalDateTime.now(), auditorAware.getCurrentAuditor().orElse("SYSTEM"));
+
+        KeyHolder keyHolder = new GeneratedKeyHolder();
+        jdbcTemplate.update(connection -> {
+            PreparedStatement ps = connection.prepareStatement(UPSERT_C2B_SQL, UPSERT_RETURNED_COLUMNS);
+            bindC2bUpsert(ps, payment);
+            return ps;
+        }, keyHolder);
+        applyReturnedRow(payment, keyHolder.getKeys());
+        return payment;
+    }
+
+    private static void prepareUpsert(MpesaPayment payment, LocalDateTime now, String auditor) {
+        payment.setUuid(UUID.randomUUID());
+        payment.setCreatedDate(now);
+        payment.setCreatedBy(auditor);
+    }
+
+    /** On conflict the stored row keeps its own id, uuid and creation audit fields. */
+    private static void applyReturnedRow(MpesaPayment payment, Map<String, Object> row) {
+        payment.setId(((Number) row.get("id")).longValue());
+        payment.setUuid((UUID) row.get("uuid"));
+        payment.setCreatedDate(((Timestamp) row.get("created_date")).toLocalDateTime());
+        payment.setCreatedBy((String) row.get("created_by"));
+    }
+
+    private static void bindC2bUpsert(PreparedStatement ps, MpesaPayment payment) throws SQLException {
+        ps.setObject(1, payment.getUuid());
+        ps.setString(2, payment.getTransactionId());
+        ps.setString(3, payment.getTransactionType());
+        ps.setString(4, payment.getTransactionStatus());
+        ps.setBigDecimal(5, payment.getAmount());
+        ps.setString(6, payment.getCurrency());
+        ps.setBigDecimal(7, payment.getOrgAccountBalance());
+        ps.setString(8, payment.getBusinessShortCode());
+        ps.setString(9, payment.getPhoneNumber());
+        ps.setString(10, payment.getMsisdn());
+        ps.setString(11, payment.getPayerIdentifier());
+        ps.setString(12, payment.getPayeeIdentifier());
+        ps.setString(13, payment.getBillRefNumber());
+        ps.setString(14, payment.getThirdPartyTransId());
+        ps.setString(15, payment.getFirstName());
+        ps.setString(16, payment.getMiddleName());
+        ps.setString(17, payment.getLastName());
+        ps.setTimestamp(18, payment.getCompletedDate() != null ? Timestamp.valueOf(payment.getCompletedDate()) : null);
+        ps.setString(19, payment.getRawCallback());
+        ps.setTimestamp(20, Timestamp.valueOf(payment.getCreatedDate()));
+        ps.setString(21, payment.getCreatedBy());
+    }
+
+    private static void bindInsert(PreparedStatement ps, MpesaPayment payment) throws SQLException {
+        ps.setObject(1, payment.getUuid());
+        ps.setString(2, payment.getTransactionType());
+        ps.setString(3, payment.getTransactionStatus());
+        ps.setBigDecimal(4, payment.getAmount());
+        ps.setString(5, payment.getCurrency());
+        ps.setString(6, payment.getBusinessShortCode());
+        ps.setString(7, payment.getEnvironment() != null ? payment.getEnvironment().name() : null);
+        ps.setString(8, payment.getPhoneNumber());
+        ps.setString(9, payment.getPayerIdentifier());
+        ps.setString(10, payment.getPayeeIdentifier());
+        ps.setString(11, payment.getAccountReference());
+        ps.setString(12, payment.getTransactionDesc());
+        ps.setString(13, payment.getRawRequest());
+        ps.setObject(14, payment.getRetryCount(), Types.INTEGER);
+        ps.setTimestamp(15, Timestamp.valueOf(payment.getCreatedDate()));
+        ps.setString(16, payment.getCreatedBy());
+    }
+}
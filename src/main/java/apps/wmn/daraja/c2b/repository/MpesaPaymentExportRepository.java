@@ -0,0 +1,83 @@
+package apps.wmn.daraja.c2b.repository;
+
+import apps.wmn.daraja.c2b.dto.PaymentExportRow;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDateTime;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+/**
+ * Streams payments out of {@code mpesa_payments} for exports without materialising them. Rows are
+ * read through a forward-only server-side cursor, {@code fetchSize} at a time, and handed to the
+ * consumer one by one, so memory use does not depend on the size of the range.
+ */
+@Repository
+public class MpesaPaymentExportRepository {
+    private static final String EXPORT_SQL = """
+        SELECT uuid, transaction_id, transaction_type, transaction_status, amount, charges_amount,
+            currency, business_short_code, phone_number, payer_identifier, payee_identifier,
+            account_reference, bill_ref_number, transaction_desc, created_date, completed_date
+        FROM mpesa_payments
+        WHERE created_date >= ? AND created_date < ?
+        ORDER BY created_date, id
+        """;
+
+    private final JdbcTemplate jdbcTemplate;
+
+    public MpesaPaymentExportRepository(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    /**
+     * Streams the payments created in {@code [from, to)}, oldest first. PostgreSQL only uses a
+     * cursor when auto-commit is off, so this must run inside a transaction; the consumer is called
+     * while the transaction and its connection are held, and the cursor only advances as fast as
+     * the consumer returns.
+     */
+    @Transactional(propagation = Propagation.MANDATORY, readOnly = true)
+    public void streamCreatedBetween(
+            LocalDateTime from, LocalDateTime to, int fetchSize, Consumer<PaymentExportRow> consumer) {
+        jdbcTemplate.query(
+                connection -> {
+                    PreparedStatement ps = connection.prepareStatement(
+                            EXPORT_SQL, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+                    ps.setFetchSize(fetchSize);
+                    ps.setTimestamp(1, Timestamp.valueOf(from));
+                    ps.setTimestamp(2, Timestamp.valueOf(to));
+                    return ps;
+                },
+                (RowCallbackHandler) rs -> consumer.accept(mapRow(rs)));
+    }
+
+    private static PaymentExportRow mapRow(ResultSet rs) throws SQLException {
+        return new PaymentExportRow(
+                rs.getObject("uuid", UUID.class),
+                rs.getString("transaction_id"),
+                rs.getString("transaction_type"),
+                rs.getString("transaction_status"),
+                rs.getBigDecimal("amount"),
+                rs.getBigDecimal("charges_amount"),
+                rs.getString("currency"),
+                rs.getString("business_short_code"),
+                rs.getString("phone_number"),
+                rs.getString("payer_identifier"),
+                rs.getString("payee_identifier"),
+                rs.getString("account_reference"),
+                rs.getString("bill_ref_number"),
+                rs.getString("transaction_desc"),
+                toLocalDateTime(rs.getTimestamp("created_date")),
+                toLocalDateTime(rs.getTimestamp("completed_date")));
+    }
+
+    private static LocalDateTime toLocalDateTime(Timestamp timestamp) {
+        return timestamp != null ? timestamp.toLocalDateTime() : null;
+    }
+}
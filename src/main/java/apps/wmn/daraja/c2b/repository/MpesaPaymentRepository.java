@@ -1,8 +1,11 @@
 package apps.wmn.daraja.c2b.repository;
 
+import apps.wmn.daraja.c2b.dto.PaymentKeysetRow;
+import apps.wmn.daraja.c2b.dto.PaymentView;
 import apps.wmn.daraja.c2b.entity.MpesaPayment;
 import apps.wmn.daraja.c2b.enums.TransactionStatus;
 import apps.wmn.daraja.c2b.enums.TransactionType;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
@@ -12,23 +15,63 @@ import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
 
 @Repository
 public interface MpesaPaymentRepository extends JpaRepository<MpesaPayment, Long> , JpaSpecificationExecutor<MpesaPayment> {
+    /**
+     * Attributes of {@link PaymentView} in constructor order. Read queries select these into views
+     * directly, so they never load the raw request and callback documents or manage an entity.
+     */
+    String PAYMENT_VIEW_COLUMNS = """
+        p.uuid, p.transactionId, p.checkoutRequestId, p.phoneNumber, p.amount, p.chargesAmount,
+        p.currency, p.accountReference, p.transactionDesc, p.transactionType, p.transactionStatus,
+        p.payerIdentifier, p.payeeIdentifier, p.createdDate, p.completedDate, p.errorMessage""";
+
     /**
      * Find payment by M-Pesa transaction ID
      */
     Optional<MpesaPayment> findByTransactionId(String transactionId);
 
-    Optional<MpesaPayment> findByUuid(UUID uuid);
+    List<MpesaPayment> findByTransactionIdIn(Collection<String> transactionIds);
+
+    /**
+     * Find the STK push a callback belongs to
+     */
+    Optional<MpesaPayment> findByCheckoutRequestId(String checkoutRequestId);
+
+    List<MpesaPayment> findByCheckoutRequestIdIn(Collection<String> checkoutRequestIds);
+
+    /**
+     * Find the view of a payment by its public UUID
+     */
+    @Query("SELECT new apps.wmn.daraja.c2b.dto.PaymentView(" + PAYMENT_VIEW_COLUMNS + """
+        ) FROM MpesaPayment p
+        WHERE p.uuid = :uuid
+        """)
+    Optional<PaymentView> findViewByUuid(@Param("uuid") UUID uuid);
+
+    /**
+     * Find the view of a payment by M-Pesa transaction ID
+     */
+    @Query("SELECT new apps.wmn.daraja.c2b.dto.PaymentView(" + PAYMENT_VIEW_COLUMNS + """
+        ) FROM MpesaPayment p
+        WHERE p.transactionId = :transactionId
+        """)
+    Optional<PaymentView> findViewByTransactionId(@Param("transactionId") String transactionId);
 
     /**
-     * Find all payments for a specific phone number, ordered by creation date
+     * Find the views of all payments for a specific phone number, ordered by creation date
      */
-    List<MpesaPayment> findByPhoneNumberOrderByCreatedDateDesc(String phoneNumber);
+    @Query("SELECT new apps.wmn.daraja.c2b.dto.PaymentView(" + PAYMENT_VIEW_COLUMNS + """
+        ) FROM MpesaPayment p
+        WHERE p.phoneNumber = :phoneNumber
+        ORDER BY p.createdDate DESC
+        """)
+    List<PaymentView> findViewsByPhoneNumber(@Param("phoneNumber") String phoneNumber);
 
     /**
      * Find payments by status and type
@@ -39,24 +82,54 @@ public interface MpesaPaymentRepository extends JpaRepository<MpesaPayment, Long
     );
 
     /**
-     * Find payments with dynamic filters
+     * Find the views of payments with dynamic filters
      */
-    @Query("""
-        SELECT p FROM MpesaPayment p
+    @Query(value = "SELECT new apps.wmn.daraja.c2b.dto.PaymentView(" + PAYMENT_VIEW_COLUMNS + """
+        ) FROM MpesaPayment p
         WHERE (:phoneNumber IS NULL OR p.phoneNumber = :phoneNumber)
         AND (:status IS NULL OR p.transactionStatus = :status)
         AND (:startDate IS NULL OR p.createdDate >= :startDate)
         AND (:endDate IS NULL OR p.createdDate <= :endDate)
         ORDER BY p.createdDate DESC
+        """, countQuery = """
+        SELECT count(p) FROM MpesaPayment p
+        WHERE (:phoneNumber IS NULL OR p.phoneNumber = :phoneNumber)
+        AND (:status IS NULL OR p.transactionStatus = :status)
+        AND (:startDate IS NULL OR p.createdDate >= :startDate)
+        AND (:endDate IS NULL OR p.createdDate <= :endDate)
         """)
-    Page<MpesaPayment> findPayments(
+    Page<PaymentView> findPaymentViews(
             @Param("phoneNumber") String phoneNumber,
-            @Param("status") TransactionStatus status,
+            @Param("status") String status,
             @Param("startDate") LocalDateTime startDate,
             @Param("endDate") LocalDateTime endDate,
             Pageable pageable
     );
 
+    /**
+     * Find the views of payments with dynamic filters, newest first, that sort after the
+     * {@code (createdDate, id)} position of the last payment on the previous page. Seeks on the
+     * (created_date, id) indexes and never counts, so every page costs the same however deep it is.
+     */
+    @Query("SELECT new apps.wmn.daraja.c2b.dto.PaymentKeysetRow(p.id, " + PAYMENT_VIEW_COLUMNS + """
+        ) FROM MpesaPayment p
+        WHERE (:phoneNumber IS NULL OR p.phoneNumber = :phoneNumber)
+        AND (:status IS NULL OR p.transactionStatus = :status)
+        AND (:startDate IS NULL OR p.createdDate >= :startDate)
+        AND (:endDate IS NULL OR p.createdDate <= :endDate)
+        AND (p.createdDate, p.id) < (:afterCreatedDate, :afterId)
+        ORDER BY p.createdDate DESC, p.id DESC
+        """)
+    List<PaymentKeysetRow> findPaymentsAfter(
+            @Param("phoneNumber") String phoneNumber,
+            @Param("status") String status,
+            @Param("startDate") LocalDateTime startDate,
+            @Param("endDate") LocalDateTime endDate,
+            @Param("afterCreatedDate") LocalDateTime afterCreatedDate,
+            @Param("afterId") long afterId,
+            Limit limit
+    );
+
     /**
      * Count payments by status
      */
@@ -77,6 +150,33 @@ public interface MpesaPaymentRepository extends JpaRepository<MpesaPayment, Long
             @Param("cutoffTime") LocalDateTime cutoffTime
     );
 
+    /**
+     * Find STK pushes that are still pending after {@code stuckBefore} and whose backoff has elapsed,
+     * in keyset order after {@code afterId}. The backoff doubles with every retry up to
+     * {@code maxBackoffSeconds}.
+     */
+    @Query(value = """
+        SELECT * FROM mpesa_payments
+        WHERE transaction_status = 'PENDING'
+        AND transaction_type = 'STK_PUSH'
+        AND checkout_request_id IS NOT NULL
+        AND created_date <= :stuckBefore
+        AND retry_count < :maxRetries
+        AND modified_date <= :now - LEAST(:backoffBaseSeconds * POWER(2, retry_count), :maxBackoffSeconds) * INTERVAL '1 second'
+        AND id > :afterId
+        ORDER BY id
+        LIMIT :limit
+        """, nativeQuery = true)
+    List<MpesaPayment> findReconcilable(
+            @Param("stuckBefore") LocalDateTime stuckBefore,
+            @Param("now") LocalDateTime now,
+            @Param("maxRetries") int maxRetries,
+            @Param("backoffBaseSeconds") long backoffBaseSeconds,
+            @Param("maxBackoffSeconds") long maxBackoffSeconds,
+            @Param("afterId") long afterId,
+            @Param("limit") int limit
+    );
+
     /**
      * Find payments by account reference
      */
@@ -0,0 +1,58 @@
+package apps.wmn.daraja.c2b.repository;
+
+import apps.wmn.daraja.c2b.entity.StkPushOutbox;
+import apps.wmn.daraja.c2b.enums.OutboxStatus;
+import java.time.LocalDateTime;
+import java.util.List;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface StkPushOutboxRepository extends JpaRepository<StkPushOutbox, Long> {
+    /**
+     * Locks the oldest pending entries, skipping rows already locked by other dispatchers so that
+     * several nodes can drain the outbox concurrently
+     */
+    @Query(value = """
+        SELECT * FROM stk_push_outbox
+        WHERE status = 'PENDING'
+        ORDER BY id
+        LIMIT :batchSize
+        FOR UPDATE SKIP LOCKED
+        """, nativeQuery = true)
+    List<StkPushOutbox> lockPendingBatch(@Param("batchSize") int batchSize);
+
+    /**
+     * Gives up on entries whose dispatcher stopped before recording an outcome. These are not
+     * re-dispatched since the customer may already have been prompted
+     */
+    @Modifying
+    @Query(value = """
+        UPDATE stk_push_outbox
+        SET status = 'ABANDONED',
+            completed_date = CURRENT_TIMESTAMP,
+            last_error = 'Dispatch outcome unknown after claim timeout'
+        WHERE status = 'DISPATCHING'
+        AND claimed_date < :claimedBefore
+        """, nativeQuery = true)
+    int abandonStaleClaims(@Param("claimedBefore") LocalDateTime claimedBefore);
+
+    /**
+     * Delete finished entries (for cleanup)
+     */
+    @Modifying
+    @Query(value = """
+        DELETE FROM stk_push_outbox
+        WHERE status IN ('DISPATCHED', 'FAILED', 'ABANDONED')
+        AND completed_date < :completedBefore
+        """, nativeQuery = true)
+    int deleteCompletedBefore(@Param("completedBefore") LocalDateTime completedBefore);
+
+    long countByStatus(OutboxStatus status);
+
+    @Query("SELECT MIN(o.createdDate) FROM StkPushOutbox o WHERE o.status = :status")
+    LocalDateTime findOldestCreatedDateByStatus(@Param("status") OutboxStatus status);
+}
@@ -2,11 +2,14 @@ package apps.wmn.daraja.c2b.service;
 
 import apps.wmn.daraja.c2b.dto.*;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
+import apps.wmn.daraja.common.dto.CursorPage;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.UUID;
+import java.util.function.Consumer;
 
 /**
  * Service interface for handling M-Pesa payment operations
@@ -19,14 +22,31 @@ public interface MpesaPaymentService {
     StkPushResponse initiateSTKPush(StkPushRequest request, MpesaEnvironment environment);
 
     /**
-     * Processes STK callback from M-Pesa
+     * Persists a pending STK push and dispatches it to M-Pesa in the background
      */
-    PaymentView processStkCallback(StkCallback callback);
+    StkPushAcceptedResponse submitSTKPush(StkPushRequest request, MpesaEnvironment environment);
 
     /**
-     * Processes C2B payment callback
+     * Initiates a batch of STK pushes concurrently, handing each outcome to the sink as it completes
      */
-    PaymentView processC2BCallback(C2bCallback callback);
+    void initiateSTKPushBatch(List<StkPushRequest> requests, Consumer<StkPushBatchItemResult> sink);
+
+    /**
+     * Returns how STK pushes for the shortcode are dispatched
+     */
+    StkPushMode getStkPushMode(String shortCode, MpesaEnvironment environment);
+
+    /**
+     * Processes STK callback from M-Pesa. {@code rawCallback} is the body as received, stored
+     * as-is; if null, the parsed callback is serialized instead.
+     */
+    PaymentView processStkCallback(StkCallback callback, String rawCallback);
+
+    /**
+     * Processes C2B payment callback. {@code rawCallback} is the body as received, stored as-is;
+     * if null, the parsed callback is serialized instead.
+     */
+    PaymentView processC2BCallback(C2bCallback callback, String rawCallback);
 
     /**
      * Retrieves payment by ID
@@ -49,6 +69,20 @@ public interface MpesaPaymentService {
             Pageable pageable
     );
 
+    /**
+     * Retrieves filtered payments, newest first, one keyset page at a time
+     *
+     * @param cursor the next cursor of the previous page, or null for the first page
+     */
+    CursorPage<PaymentView> getPaymentsAfter(
+            String phoneNumber,
+            String status,
+            LocalDateTime startDate,
+            LocalDateTime endDate,
+            String cursor,
+            int size
+    );
+
     /**
      * Retrieves payments for a phone number
      */
@@ -2,14 +2,17 @@ package apps.wmn.daraja.c2b.service.impl;
 
 import apps.wmn.daraja.c2b.entity.MpesaConfig;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.internal.MpesaCredentialVault;
 import apps.wmn.daraja.c2b.repository.MpesaConfigRepository;
 import apps.wmn.daraja.c2b.service.MpesaConfigService;
 import apps.wmn.daraja.common.enums.ShortcodeType;
 import apps.wmn.daraja.common.event.CallbackValidationUrlRegistrationEvent;
+import apps.wmn.daraja.common.event.MpesaConfigChangedEvent;
 import apps.wmn.daraja.common.exceptions.ConfigurationException;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
+import org.springframework.cache.Cache;
+import org.springframework.cache.CacheManager;
 import org.springframework.cache.annotation.Cacheable;
 import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.data.domain.Page;
@@ -18,6 +21,8 @@ import org.springframework.security.crypto.encrypt.TextEncryptor;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 import java.util.UUID;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 @Service
 @RequiredArgsConstructor
@@ -26,12 +31,16 @@ public class MpesaConfigImpl implements MpesaConfigService {
     private final MpesaConfigRepository configRepository;
     private final TextEncryptor textEncryptor;
     private final ApplicationEventPublisher eventPublisher;
+    private final CacheManager cacheManager;
+    private final MpesaCredentialVault credentialVault;
     private static final String CONFIG_CACHE = "shortcodeConfigs";
     private static final String CONFIG_NOT_FOUND = "Configuration not found";
     private static final String CONFIG_EXISTS = "Configuration already exists for this shortcode and environment";
     private static final String MISSING_COLLECTION_URLS = "Collection URLs are required for COLLECTION or BOTH shortcode types";
     private static final String MISSING_DISBURSEMENT_URLS = "Disbursement URLs are required for DISBURSEMENT or BOTH shortcode types";
     private static final String MISSING_B2C_CREDENTIALS = "Initiator name and security credential are required for DISBURSEMENT or BOTH shortcode types";
+    private static final String INVALID_VALIDATION_AMOUNTS = "Validation minimum amount cannot exceed the maximum amount";
+    private static final String INVALID_BILL_REF_PATTERN = "Validation BillRefNumber pattern is not a valid regular expression";
 
     @Override
     @Transactional(readOnly = true)
@@ -43,36 +52,41 @@ public class MpesaConfigImpl implements MpesaConfigService {
 
     @Override
     @Transactional
-    @CacheEvict(value = CONFIG_CACHE, allEntries = true)
     public MpesaConfig createConfig(MpesaConfig config) {
         log.info("Creating new configuration for shortcode: {} in environment: {}", config.getShortcode(), config.getEnvironment());
         validateNewConfig(config);
         validateConfigurationUrls(config);
+        validateValidationRules(config);
         MpesaConfig preparedConfig = prepareConfigForSave(config);
         MpesaConfig savedConfig = configRepository.save(preparedConfig);
         publishValidationEvents(savedConfig);
+        publishConfigChangedEvent(savedConfig);
         return savedConfig;
     }
 
     @Override
     @Transactional
-    @CacheEvict(value = CONFIG_CACHE, allEntries = true)
     public MpesaConfig updateConfig(UUID id, MpesaConfig updatedConfig) {
         log.info("Updating configuration with ID: {}", id);
         MpesaConfig existingConfig = findConfigById(id);
         validateConfigurationUrls(updatedConfig);
+        validateValidationRules(updatedConfig);
         updateConfigFields(existingConfig, updatedConfig);
-        return configRepository.save(existingConfig);
+        MpesaConfig savedConfig = configRepository.save(existingConfig);
+        evictCachedConfig(savedConfig);
+        publishConfigChangedEvent(savedConfig);
+        return savedConfig;
     }
 
     @Override
     @Transactional
-    @CacheEvict(value = CONFIG_CACHE, allEntries = true)
     public void deactivateConfig(UUID id) {
         log.info("Deactivating configuration with ID: {}", id);
         MpesaConfig config = findConfigById(id);
         config.setActive(false);
         configRepository.save(config);
+        evictCachedConfig(config);
+        publishConfigChangedEvent(config);
         log.info("Successfully deactivated configuration for shortcode: {} in environment: {}", config.getShortcode(), config.getEnvironment());
     }
 
@@ -85,13 +99,7 @@ public class MpesaConfigImpl implements MpesaConfigService {
 
     @Override
     public MpesaCredentials getDecryptedCredentials(MpesaConfig config) {
-        log.debug("Decrypting credentials for shortcode: {}", config.getShortcode());
-        return new MpesaCredentials(
-                decryptValue(config.getConsumerKey()),
-                decryptValue(config.getConsumerSecret()),
-                config.getPasskey() != null ? decryptValue(config.getPasskey()) : null,
-                config.getSecurityCredential() != null ? decryptValue(config.getSecurityCredential()) : null
-        );
+        return credentialVault.getCredentials(config);
     }
 
     private MpesaConfig findActiveConfig(String shortcode, MpesaEnvironment environment) {
@@ -102,6 +110,17 @@ public class MpesaConfigImpl implements MpesaConfigService {
                                 shortcode, environment)));
     }
 
+    /**
+     * Evicts only the cached entry of the given shortcode and environment. The cache manager is
+     * transaction aware, so the eviction takes effect once the update commits.
+     */
+    private void evictCachedConfig(MpesaConfig config) {
+        Cache cache = cacheManager.getCache(CONFIG_CACHE);
+        if (cache != null) {
+            cache.evict(config.getShortcode() + "_" + config.getEnvironment());
+        }
+    }
+
     private MpesaConfig findConfigById(UUID id) {
         return configRepository.findByUuid(id)
                 .orElseThrow(() -> new ConfigurationException(CONFIG_NOT_FOUND));
@@ -146,6 +165,20 @@ public class MpesaConfigImpl implements MpesaConfigService {
         }
     }
 
+    private void validateValidationRules(MpesaConfig config) {
+        if (config.getValidationMinAmount() != null && config.getValidationMaxAmount() != null
+                && config.getValidationMinAmount().compareTo(config.getValidationMaxAmount()) > 0) {
+            throw new ConfigurationException(INVALID_VALIDATION_AMOUNTS);
+        }
+        if (config.getValidationBillRefPattern() != null) {
+            try {
+                Pattern.compile(config.getValidationBillRefPattern());
+            } catch (PatternSyntaxException e) {
+                throw new ConfigurationException(INVALID_BILL_REF_PATTERN + ": " + e.getDescription());
+            }
+        }
+    }
+
     private MpesaConfig prepareConfigForSave(MpesaConfig config) {
         MpesaConfig preparedConfig = new MpesaConfig();
         preparedConfig.setShortcode(config.getShortcode());
@@ -193,6 +226,13 @@ public class MpesaConfigImpl implements MpesaConfigService {
         target.setDisbursementQueueUrl(source.getDisbursementQueueUrl());
         target.setInitiatorName(source.getInitiatorName());
         target.setStkCallbackUrl(source.getStkCallbackUrl());
+        target.setStkPushMode(source.getStkPushMode());
+        target.setRateLimitPerSecond(source.getRateLimitPerSecond());
+        target.setRateLimitBurst(source.getRateLimitBurst());
+        target.setValidationMinAmount(source.getValidationMinAmount());
+        target.setValidationMaxAmount(source.getValidationMaxAmount());
+        target.setValidationBillRefPattern(source.getValidationBillRefPattern());
+        target.setValidationAllowedAccounts(source.getValidationAllowedAccounts());
         target.setActive(source.isActive());
         target.setDescription(source.getDescription());
     }
@@ -207,11 +247,14 @@ public class MpesaConfigImpl implements MpesaConfigService {
         }
     }
 
-    private String encryptValue(String value) {
-        return textEncryptor.encrypt(value);
+    private void publishConfigChangedEvent(MpesaConfig config) {
+        eventPublisher.publishEvent(new MpesaConfigChangedEvent(
+                config.getUuid(),
+                config.getShortcode(),
+                config.getEnvironment()));
     }
 
-    private String decryptValue(String value) {
-        return textEncryptor.decrypt(value);
+    private String encryptValue(String value) {
+        return textEncryptor.encrypt(value);
     }
 }
\ No newline at end of file
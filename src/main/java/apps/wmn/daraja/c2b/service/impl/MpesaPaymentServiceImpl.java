@@ -3,28 +3,45 @@ package apps.wmn.daraja.c2b.service.impl;
 import apps.wmn.daraja.c2b.dto.*;
 import apps.wmn.daraja.c2b.entity.MpesaConfig;
 import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.entity.StkPushOutbox;
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.OutboxStatus;
+import apps.wmn.daraja.c2b.enums.StkPushBatchOutcome;
+import apps.wmn.daraja.c2b.enums.StkPushMode;
 import apps.wmn.daraja.c2b.enums.TransactionStatus;
 import apps.wmn.daraja.c2b.factory.PaymentMapperFactory;
+import apps.wmn.daraja.c2b.internal.DarajaRateLimiter;
+import apps.wmn.daraja.c2b.internal.DarajaStkPushClient;
+import apps.wmn.daraja.c2b.internal.PaymentStatusQueryService;
+import apps.wmn.daraja.c2b.internal.StkCallbackCorrelator;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentBatchRepository;
 import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.c2b.repository.StkPushOutboxRepository;
 import apps.wmn.daraja.c2b.service.MpesaConfigService;
 import apps.wmn.daraja.c2b.service.MpesaPaymentService;
-import apps.wmn.daraja.common.config.MpesaUrlConfig;
+import apps.wmn.daraja.common.config.StkDispatchProperties;
+import apps.wmn.daraja.common.dto.CursorPage;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
 import apps.wmn.daraja.common.exceptions.PaymentException;
 import apps.wmn.daraja.common.exceptions.PaymentNotFoundException;
-import apps.wmn.daraja.common.services.DarajaAuthenticationService;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import apps.wmn.daraja.common.util.KeysetCursor;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.domain.Limit;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
-import org.springframework.http.*;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.ResourceAccessException;
 
 import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
 
 @Slf4j
 @Service
@@ -32,97 +49,274 @@ import java.util.*;
 public class MpesaPaymentServiceImpl implements MpesaPaymentService {
 
   private final MpesaPaymentRepository paymentRepository;
-  private final DarajaAuthenticationService authService;
+  private final MpesaPaymentBatchRepository paymentBatchRepository;
+  private final StkPushOutboxRepository outboxRepository;
   private final MpesaConfigService configService;
-  private final MpesaUrlConfig mpesaUrlConfig;
-  private final RestTemplate restTemplate;
-
+  private final DarajaStkPushClient stkPushClient;
+  private final DarajaRateLimiter rateLimiter;
+  private final PaymentStatusQueryService statusQueryService;
+  private final StkCallbackCorrelator stkCallbackCorrelator;
+  private final StkDispatchProperties dispatchProperties;
+  private final TransactionTemplate transactionTemplate;
+
+  /**
+   * Pushes on the calling thread through an outbox entry that is written already claimed, in the
+   * same transaction as the payment. Dispatchers never pick it up, and if this node dies before the
+   * outcome is recorded the maintenance sweep abandons it just like a queued push.
+   */
   @Override
   public StkPushResponse initiateSTKPush(StkPushRequest request, MpesaEnvironment environment) {
+    MpesaPayment payment = null;
+    StkPushOutbox entry = null;
+    StkPushResponse response;
     try {
       log.info("Initiating STK push for phone number: {}", request.phoneNumber());
 
       MpesaConfig config = configService.getConfig(request.shortCode(), environment);
-      MpesaConfigService.MpesaCredentials credentials =
-          configService.getDecryptedCredentials(config);
-
-      // Create payment record
-      MpesaPayment payment = createInitialPayment(request);
-
-      // Prepare and execute STK push request
-      HttpEntity<Map<String, Object>> requestEntity =
-          prepareStkPushRequest(request, config, credentials, environment);
-      StkPushResponse response = executeStkPushRequest(requestEntity, environment);
-
-      // Update and save payment record
-      updatePaymentWithResponse(payment, response);
-
-      return response;
-
+      rateLimiter.acquireForRequest(config);
+
+      // Create payment record and claim its outbox entry
+      MpesaPayment initial = newPayment(request);
+      entry = transactionTemplate.execute(status -> {
+        paymentRepository.save(initial);
+        return outboxRepository.save(StkPushOutbox.claimed(initial, environment));
+      });
+      payment = initial;
+
+      // Execute STK push request
+      response = stkPushClient.push(request, config, environment);
+
+    } catch (RateLimitExceededException | DarajaUnavailableException e) {
+      // Nothing reached Daraja, so the payment will never get a callback
+      failPayment(payment, entry, e);
+      throw e;
+    } catch (ResourceAccessException e) {
+      // The request may have reached Daraja, so the payment stays pending
+      log.error("STK push outcome unknown", e);
+      if (payment != null) {
+        payment.setErrorMessage(e.getMessage());
+        paymentBatchRepository.updateError(payment);
+      }
+      completeEntry(entry, OutboxStatus.ABANDONED, e.getMessage());
+      throw new PaymentException("Failed to initiate STK push", e);
     } catch (Exception e) {
       log.error("Error initiating STK push payment", e);
+      failPayment(payment, entry, e);
       throw new PaymentException("Failed to initiate STK push", e);
     }
+
+    // Update and save payment record
+    updatePaymentWithResponse(payment, entry, response);
+    return response;
   }
 
-  private MpesaPayment createInitialPayment(StkPushRequest request) {
-    MpesaPayment payment = PaymentMapperFactory.toEntity(request);
-    payment.setBusinessShortCode(request.shortCode());
-    return paymentRepository.save(payment);
+  /**
+   * Marks a payment that was saved before its push was rejected as failed, as the batch path does,
+   * so that it does not stay pending without a checkout request id. Does nothing if the push was
+   * rejected before the payment was saved.
+   */
+  private void failPayment(MpesaPayment payment, StkPushOutbox entry, Exception cause) {
+    if (payment == null) {
+      return;
+    }
+    try {
+      payment.setTransactionStatus(TransactionStatus.FAILED.name());
+      payment.setErrorMessage(cause.getMessage());
+      paymentBatchRepository.updateError(payment);
+    } catch (RuntimeException e) {
+      log.error("Could not mark payment {} failed", payment.getUuid(), e);
+    }
+    completeEntry(entry, OutboxStatus.FAILED, cause.getMessage());
   }
 
-  private HttpEntity<Map<String, Object>> prepareStkPushRequest(
-      StkPushRequest request,
-      MpesaConfig config,
-      MpesaConfigService.MpesaCredentials credentials,
-      MpesaEnvironment environment) {
-
-    HttpHeaders headers =
-        createHeaders(
-            credentials.consumerKey(),
-            credentials.consumerSecret(),
-            request.shortCode(),
-            environment);
-    Map<String, Object> requestBody = createStkRequestBody(request, config, credentials);
-    return new HttpEntity<>(requestBody, headers);
+  /**
+   * Records the outcome of an inline push on its outbox entry. If the write fails, the entry stays
+   * DISPATCHING until the maintenance sweep abandons it.
+   */
+  private void completeEntry(StkPushOutbox entry, OutboxStatus status, String error) {
+    if (entry == null) {
+      return;
+    }
+    try {
+      outboxRepository.save(complete(entry, status, error));
+    } catch (RuntimeException e) {
+      log.error("Could not mark outbox entry {} {}", entry.getId(), status, e);
+    }
   }
 
-  private StkPushResponse executeStkPushRequest(
-      HttpEntity<Map<String, Object>> requestEntity, MpesaEnvironment environment) {
-    String stkPushUrl = getStkPushUrl(environment);
+  private static StkPushOutbox complete(StkPushOutbox entry, OutboxStatus status, String error) {
+    entry.setStatus(status);
+    entry.setCompletedDate(LocalDateTime.now());
+    entry.setLastError(error);
+    return entry;
+  }
 
-    ResponseEntity<StkPushResponse> response =
-        restTemplate.exchange(stkPushUrl, HttpMethod.POST, requestEntity, StkPushResponse.class);
+  /**
+   * Writes the payment and its outbox entry in one transaction; {@code StkPushOutboxDispatcher}
+   * sends the push to M-Pesa once the transaction commits.
+   */
+  @Override
+  @Transactional
+  public StkPushAcceptedResponse submitSTKPush(StkPushRequest request, MpesaEnvironment environment) {
+    log.info("Queueing STK push for phone number: {}", request.phoneNumber());
 
-    if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-      return response.getBody();
+    configService.getConfig(request.shortCode(), environment);
+    MpesaPayment payment = createInitialPayment(request);
+    outboxRepository.save(StkPushOutbox.pending(payment, environment));
+
+    return new StkPushAcceptedResponse(payment.getUuid(), payment.getTransactionStatus());
+  }
+
+  /**
+   * Resolves each shortcode configuration once, inserts all payments in one JDBC batch and then
+   * pushes them on virtual threads, at most {@code batchConcurrency} at a time. Pushes wait for
+   * their shortcode's rate limit like background work does.
+   */
+  @Override
+  public void initiateSTKPushBatch(List<StkPushRequest> requests, Consumer<StkPushBatchItemResult> sink) {
+    log.info("Initiating batch of {} STK pushes", requests.size());
+
+    Map<String, MpesaConfig> configs = new HashMap<>();
+    List<Integer> indexes = new ArrayList<>(requests.size());
+    List<MpesaPayment> payments = new ArrayList<>(requests.size());
+    for (int i = 0; i < requests.size(); i++) {
+      StkPushRequest request = requests.get(i);
+      try {
+        resolveConfig(configs, request);
+      } catch (Exception e) {
+        sink.accept(batchItemResult(i, request, null, StkPushBatchOutcome.FAILED, e.getMessage()));
+        continue;
+      }
+      indexes.add(i);
+      payments.add(PaymentMapperFactory.toEntity(request));
+    }
+    if (payments.isEmpty()) {
+      return;
     }
+    paymentBatchRepository.insertAll(payments);
+
+    Semaphore permits = new Semaphore(dispatchProperties.getBatchConcurrency());
+    try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      for (int i = 0; i < payments.size(); i++) {
+        int index = indexes.get(i);
+        StkPushRequest request = requests.get(index);
+        MpesaPayment payment = payments.get(i);
+        MpesaConfig config = resolveConfig(configs, request);
+        executor.execute(() -> {
+          permits.acquireUninterruptibly();
+          try {
+            sink.accept(pushBatchItem(index, request, config, payment));
+          } finally {
+            permits.release();
+          }
+        });
+      }
+    }
+  }
 
-    throw new PaymentException("Failed to initiate STK push: Invalid response from Mpesa");
+  private MpesaConfig resolveConfig(Map<String, MpesaConfig> configs, StkPushRequest request) {
+    return configs.computeIfAbsent(
+        request.shortCode() + "_" + request.environment(),
+        key -> configService.getConfig(request.shortCode(), MpesaEnvironment.valueOf(request.environment())));
   }
 
-  private void updatePaymentWithResponse(MpesaPayment payment, StkPushResponse response) {
-    PaymentMapperFactory.updateWithStkResponse(payment, response);
-    paymentRepository.save(payment);
+  private StkPushBatchItemResult pushBatchItem(
+      int index, StkPushRequest request, MpesaConfig config, MpesaPayment payment) {
+    try {
+      rateLimiter.acquireForBackground(config);
+      StkPushResponse response = stkPushClient.push(request, config, config.getEnvironment());
+      PaymentMapperFactory.updateWithStkResponse(payment, response);
+      paymentBatchRepository.updateStkResponse(payment);
+      stkCallbackCorrelator.responsePersisted(response.checkoutRequestId());
+      return new StkPushBatchItemResult(
+          index,
+          payment.getUuid(),
+          request.phoneNumber(),
+          StkPushBatchOutcome.ACCEPTED,
+          response.merchantRequestId(),
+          response.checkoutRequestId(),
+          null);
+
+    } catch (RateLimitExceededException | DarajaUnavailableException e) {
+      return failBatchItem(index, request, payment, StkPushBatchOutcome.THROTTLED, e);
+    } catch (ResourceAccessException e) {
+      log.error("STK push outcome unknown for payment: {}", payment.getUuid(), e);
+      payment.setErrorMessage(e.getMessage());
+      paymentBatchRepository.updateError(payment);
+      return batchItemResult(index, request, payment, StkPushBatchOutcome.UNKNOWN, e.getMessage());
+    } catch (Exception e) {
+      log.error("Error initiating STK push for payment: {}", payment.getUuid(), e);
+      return failBatchItem(index, request, payment, StkPushBatchOutcome.FAILED, e);
+    }
+  }
+
+  private StkPushBatchItemResult failBatchItem(
+      int index, StkPushRequest request, MpesaPayment payment, StkPushBatchOutcome outcome, Exception e) {
+    payment.setTransactionStatus(TransactionStatus.FAILED.name());
+    payment.setErrorMessage(e.getMessage());
+    paymentBatchRepository.updateError(payment);
+    return batchItemResult(index, request, payment, outcome, e.getMessage());
+  }
+
+  private StkPushBatchItemResult batchItemResult(
+      int index, StkPushRequest request, MpesaPayment payment, StkPushBatchOutcome outcome, String error) {
+    return new StkPushBatchItemResult(
+        index, payment != null ? payment.getUuid() : null, request.phoneNumber(), outcome, null, null, error);
   }
 
   @Override
-  @Transactional
-  public PaymentView processStkCallback(StkCallback callback) {
+  public StkPushMode getStkPushMode(String shortCode, MpesaEnvironment environment) {
+    return configService.getConfig(shortCode, environment).getStkPushMode();
+  }
+
+  private MpesaPayment createInitialPayment(StkPushRequest request) {
+    return paymentRepository.save(newPayment(request));
+  }
+
+  private static MpesaPayment newPayment(StkPushRequest request) {
+    MpesaPayment payment = PaymentMapperFactory.toEntity(request);
+    payment.setBusinessShortCode(request.shortCode());
+    return payment;
+  }
+
+  /**
+   * Daraja has accepted the push by now, so a failure to record it leaves the payment pending
+   * rather than failing it, with the CheckoutRequestID kept on the abandoned outbox entry.
+   */
+  private void updatePaymentWithResponse(MpesaPayment payment, StkPushOutbox entry, StkPushResponse response) {
     try {
-      log.info("Processing STK callback for request ID: {}", callback.merchantRequestId());
+      transactionTemplate.executeWithoutResult(status -> {
+        PaymentMapperFactory.updateWithStkResponse(payment, response);
+        paymentRepository.save(payment);
+        outboxRepository.save(complete(entry, OutboxStatus.DISPATCHED, null));
+      });
+    } catch (RuntimeException e) {
+      log.error("STK push for payment: {} was accepted with CheckoutRequestID {} but could not be recorded",
+          payment.getUuid(), response.checkoutRequestId(), e);
+      completeEntry(entry, OutboxStatus.ABANDONED,
+          "Accepted with CheckoutRequestID " + response.checkoutRequestId()
+              + " but the response could not be recorded: " + e.getMessage());
+      return;
+    }
+    stkCallbackCorrelator.responsePersisted(response.checkoutRequestId());
+  }
 
-      MpesaPayment payment =
-          paymentRepository
-              .findByTransactionId(callback.merchantRequestId())
-              .orElseThrow(() -> new PaymentNotFoundException("Payment not found for callback"));
+  /**
+   * Correlates the callback on its checkout request id. A callback that beats the push response
+   * to the database is parked and applied once the response is saved, and null is returned.
+   */
+  @Override
+  public PaymentView processStkCallback(StkCallback callback, String rawCallback) {
+    try {
+      log.info("Processing STK callback for checkout request ID: {}", callback.checkoutRequestId());
 
-      PaymentMapperFactory.updateWithStkCallback(payment, callback);
-      payment = paymentRepository.save(payment);
+      PaymentView payment = stkCallbackCorrelator.apply(callback, rawCallback);
 
-      log.info(
-          "Successfully processed STK callback for transaction: {}", payment.getTransactionId());
-      return PaymentMapperFactory.toView(payment);
+      if (payment != null) {
+        log.info(
+            "Successfully processed STK callback for transaction: {}", payment.transactionId());
+      }
+      return payment;
 
     } catch (Exception e) {
       log.error("Error processing STK callback", e);
@@ -131,23 +325,13 @@ public class MpesaPaymentServiceImpl implements MpesaPaymentService {
   }
 
   @Override
-  @Transactional
-  public PaymentView processC2BCallback(C2bCallback callback) {
+  public PaymentView processC2BCallback(C2bCallback callback, String rawCallback) {
     try {
       log.info("Processing C2B callback for transaction: {}", callback.transId());
 
-      MpesaPayment payment =
-              paymentRepository
-                      .findByTransactionId(callback.transId())
-                      .orElseGet(
-                              () -> {
-                                MpesaPayment newPayment = new MpesaPayment();
-                                newPayment.setBusinessShortCode(callback.businessShortCode());
-                                return newPayment;
-                              });
-
-      PaymentMapperFactory.updateWithC2BCallback(payment, callback);
-      payment = paymentRepository.save(payment);
+      MpesaPayment payment = new MpesaPayment();
+      PaymentMapperFactory.updateWithC2BCallback(payment, callback, rawCallback);
+      payment = paymentBatchRepository.upsertC2bCallback(payment);
 
       log.info("Successfully processed C2B callback for transaction: {}", payment.getTransactionId());
       return PaymentMapperFactory.toView(payment);
@@ -161,16 +345,14 @@ public class MpesaPaymentServiceImpl implements MpesaPaymentService {
   @Override
   @Transactional(readOnly = true)
   public PaymentView getPayment(UUID paymentId) {
-    return paymentRepository.findByUuid(paymentId)
-            .map(PaymentMapperFactory::toView)
+    return paymentRepository.findViewByUuid(paymentId)
             .orElseThrow(() -> new PaymentNotFoundException("Payment not found: " + paymentId));
   }
 
   @Override
   @Transactional(readOnly = true)
   public PaymentView getPaymentByTransactionId(String transactionId) {
-    return paymentRepository.findByTransactionId(transactionId)
-            .map(PaymentMapperFactory::toView)
+    return paymentRepository.findViewByTransactionId(transactionId)
             .orElseThrow(() -> new PaymentNotFoundException("Payment not found: " + transactionId));
   }
 
@@ -183,25 +365,59 @@ public class MpesaPaymentServiceImpl implements MpesaPaymentService {
           LocalDateTime endDate,
           Pageable pageable) {
 
-    TransactionStatus transactionStatus = status != null ?
-            TransactionStatus.valueOf(status.toUpperCase()) : null;
+    String transactionStatus = status != null ?
+            TransactionStatus.valueOf(status.toUpperCase()).name() : null;
 
-    return paymentRepository.findPayments(
+    return paymentRepository.findPaymentViews(
             phoneNumber,
             transactionStatus,
             startDate,
             endDate,
             pageable
-    ).map(PaymentMapperFactory::toView);
+    );
+  }
+
+  @Override
+  @Transactional(readOnly = true)
+  public CursorPage<PaymentView> getPaymentsAfter(
+          String phoneNumber,
+          String status,
+          LocalDateTime startDate,
+          LocalDateTime endDate,
+          String cursor,
+          int size) {
+
+    String transactionStatus = status != null ?
+            TransactionStatus.valueOf(status.toUpperCase()).name() : null;
+    KeysetCursor after = KeysetCursor.decode(cursor);
+
+    // One row more than the page tells whether there is a next page without counting
+    List<PaymentKeysetRow> rows = paymentRepository.findPaymentsAfter(
+            phoneNumber,
+            transactionStatus,
+            startDate,
+            endDate,
+            after.createdDate(),
+            after.id(),
+            Limit.of(size + 1)
+    );
+    String nextCursor = null;
+    if (rows.size() > size) {
+      rows = rows.subList(0, size);
+      PaymentKeysetRow last = rows.get(size - 1);
+      nextCursor = new KeysetCursor(last.createdDate(), last.id()).encode();
+    }
+    return new CursorPage<>(
+            rows.stream().map(PaymentKeysetRow::toView).toList(),
+            size,
+            cursor,
+            nextCursor);
   }
 
   @Override
   @Transactional(readOnly = true)
   public List<PaymentView> getPaymentsByPhoneNumber(String phoneNumber) {
-    return paymentRepository.findByPhoneNumberOrderByCreatedDateDesc(phoneNumber)
-            .stream()
-            .map(PaymentMapperFactory::toView)
-            .toList();
+    return paymentRepository.findViewsByPhoneNumber(phoneNumber);
   }
 
   @Override
@@ -209,63 +425,15 @@ public class MpesaPaymentServiceImpl implements MpesaPaymentService {
     try {
       log.info("Validating payment status for transaction: {}", transactionId);
 
-      MpesaPayment payment = paymentRepository.findByTransactionId(transactionId)
-              .orElseThrow(() -> new PaymentNotFoundException("Payment not found: " + transactionId));
-
-      // Here you would typically make a call to M-Pesa API to check status
-      log.info("Payment status: {}", payment.getTransactionStatus());
-      return PaymentMapperFactory.toView(payment);
+      PaymentView view = statusQueryService.getStatus(transactionId);
+      log.info("Payment status: {}", view.transactionStatus());
+      return view;
 
+    } catch (RateLimitExceededException | DarajaUnavailableException e) {
+      throw e;
     } catch (Exception e) {
       log.error("Error validating payment status", e);
       throw new PaymentException("Failed to validate payment status", e);
     }
   }
-
-  private HttpHeaders createHeaders(
-      String consumerKey, String consumerSecret, String shortCode, MpesaEnvironment environment) {
-    HttpHeaders headers = new HttpHeaders();
-    headers.setContentType(MediaType.APPLICATION_JSON);
-    headers.setBearerAuth(
-        authService.getAccessToken(consumerKey, consumerSecret, shortCode, environment));
-    return headers;
-  }
-
-  private Map<String, Object> createStkRequestBody(
-      StkPushRequest request, MpesaConfig config, MpesaConfigService.MpesaCredentials credentials) {
-
-    String timestamp = generateTimestamp();
-    String password = generatePassword(config, credentials, timestamp);
-
-    Map<String, Object> body = new HashMap<>();
-    body.put("BusinessShortCode", config.getShortcode());
-    body.put("Password", password);
-    body.put("Timestamp", timestamp);
-    body.put("TransactionType", "CustomerPayBillOnline");
-    body.put("Amount", request.amount());
-    body.put("PartyA", request.phoneNumber());
-    body.put("PartyB", config.getShortcode());
-    body.put("PhoneNumber", request.phoneNumber());
-    body.put("CallBackURL", config.getStkCallbackUrl());
-    body.put("AccountReference", request.accountReference());
-    body.put("TransactionDesc", request.transactionDesc());
-
-    return body;
-  }
-
-  private String generateTimestamp() {
-    return DateTimeFormatter.ofPattern("yyyyMMddHHmmss").format(LocalDateTime.now());
-  }
-
-  private String generatePassword(
-      MpesaConfig config, MpesaConfigService.MpesaCredentials credentials, String timestamp) {
-    return Base64.getEncoder()
-        .encodeToString((config.getShortcode() + credentials.passkey() + timestamp).getBytes());
-  }
-
-  private String getStkPushUrl(MpesaEnvironment environment) {
-    return MpesaEnvironment.PRODUCTION == environment
-        ? mpesaUrlConfig.getUrls().getProd().getStkPushUrl()
-        : mpesaUrlConfig.getUrls().getSandbox().getStkPushUrl();
-  }
 }
@@ -0,0 +1,12 @@
+package apps.wmn.daraja.common.cache;
+
+import java.time.Instant;
+
+/**
+ * Cache value that carries its own expiry. Caches built by {@code CacheConfig} drop such entries
+ * at {@link #expiryTime()} instead of after the cache-wide TTL, whichever comes first. A null
+ * expiry time leaves the entry to the cache-wide TTL and size bound.
+ */
+public interface ExpiringValue {
+    Instant expiryTime();
+}
@@ -0,0 +1,40 @@
+package apps.wmn.daraja.common.cache;
+
+import com.github.benmanes.caffeine.cache.Expiry;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Caffeine expiry policy applying a fixed time-to-live after write, shortened for
+ * {@link ExpiringValue}s that expire earlier.
+ */
+public class ExpiringValueExpiry implements Expiry<Object, Object> {
+    private final long timeToLiveNanos;
+
+    public ExpiringValueExpiry(Duration timeToLive) {
+        this.timeToLiveNanos = timeToLive != null ? timeToLive.toNanos() : Long.MAX_VALUE;
+    }
+
+    @Override
+    public long expireAfterCreate(Object key, Object value, long currentTime) {
+        return timeToLive(value);
+    }
+
+    @Override
+    public long expireAfterUpdate(Object key, Object value, long currentTime, long currentDuration) {
+        return timeToLive(value);
+    }
+
+    @Override
+    public long expireAfterRead(Object key, Object value, long currentTime, long currentDuration) {
+        return currentDuration;
+    }
+
+    private long timeToLive(Object value) {
+        if (value instanceof ExpiringValue expiringValue && expiringValue.expiryTime() != null) {
+            long remaining = Duration.between(Instant.now(), expiringValue.expiryTime()).toNanos();
+            return Math.max(0, Math.min(remaining, timeToLiveNanos));
+        }
+        return timeToLiveNanos;
+    }
+}
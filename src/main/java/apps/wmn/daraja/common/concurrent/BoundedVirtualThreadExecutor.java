@@ -0,0 +1,68 @@
+package apps.wmn.daraja.common.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Runs each task on its own virtual thread while capping the number of tasks in flight. Tasks
+ * submitted beyond the cap are rejected rather than queued.
+ */
+public class BoundedVirtualThreadExecutor implements Executor, AutoCloseable {
+    private final String name;
+    private final ExecutorService delegate;
+    private final Semaphore permits;
+    private final Counter rejectedTasks;
+
+    public BoundedVirtualThreadExecutor(String name, int maxConcurrency, MeterRegistry meterRegistry) {
+        this.name = name;
+        this.delegate = Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(name + "-", 0).factory());
+        this.permits = new Semaphore(maxConcurrency);
+        this.rejectedTasks = Counter.builder("daraja.executor.rejected")
+                .tag("executor", name)
+                .register(meterRegistry);
+        Gauge.builder("daraja.executor.active", permits, p -> maxConcurrency - p.availablePermits())
+                .tag("executor", name)
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        if (!permits.tryAcquire()) {
+            rejectedTasks.increment();
+            throw new RejectedExecutionException("Executor " + name + " is at capacity");
+        }
+        try {
+            delegate.execute(() -> {
+                try {
+                    task.run();
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Number of tasks that can be submitted before the executor starts rejecting.
+     */
+    public int availableCapacity() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Stops accepting tasks and waits for tasks in flight to finish.
+     */
+    @Override
+    public void close() {
+        delegate.close();
+    }
+}
@@ -0,0 +1,166 @@
+package apps.wmn.daraja.common.concurrent;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Groups items submitted by concurrent callers into batches and hands each batch to a single flush
+ * function. A batch is flushed when it reaches {@code maxBatchSize} or when its oldest item has
+ * waited {@code maxDelay}, whichever comes first. While one batch is being flushed the next one
+ * fills up, so batches grow with load instead of callers queueing for the flush one by one.
+ *
+ * <p>The flush function returns one result per item, in the order of the items; each caller's
+ * future completes with its result once the flush returns, or fails with the flush's exception.
+ * Items still queued when the batcher is closed fail with a {@link RejectedExecutionException};
+ * callers should nevertheless bound their wait, since a flush can take arbitrarily long.
+ */
+@Slf4j
+public class MicroBatcher<I, O> implements AutoCloseable {
+    private static final long POLL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private final String name;
+    private final int maxBatchSize;
+    private final long maxDelayNanos;
+    private final Function<List<I>, List<O>> flushFunction;
+    private final BlockingQueue<Pending<I, O>> queue;
+    private final Thread flusher;
+    private final DistributionSummary batchSizes;
+    private final Timer queueWait;
+    private final Timer flushTime;
+    private volatile boolean running = true;
+
+    public MicroBatcher(
+            String name,
+            int maxBatchSize,
+            Duration maxDelay,
+            int queueCapacity,
+            Function<List<I>, List<O>> flushFunction,
+            MeterRegistry meterRegistry) {
+        this.name = name;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayNanos = maxDelay.toNanos();
+        this.flushFunction = flushFunction;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.batchSizes = DistributionSummary.builder("daraja.batch.size")
+                .description("Items per flushed micro-batch")
+                .tag("batcher", name)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.queueWait = Timer.builder("daraja.batch.flush.latency")
+                .description("Time an item waits before its micro-batch is flushed")
+                .tag("batcher", name)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.flushTime = Timer.builder("daraja.batch.commit")
+                .description("Time to flush and commit one micro-batch")
+                .tag("batcher", name)
+                .publishPercentiles(0.5, 0.99)
+                .register(meterRegistry);
+        this.flusher = Thread.ofPlatform().daemon().name(name + "-flusher").start(this::run);
+    }
+
+    /**
+     * Queues an item for the next batch.
+     *
+     * @return a future completed once the item's batch has been flushed; failed with a
+     *     {@link RejectedExecutionException} straight away if the queue is full
+     */
+    public CompletableFuture<O> submit(I item) {
+        Pending<I, O> pending = new Pending<>(item, new CompletableFuture<>(), System.nanoTime());
+        if (!running || !queue.offer(pending)) {
+            return CompletableFuture.failedFuture(
+                    new RejectedExecutionException("Micro-batcher " + name + " is not accepting items"));
+        }
+        return pending.result();
+    }
+
+    /**
+     * Stops accepting items and waits for the flusher to drain the queue. Items that were queued
+     * after its last poll, or that it did not reach in time, are failed.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            flusher.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            failQueued(new RejectedExecutionException("Micro-batcher " + name + " stopped"));
+        }
+    }
+
+    private void run() {
+        List<Pending<I, O>> batch = new ArrayList<>(maxBatchSize);
+        try {
+            while (running || !queue.isEmpty()) {
+                Pending<I, O> first = queue.poll(POLL_NANOS, TimeUnit.NANOSECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = first.enqueuedAt() + maxDelayNanos;
+                while (batch.size() < maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    // Wait in slices so that close() flushes a partial batch without sitting out maxDelay
+                    Pending<I, O> next = running && remaining > 0
+                            ? queue.poll(Math.min(remaining, POLL_NANOS), TimeUnit.NANOSECONDS)
+                            : queue.poll();
+                    if (next != null) {
+                        batch.add(next);
+                    } else if (!running || deadline - System.nanoTime() <= 0) {
+                        break;
+                    }
+                }
+                flush(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            RejectedExecutionException rejected = new RejectedExecutionException("Micro-batcher " + name + " stopped");
+            batch.forEach(pending -> pending.result().completeExceptionally(rejected));
+            failQueued(rejected);
+        }
+    }
+
+    private void failQueued(RejectedExecutionException rejected) {
+        List<Pending<I, O>> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        remaining.forEach(pending -> pending.result().completeExceptionally(rejected));
+    }
+
+    private void flush(List<Pending<I, O>> batch) {
+        long start = System.nanoTime();
+        List<I> items = new ArrayList<>(batch.size());
+        for (Pending<I, O> pending : batch) {
+            queueWait.record(start - pending.enqueuedAt(), TimeUnit.NANOSECONDS);
+            items.add(pending.item());
+        }
+        batchSizes.record(batch.size());
+
+        try {
+            List<O> results = flushFunction.apply(items);
+            flushTime.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result().complete(results.get(i));
+            }
+        } catch (RuntimeException e) {
+            log.warn("Flushing a batch of {} items in {} failed", batch.size(), name, e);
+            batch.forEach(pending -> pending.result().completeExceptionally(e));
+        }
+    }
+
+    private record Pending<I, O>(I item, CompletableFuture<O> result, long enqueuedAt) {
+    }
+}
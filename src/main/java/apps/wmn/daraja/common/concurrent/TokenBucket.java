@@ -0,0 +1,49 @@
+package apps.wmn.daraja.common.concurrent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket. Rather than counting tokens it tracks when the next permit is due at the
+ * sustained rate (the generic cell rate algorithm), so taking a permit is a single compare-and-set
+ * on a {@code long}.
+ */
+public class TokenBucket {
+    private final long intervalNanos;
+    private final long burstNanos;
+    private final AtomicLong nextDueNanos;
+
+    /**
+     * @param permitsPerSecond sustained rate
+     * @param burst number of permits that can be taken back to back from an idle bucket
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        if (permitsPerSecond <= 0 || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive");
+        }
+        this.intervalNanos = (long) (TimeUnit.SECONDS.toNanos(1) / permitsPerSecond);
+        this.burstNanos = intervalNanos * (burst - 1);
+        this.nextDueNanos = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Reserves a permit if one is available within {@code maxWaitNanos}.
+     *
+     * @return the nanoseconds the caller must wait before using the permit (zero or more), or, when
+     *     no permit was reserved, the negated nanoseconds until one would be available
+     */
+    public long tryReserve(long maxWaitNanos) {
+        while (true) {
+            long now = System.nanoTime();
+            long current = nextDueNanos.get();
+            long due = current - now > 0 ? current : now;
+            long wait = due - burstNanos - now;
+            if (wait > maxWaitNanos) {
+                return -wait;
+            }
+            if (nextDueNanos.compareAndSet(current, due + intervalNanos)) {
+                return Math.max(wait, 0);
+            }
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package apps.wmn.daraja.common.concurrent;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordingStream;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.SmartLifecycle;
+
+/**
+ * Reports virtual threads that stay pinned to their carrier thread, typically because they block
+ * inside a {@code synchronized} block or a native frame. A pinned thread holds one of the few
+ * carrier threads for as long as it blocks, so a pin on a hot path caps throughput at the carrier
+ * count instead of the connection pools.
+ *
+ * <p>Listens to the JFR {@code jdk.VirtualThreadPinned} event in-process, counts each pin longer
+ * than the threshold in {@code daraja.virtual.pinned} and logs where it happened.
+ */
+@Slf4j
+public class VirtualThreadPinningMonitor implements SmartLifecycle {
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+
+    private final Duration threshold;
+    private final int stackDepth;
+    private final Counter pinned;
+    private final Timer pinnedTime;
+    private volatile RecordingStream stream;
+
+    public VirtualThreadPinningMonitor(Duration threshold, int stackDepth, MeterRegistry meterRegistry) {
+        this.threshold = threshold;
+        this.stackDepth = stackDepth;
+        this.pinned = Counter.builder("daraja.virtual.pinned")
+                .description("Virtual threads pinned to their carrier for longer than the threshold")
+                .register(meterRegistry);
+        this.pinnedTime = Timer.builder("daraja.virtual.pinned.duration")
+                .description("Time virtual threads spent pinned to their carrier")
+                .register(meterRegistry);
+    }
+
+    @Override
+    public void start() {
+        RecordingStream recording = new RecordingStream();
+        recording.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recording.onEvent(PINNED_EVENT, this::report);
+        recording.startAsync();
+        stream = recording;
+        log.info("Watching for virtual threads pinned longer than {}", threshold);
+    }
+
+    @Override
+    public void stop() {
+        RecordingStream recording = stream;
+        stream = null;
+        if (recording != null) {
+            recording.close();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return stream != null;
+    }
+
+    private void report(RecordedEvent event) {
+        pinned.increment();
+        pinnedTime.record(event.getDuration());
+        if (log.isWarnEnabled()) {
+            log.warn("Virtual thread {} pinned for {} ms at:{}",
+                    event.getThread() != null ? event.getThread().getJavaName() : "?",
+                    event.getDuration().toMillis(),
+                    describe(event.getStackTrace()));
+        }
+    }
+
+    private String describe(RecordedStackTrace stackTrace) {
+        if (stackTrace == null) {
+            return " (no stack trace)";
+        }
+        List<RecordedFrame> frames = stackTrace.getFrames();
+        return frames.stream()
+                .limit(stackDepth)
+                .map(frame -> "\n\tat " + frame.getMethod().getType().getName() + "."
+                        + frame.getMethod().getName() + ":" + frame.getLineNumber())
+                .collect(Collectors.joining());
+    }
+}
@@ -1,13 +1,43 @@
 package apps.wmn.daraja.common.config;
 
+import apps.wmn.daraja.common.concurrent.BoundedVirtualThreadExecutor;
+import apps.wmn.daraja.common.concurrent.VirtualThreadPinningMonitor;
+import apps.wmn.daraja.common.http.DarajaHttpClient;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.thread.Threading;
+import org.springframework.boot.web.client.RestTemplateBuilder;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.core.env.Environment;
 
 @Configuration
 public class ApplicationBeans {
     @Bean
-    public RestTemplate restTemplate() {
-        return new RestTemplate();
+    public DarajaHttpClient darajaHttpClient(
+            DarajaHttpClientProperties properties,
+            RestTemplateBuilder restTemplateBuilder,
+            MeterRegistry meterRegistry,
+            Environment environment) {
+        return new DarajaHttpClient(
+                properties, restTemplateBuilder, meterRegistry, Threading.VIRTUAL.isActive(environment));
+    }
+
+    @Bean
+    public BoundedVirtualThreadExecutor stkDispatchExecutor(
+            StkDispatchProperties properties,
+            MeterRegistry meterRegistry) {
+        return new BoundedVirtualThreadExecutor("stk-dispatch", properties.getMaxConcurrency(), meterRegistry);
+    }
+
+    @Bean
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    @ConditionalOnProperty(prefix = "mpesa.virtual-threads", name = "pinning-monitor", matchIfMissing = true)
+    public VirtualThreadPinningMonitor virtualThreadPinningMonitor(
+            VirtualThreadProperties properties,
+            MeterRegistry meterRegistry) {
+        return new VirtualThreadPinningMonitor(
+                properties.getPinnedThreshold(), properties.getStackDepth(), meterRegistry);
     }
 }
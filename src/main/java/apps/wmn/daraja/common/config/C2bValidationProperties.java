@@ -0,0 +1,19 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Behaviour of the C2B validation endpoint that Daraja calls before completing a payment.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.c2b-validation")
+@Data
+public class C2bValidationProperties {
+    /** Whether payments to shortcodes without an active configuration are rejected. */
+    private boolean rejectUnknownShortcodes = true;
+    /** How often the rules are reloaded in full, to pick up changes made through other nodes. */
+    private Duration refreshInterval = Duration.ofMinutes(1);
+}
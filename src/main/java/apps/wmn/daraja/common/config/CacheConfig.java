@@ -0,0 +1,36 @@
+package apps.wmn.daraja.common.config;
+
+import apps.wmn.daraja.common.cache.ExpiringValueExpiry;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.cache.CacheManager;
+import org.springframework.cache.annotation.EnableCaching;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.cache.transaction.TransactionAwareCacheManagerProxy;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+@EnableCaching
+public class CacheConfig {
+
+    /**
+     * Bounded Caffeine caches with statistics enabled so that actuator publishes hit, miss and
+     * eviction counts. Puts and evictions are deferred until the surrounding transaction commits.
+     */
+    @Bean
+    public CacheManager cacheManager(DarajaCacheProperties properties) {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.setAllowNullValues(false);
+        cacheManager.setCaffeine(caffeine(properties.getDefaults()));
+        properties.getSpecs().forEach((name, spec) ->
+                cacheManager.registerCustomCache(name, caffeine(spec).build()));
+        return new TransactionAwareCacheManagerProxy(cacheManager);
+    }
+
+    private Caffeine<Object, Object> caffeine(DarajaCacheProperties.Spec spec) {
+        return Caffeine.newBuilder()
+                .maximumSize(spec.getMaximumSize())
+                .expireAfter(new ExpiringValueExpiry(spec.getExpireAfterWrite()))
+                .recordStats();
+    }
+}
@@ -0,0 +1,49 @@
+package apps.wmn.daraja.common.config;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Settings for how Daraja callbacks are taken in before they are applied to the payments table.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.callback-ingestion")
+@Data
+public class CallbackIngestionProperties {
+    /**
+     * DIRECT applies each callback before answering it; BATCHED applies C2B callbacks in micro-batches
+     * shared with concurrent callbacks before answering; JOURNAL answers once a callback is journaled
+     * on disk.
+     */
+    private Mode mode = Mode.DIRECT;
+    /** Directory holding the journal segments and checkpoint. Must be on local, persistent disk. */
+    private Path directory = Path.of("data/callback-journal");
+    /** Size of each memory-mapped journal segment. */
+    private DataSize segmentSize = DataSize.ofMegabytes(64);
+    /** Most C2B callbacks upserted together in BATCHED mode. */
+    private int batchSize = 100;
+    /** Longest a C2B callback waits for its batch to fill in BATCHED mode. */
+    private Duration batchMaxDelay = Duration.ofMillis(5);
+    /** C2B callbacks waiting for a batch beyond which new ones are rejected in BATCHED mode. */
+    private int batchQueueCapacity = 10_000;
+    /** Longest a C2B callback waits for its batch to commit in BATCHED mode before it is failed. */
+    private Duration batchTimeout = Duration.ofSeconds(10);
+    /** How long an STK callback that arrives before its push response is persisted is held for it. */
+    private Duration earlyCallbackTtl = Duration.ofMinutes(2);
+    /** Most early STK callbacks held at once. */
+    private int earlyCallbackCapacity = 10_000;
+    /** Journal entries applied to the payments table per transaction. */
+    private int applyBatchSize = 500;
+    /** Failed attempts to apply a journal entry before it is dead-lettered; database outages do not count. */
+    private int maxApplyAttempts = 5;
+
+    public enum Mode {
+        DIRECT,
+        BATCHED,
+        JOURNAL
+    }
+}
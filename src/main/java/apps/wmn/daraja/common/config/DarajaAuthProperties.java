@@ -0,0 +1,21 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Access token lifetime and background renewal settings.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.auth")
+@Data
+public class DarajaAuthProperties {
+    /** Margin subtracted from the token's expires_in before it is considered expired. */
+    private Duration expirySkew = Duration.ofMinutes(3);
+    /** Tokens are renewed in the background once they are this close to expiry. */
+    private Duration refreshAhead = Duration.ofMinutes(5);
+    /** Shortcodes that have not requested a token for this long are no longer renewed. */
+    private Duration idleTimeout = Duration.ofHours(1);
+}
@@ -0,0 +1,27 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Per-cache size and time-to-live settings. Caches not listed under {@code specs} are created on
+ * demand with the {@code defaults}.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.cache")
+@Data
+public class DarajaCacheProperties {
+    private Spec defaults = new Spec();
+    private Map<String, Spec> specs = new LinkedHashMap<>();
+
+    @Data
+    public static class Spec {
+        private long maximumSize = 1000;
+        /** Time-to-live after write; unset means entries only leave by size or their own expiry. */
+        private Duration expireAfterWrite;
+    }
+}
@@ -0,0 +1,43 @@
+package apps.wmn.daraja.common.config;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Connection pool and timeout settings for the outbound Daraja HTTP client, one pool per
+ * environment.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.http-client")
+@Data
+public class DarajaHttpClientProperties {
+    private Pool sandbox = new Pool();
+    private Pool prod = new Pool();
+
+    public Pool forEnvironment(MpesaEnvironment environment) {
+        return MpesaEnvironment.PRODUCTION == environment ? prod : sandbox;
+    }
+
+    public enum Protocol {
+        /** Pooled keep-alive connections through Apache HttpClient. */
+        HTTP_1_1,
+        /** Multiplexed connections through the JDK HttpClient; pool sizing and gzip do not apply. */
+        HTTP_2
+    }
+
+    @Data
+    public static class Pool {
+        private Protocol protocol = Protocol.HTTP_1_1;
+        private int maxConnections = 50;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration readTimeout = Duration.ofSeconds(30);
+        private Duration responseTimeout = Duration.ofSeconds(30);
+        private Duration connectionRequestTimeout = Duration.ofSeconds(2);
+        private Duration idleEviction = Duration.ofSeconds(30);
+        private Duration timeToLive = Duration.ofMinutes(5);
+        private boolean gzip = true;
+    }
+}
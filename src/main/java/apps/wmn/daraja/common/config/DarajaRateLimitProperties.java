@@ -0,0 +1,24 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Defaults for the per-shortcode limit on outbound Daraja calls. Shortcode configurations can
+ * override the rate and burst.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.rate-limit")
+@Data
+public class DarajaRateLimitProperties {
+    /** Sustained Daraja calls per second for a shortcode and environment. */
+    private double permitsPerSecond = 5;
+    /** Calls that can be made back to back after a quiet period. */
+    private int burst = 10;
+    /** How long an API request may wait for a permit before it is answered with 429. */
+    private Duration requestWait = Duration.ZERO;
+    /** How long background work (outbox dispatch, URL registration) may wait for a permit. */
+    private Duration backgroundWait = Duration.ofSeconds(10);
+}
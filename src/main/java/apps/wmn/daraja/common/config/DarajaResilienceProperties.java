@@ -0,0 +1,47 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Circuit breaker and bulkhead settings for Daraja endpoints. Every environment gets its own breaker
+ * and bulkhead per endpoint. Endpoints not listed under {@code endpoints} use the {@code defaults};
+ * listed endpoints replace them, with unset fields taking the built-in values below.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.resilience")
+@Data
+public class DarajaResilienceProperties {
+    private Policy defaults = new Policy();
+    private Map<String, Policy> endpoints = new LinkedHashMap<>();
+
+    public Policy forEndpoint(String endpoint) {
+        return endpoints.getOrDefault(endpoint, defaults);
+    }
+
+    @Data
+    public static class Policy {
+        /** Failure percentage at which the breaker opens. */
+        private float failureRateThreshold = 50;
+        /** Calls slower than this count towards the slow call rate. */
+        private Duration slowCallDurationThreshold = Duration.ofSeconds(10);
+        /** Slow call percentage at which the breaker opens. */
+        private float slowCallRateThreshold = 80;
+        /** Number of most recent calls the failure and slow call rates are computed over. */
+        private int slidingWindowSize = 50;
+        /** Calls needed in the window before the rates are evaluated. */
+        private int minimumNumberOfCalls = 20;
+        /** How long the breaker stays open before letting trial calls through. */
+        private Duration waitDurationInOpenState = Duration.ofSeconds(30);
+        /** Trial calls let through while half open. */
+        private int permittedCallsInHalfOpenState = 5;
+        /** Calls allowed in flight at once. */
+        private int maxConcurrentCalls = 50;
+        /** How long a call may wait for a free slot before it is rejected. */
+        private Duration maxWaitDuration = Duration.ZERO;
+    }
+}
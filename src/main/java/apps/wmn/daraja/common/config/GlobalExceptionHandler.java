@@ -4,8 +4,13 @@ import java.util.HashMap;
 import java.util.Map;
 
 import apps.wmn.daraja.common.dto.ApiResponse;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.exceptions.InvalidCursorException;
+import apps.wmn.daraja.common.exceptions.InvalidRequestException;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
 import apps.wmn.daraja.common.exceptions.RecordNotFoundException;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -22,6 +27,36 @@ public class GlobalExceptionHandler {
                 .body(ApiResponse.error("Record not found", ex.getMessage()));
     }
 
+    @ExceptionHandler(RateLimitExceededException.class)
+    public ResponseEntity<ApiResponse<Void>> handleRateLimitExceededException(RateLimitExceededException ex) {
+        log.debug("Rate limit exceeded", ex);
+        long retryAfterSeconds = Math.max(1, (ex.getRetryAfter().toMillis() + 999) / 1000);
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(ApiResponse.error("Too many requests", ex.getMessage()));
+    }
+
+    @ExceptionHandler(DarajaUnavailableException.class)
+    public ResponseEntity<ApiResponse<Void>> handleDarajaUnavailableException(DarajaUnavailableException ex) {
+        log.debug("Daraja unavailable", ex);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .body(ApiResponse.error("M-Pesa is temporarily unavailable", ex.getMessage()));
+    }
+
+    @ExceptionHandler(InvalidCursorException.class)
+    public ResponseEntity<ApiResponse<Void>> handleInvalidCursorException(InvalidCursorException ex) {
+        log.debug("Invalid cursor", ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(ApiResponse.error("Invalid cursor", ex.getMessage()));
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<ApiResponse<Void>> handleInvalidRequestException(InvalidRequestException ex) {
+        log.debug("Invalid request", ex);
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(ApiResponse.error("Invalid request", ex.getMessage()));
+    }
+
     @ExceptionHandler(MethodArgumentNotValidException.class)
     public ResponseEntity<ApiResponse<Void>> handleValidationExceptions(MethodArgumentNotValidException ex) {
         log.debug("Validation failed", ex);
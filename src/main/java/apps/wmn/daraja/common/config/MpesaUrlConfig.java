@@ -22,5 +22,6 @@ public class MpesaUrlConfig {
         private String registerUrl;
         private String authUrl;
         private String stkPushUrl;
+        private String stkQueryUrl;
     }
 }
@@ -0,0 +1,28 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+/**
+ * Streaming exports of payments.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.export")
+@Data
+public class PaymentExportProperties {
+    /** Rows fetched from the database cursor per round trip; also how often the response is flushed. */
+    private int fetchSize = 1000;
+    /** Output buffered before it is written to the client. */
+    private DataSize bufferSize = DataSize.ofKilobytes(64);
+    /** Exports allowed to run at once; each holds a database connection. Further requests get 429. */
+    private int maxConcurrent = 2;
+    /**
+     * Transaction timeout, which Hibernate applies as the JDBC query timeout when the cursor is opened.
+     * It bounds the query, not the time spent streaming rows to the client; that is bounded only by
+     * {@code spring.mvc.async.request-timeout}.
+     */
+    private Duration queryTimeout = Duration.ofMinutes(10);
+}
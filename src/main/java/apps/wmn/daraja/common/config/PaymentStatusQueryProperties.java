@@ -0,0 +1,19 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Caching and pacing of payment status queries made on behalf of API clients.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.status-query")
+@Data
+public class PaymentStatusQueryProperties {
+    /** How long the status of a payment that is not yet settled is served from cache. */
+    private Duration pendingTtl = Duration.ofSeconds(5);
+    /** Minimum time between two Daraja queries for the same transaction. */
+    private Duration minQueryInterval = Duration.ofSeconds(30);
+}
@@ -0,0 +1,28 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for reconciling STK pushes that never received a callback.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.reconciliation")
+@Data
+public class ReconciliationProperties {
+    private boolean enabled = true;
+    /** STK pushes still pending this long after creation are queried. */
+    private Duration stuckAfter = Duration.ofMinutes(2);
+    /** Payments loaded per keyset page. */
+    private int pageSize = 200;
+    /** Queries per payment before it is left for manual follow-up. */
+    private int maxRetries = 8;
+    /** Delay before the first retry, doubled on every following one. */
+    private Duration backoffBase = Duration.ofSeconds(30);
+    /** Upper bound of the delay between retries. */
+    private Duration maxBackoff = Duration.ofHours(1);
+    /** Status queries in flight at once for a shortcode and environment. */
+    private int perShortcodeConcurrency = 4;
+}
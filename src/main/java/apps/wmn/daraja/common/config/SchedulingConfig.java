@@ -0,0 +1,34 @@
+package apps.wmn.daraja.common.config;
+
+import org.springframework.boot.task.ThreadPoolTaskSchedulerBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
+
+@Configuration
+@EnableScheduling
+public class SchedulingConfig {
+    /** Scheduler of STK push reconciliation, named by its {@code @Scheduled} method. */
+    public static final String RECONCILIATION_SCHEDULER = "reconciliationScheduler";
+
+    /**
+     * Default scheduler of every {@code @Scheduled} job. All of them run with a fixed delay, which the
+     * virtual thread scheduler would run one after another on its single scheduler thread, so a pool
+     * sized by {@code spring.task.scheduling.pool.size} is used instead: with a thread per job, a slow
+     * run of one job does not hold back journal applies, outbox dispatch or token renewal.
+     */
+    @Bean
+    public ThreadPoolTaskScheduler taskScheduler(ThreadPoolTaskSchedulerBuilder builder) {
+        return builder.build();
+    }
+
+    /**
+     * Runs reconciliation passes on their own thread; a pass waits on Daraja rate limits and can take
+     * minutes.
+     */
+    @Bean(RECONCILIATION_SCHEDULER)
+    public ThreadPoolTaskScheduler reconciliationScheduler(ThreadPoolTaskSchedulerBuilder builder) {
+        return builder.poolSize(1).threadNamePrefix("reconciliation-").build();
+    }
+}
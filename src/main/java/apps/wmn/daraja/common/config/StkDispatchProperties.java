@@ -0,0 +1,27 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Settings for STK pushes dispatched to Daraja in the background from the outbox.
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.stk-dispatch")
+@Data
+public class StkDispatchProperties {
+    /** Maximum number of Daraja calls in flight at once on this node. */
+    private int maxConcurrency = 200;
+    /** Maximum number of Daraja calls in flight at once for a single batch request. */
+    private int batchConcurrency = 50;
+    /** Maximum number of requests accepted in a single batch request. */
+    private int maxBatchItems = 1000;
+    /** Maximum number of outbox entries claimed per query. */
+    private int batchSize = 50;
+    /** Claimed entries without an outcome after this long are abandoned to reconciliation. */
+    private Duration claimTimeout = Duration.ofMinutes(2);
+    /** Finished outbox entries are deleted after this long. */
+    private Duration retention = Duration.ofDays(7);
+}
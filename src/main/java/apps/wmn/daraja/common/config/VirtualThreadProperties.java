@@ -0,0 +1,21 @@
+package apps.wmn.daraja.common.config;
+
+import java.time.Duration;
+import lombok.Data;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+
+/**
+ * Pinning detection for the virtual-thread execution mode ({@code spring.threads.virtual.enabled}).
+ */
+@Configuration
+@ConfigurationProperties(prefix = "mpesa.virtual-threads")
+@Data
+public class VirtualThreadProperties {
+    /** Whether pinned virtual threads are recorded while virtual threads are enabled. */
+    private boolean pinningMonitor = true;
+    /** Shortest pin that is reported; shorter pins are too cheap to matter. */
+    private Duration pinnedThreshold = Duration.ofMillis(20);
+    /** Number of stack frames logged for each reported pin. */
+    private int stackDepth = 12;
+}
@@ -0,0 +1,19 @@
+package apps.wmn.daraja.common.dto;
+
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * One page of a keyset-paginated listing. {@code nextCursor} is null on the last page; no total is
+ * known because none is counted.
+ */
+public record CursorPage<T>(List<T> content, int size, String cursor, String nextCursor) {
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+
+    public <R> CursorPage<R> map(Function<? super T, ? extends R> mapper) {
+        return new CursorPage<>(content.stream().<R>map(mapper).toList(), size, cursor, nextCursor);
+    }
+}
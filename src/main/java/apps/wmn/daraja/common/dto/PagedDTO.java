@@ -6,6 +6,7 @@ import apps.wmn.daraja.common.util.PageLinks;
 import apps.wmn.daraja.common.util.PageMetadata;
 import io.swagger.v3.oas.annotations.media.Schema;
 import org.springframework.data.domain.Page;
+import org.springframework.web.util.UriComponentsBuilder;
 
 
 @Schema(description = "Paged Response wrapper")
@@ -21,4 +22,12 @@ public record PagedDTO<T>(
                 PageLinks.from(page, baseUrl)
         );
     }
+
+    public static <T> PagedDTO<T> from(CursorPage<T> page, UriComponentsBuilder currentRequest) {
+        return new PagedDTO<>(
+                page.content(),
+                PageMetadata.from(page),
+                PageLinks.from(page, currentRequest)
+        );
+    }
 }
\ No newline at end of file
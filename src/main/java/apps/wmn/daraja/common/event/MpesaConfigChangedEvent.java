@@ -0,0 +1,6 @@
+package apps.wmn.daraja.common.event;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import java.util.UUID;
+
+public record MpesaConfigChangedEvent(UUID configId, String shortcode, MpesaEnvironment environment) {}
@@ -0,0 +1,11 @@
+package apps.wmn.daraja.common.exceptions;
+
+public class DarajaUnavailableException extends RuntimeException {
+  public DarajaUnavailableException(String message) {
+    super(message);
+  }
+
+  public DarajaUnavailableException(String message, Throwable cause) {
+    super(message, cause);
+  }
+}
@@ -0,0 +1,8 @@
+package apps.wmn.daraja.common.exceptions;
+
+public class InvalidRequestException extends RuntimeException {
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
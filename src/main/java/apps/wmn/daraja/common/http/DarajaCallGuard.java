@@ -0,0 +1,110 @@
+package apps.wmn.daraja.common.http;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.common.config.DarajaResilienceProperties;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.function.Supplier;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.stereotype.Component;
+import org.springframework.web.client.HttpClientErrorException;
+
+/**
+ * Wraps every Daraja call in a bulkhead and circuit breaker dedicated to its environment and
+ * endpoint, so a slow sandbox or a degraded endpoint fails fast instead of tying up the threads
+ * serving everything else.
+ */
+@Component
+@Slf4j
+public class DarajaCallGuard {
+    private final CircuitBreakerRegistry circuitBreakers = CircuitBreakerRegistry.ofDefaults();
+    private final BulkheadRegistry bulkheads = BulkheadRegistry.ofDefaults();
+    private final MeterRegistry meterRegistry;
+
+    public DarajaCallGuard(DarajaResilienceProperties properties, MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+        for (MpesaEnvironment environment : MpesaEnvironment.values()) {
+            for (DarajaEndpoint endpoint : DarajaEndpoint.values()) {
+                DarajaResilienceProperties.Policy policy = properties.forEndpoint(endpoint.key());
+                String name = name(environment, endpoint);
+                circuitBreakers.circuitBreaker(name, circuitBreakerConfig(policy))
+                        .getEventPublisher()
+                        .onStateTransition(event -> log.warn("Daraja circuit breaker {} moved {}",
+                                name, event.getStateTransition()));
+                bulkheads.bulkhead(name, bulkheadConfig(policy));
+            }
+        }
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(circuitBreakers).bindTo(meterRegistry);
+        TaggedBulkheadMetrics.ofBulkheadRegistry(bulkheads).bindTo(meterRegistry);
+    }
+
+    /**
+     * Runs the call through the bulkhead and circuit breaker of the environment and endpoint.
+     *
+     * @throws DarajaUnavailableException if the breaker is open or the bulkhead is full
+     */
+    public <T> T call(MpesaEnvironment environment, DarajaEndpoint endpoint, Supplier<T> call) {
+        String name = name(environment, endpoint);
+        CircuitBreaker circuitBreaker = circuitBreakers.circuitBreaker(name);
+        Bulkhead bulkhead = bulkheads.bulkhead(name);
+        try {
+            return Bulkhead.decorateSupplier(bulkhead, CircuitBreaker.decorateSupplier(circuitBreaker, call)).get();
+        } catch (CallNotPermittedException e) {
+            recordRejection(environment, endpoint, "circuit_open");
+            throw new DarajaUnavailableException("Daraja " + endpoint.key() + " is unavailable in " + environment, e);
+        } catch (BulkheadFullException e) {
+            recordRejection(environment, endpoint, "bulkhead_full");
+            throw new DarajaUnavailableException("Daraja " + endpoint.key() + " is at capacity in " + environment, e);
+        }
+    }
+
+    public CircuitBreakerRegistry getCircuitBreakers() {
+        return circuitBreakers;
+    }
+
+    public BulkheadRegistry getBulkheads() {
+        return bulkheads;
+    }
+
+    private void recordRejection(MpesaEnvironment environment, DarajaEndpoint endpoint, String reason) {
+        meterRegistry.counter("daraja.call.rejected",
+                "environment", environment.name(),
+                "endpoint", endpoint.key(),
+                "reason", reason).increment();
+    }
+
+    private static CircuitBreakerConfig circuitBreakerConfig(DarajaResilienceProperties.Policy policy) {
+        return CircuitBreakerConfig.custom()
+                .failureRateThreshold(policy.getFailureRateThreshold())
+                .slowCallDurationThreshold(policy.getSlowCallDurationThreshold())
+                .slowCallRateThreshold(policy.getSlowCallRateThreshold())
+                .slidingWindowSize(policy.getSlidingWindowSize())
+                .minimumNumberOfCalls(policy.getMinimumNumberOfCalls())
+                .waitDurationInOpenState(policy.getWaitDurationInOpenState())
+                .permittedNumberOfCallsInHalfOpenState(policy.getPermittedCallsInHalfOpenState())
+                // 4xx responses are problems with our request, not signs that Daraja is degraded
+                .ignoreExceptions(HttpClientErrorException.class)
+                .build();
+    }
+
+    private static BulkheadConfig bulkheadConfig(DarajaResilienceProperties.Policy policy) {
+        return BulkheadConfig.custom()
+                .maxConcurrentCalls(policy.getMaxConcurrentCalls())
+                .maxWaitDuration(policy.getMaxWaitDuration())
+                .build();
+    }
+
+    static String name(MpesaEnvironment environment, DarajaEndpoint endpoint) {
+        return environment.name().toLowerCase() + "." + endpoint.key();
+    }
+}
@@ -0,0 +1,79 @@
+package apps.wmn.daraja.common.http;
+
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import java.util.Map;
+import java.util.TreeMap;
+import org.springframework.boot.actuate.endpoint.annotation.Endpoint;
+import org.springframework.boot.actuate.endpoint.annotation.ReadOperation;
+import org.springframework.boot.actuate.endpoint.annotation.Selector;
+import org.springframework.boot.actuate.endpoint.annotation.WriteOperation;
+import org.springframework.stereotype.Component;
+
+/**
+ * Actuator endpoint ({@code /actuator/darajabreakers}) for inspecting the Daraja circuit breakers and
+ * forcing their state, e.g. {@code FORCED_OPEN} to take an endpoint out of service or {@code CLOSED}
+ * to put it back.
+ */
+@Component
+@Endpoint(id = "darajabreakers")
+public class DarajaCircuitBreakerEndpoint {
+    private final DarajaCallGuard callGuard;
+
+    public DarajaCircuitBreakerEndpoint(DarajaCallGuard callGuard) {
+        this.callGuard = callGuard;
+    }
+
+    @ReadOperation
+    public Map<String, BreakerView> breakers() {
+        Map<String, BreakerView> views = new TreeMap<>();
+        callGuard.getCircuitBreakers().getAllCircuitBreakers()
+                .forEach(circuitBreaker -> views.put(circuitBreaker.getName(), view(circuitBreaker)));
+        return views;
+    }
+
+    @ReadOperation
+    public BreakerView breaker(@Selector String name) {
+        return callGuard.getCircuitBreakers().find(name).map(this::view).orElse(null);
+    }
+
+    @WriteOperation
+    public BreakerView transition(@Selector String name, CircuitBreaker.State state) {
+        CircuitBreaker circuitBreaker = callGuard.getCircuitBreakers().find(name).orElse(null);
+        if (circuitBreaker == null) {
+            return null;
+        }
+        switch (state) {
+            case CLOSED -> circuitBreaker.transitionToClosedState();
+            case OPEN -> circuitBreaker.transitionToOpenState();
+            case HALF_OPEN -> circuitBreaker.transitionToHalfOpenState();
+            case FORCED_OPEN -> circuitBreaker.transitionToForcedOpenState();
+            case DISABLED -> circuitBreaker.transitionToDisabledState();
+            case METRICS_ONLY -> circuitBreaker.transitionToMetricsOnlyState();
+        }
+        return view(circuitBreaker);
+    }
+
+    private BreakerView view(CircuitBreaker circuitBreaker) {
+        CircuitBreaker.Metrics metrics = circuitBreaker.getMetrics();
+        Bulkhead.Metrics bulkhead = callGuard.getBulkheads().bulkhead(circuitBreaker.getName()).getMetrics();
+        return new BreakerView(
+                circuitBreaker.getState(),
+                metrics.getFailureRate(),
+                metrics.getSlowCallRate(),
+                metrics.getNumberOfBufferedCalls(),
+                metrics.getNumberOfNotPermittedCalls(),
+                bulkhead.getAvailableConcurrentCalls(),
+                bulkhead.getMaxAllowedConcurrentCalls());
+    }
+
+    public record BreakerView(
+            CircuitBreaker.State state,
+            float failureRate,
+            float slowCallRate,
+            int bufferedCalls,
+            long notPermittedCalls,
+            int availableConcurrentCalls,
+            int maxConcurrentCalls) {
+    }
+}
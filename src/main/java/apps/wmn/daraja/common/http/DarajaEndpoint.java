@@ -0,0 +1,22 @@
+package apps.wmn.daraja.common.http;
+
+/**
+ * Daraja endpoints that are isolated from each other by their own circuit breaker and bulkhead.
+ */
+public enum DarajaEndpoint {
+    AUTH("auth"),
+    STK_PUSH("stk-push"),
+    STK_QUERY("stk-query"),
+    REGISTER_URL("register-url");
+
+    private final String key;
+
+    DarajaEndpoint(String key) {
+        this.key = key;
+    }
+
+    /** Name used for the endpoint in configuration and metrics. */
+    public String key() {
+        return key;
+    }
+}
@@ -0,0 +1,135 @@
+package apps.wmn.daraja.common.http;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.common.config.DarajaHttpClientProperties;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hc.client5.http.config.ConnectionConfig;
+import org.apache.hc.client5.http.config.RequestConfig;
+import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
+import org.apache.hc.client5.http.impl.classic.HttpClientBuilder;
+import org.apache.hc.client5.http.impl.classic.HttpClients;
+import org.apache.hc.core5.util.TimeValue;
+import org.apache.hc.core5.util.Timeout;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.boot.web.client.RestTemplateBuilder;
+import org.springframework.http.client.ClientHttpRequestFactory;
+import org.springframework.http.client.HttpComponentsClientHttpRequestFactory;
+import org.springframework.http.client.JdkClientHttpRequestFactory;
+import org.springframework.web.client.RestTemplate;
+
+/**
+ * Outbound HTTP client for the Daraja API. Each environment gets its own connection pool so that
+ * sandbox traffic never competes with production for connections.
+ *
+ * <p>Calls block the calling thread. With virtual threads enabled the number of concurrent calls is
+ * bounded by the pool size and its connection request timeout rather than by the servlet thread
+ * pool, so {@code max-connections} is the knob that limits outbound concurrency.
+ */
+@Slf4j
+public class DarajaHttpClient implements DisposableBean {
+    private final Map<MpesaEnvironment, RestTemplate> restTemplates = new EnumMap<>(MpesaEnvironment.class);
+    private final List<AutoCloseable> resources = new ArrayList<>();
+
+    public DarajaHttpClient(
+            DarajaHttpClientProperties properties,
+            RestTemplateBuilder restTemplateBuilder,
+            MeterRegistry meterRegistry,
+            boolean virtualThreads) {
+        for (MpesaEnvironment environment : MpesaEnvironment.values()) {
+            DarajaHttpClientProperties.Pool pool = properties.forEnvironment(environment);
+            ClientHttpRequestFactory requestFactory =
+                    createRequestFactory(environment, pool, meterRegistry, virtualThreads);
+            restTemplates.put(environment, restTemplateBuilder.requestFactory(() -> requestFactory).build());
+            log.info("Daraja HTTP client for {} configured with {} (max connections: {})",
+                    environment, pool.getProtocol(), pool.getMaxConnections());
+        }
+    }
+
+    /**
+     * Returns the client bound to the connection pool of the given environment.
+     */
+    public RestTemplate forEnvironment(MpesaEnvironment environment) {
+        return restTemplates.get(environment);
+    }
+
+    @Override
+    public void destroy() {
+        for (AutoCloseable resource : resources) {
+            try {
+                resource.close();
+            } catch (Exception e) {
+                log.warn("Error closing Daraja HTTP client resource", e);
+            }
+        }
+    }
+
+    private ClientHttpRequestFactory createRequestFactory(
+            MpesaEnvironment environment,
+            DarajaHttpClientProperties.Pool pool,
+            MeterRegistry meterRegistry,
+            boolean virtualThreads) {
+        return switch (pool.getProtocol()) {
+            case HTTP_1_1 -> createPooledRequestFactory(environment, pool, meterRegistry);
+            case HTTP_2 -> createHttp2RequestFactory(environment, pool, virtualThreads);
+        };
+    }
+
+    private ClientHttpRequestFactory createPooledRequestFactory(
+            MpesaEnvironment environment, DarajaHttpClientProperties.Pool pool, MeterRegistry meterRegistry) {
+        InstrumentedConnectionManager connectionManager =
+                new InstrumentedConnectionManager(environment.name().toLowerCase(), meterRegistry);
+        connectionManager.setMaxTotal(pool.getMaxConnections());
+        connectionManager.setDefaultMaxPerRoute(pool.getMaxConnections());
+        connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom()
+                .setConnectTimeout(Timeout.ofMilliseconds(pool.getConnectTimeout().toMillis()))
+                .setSocketTimeout(Timeout.ofMilliseconds(pool.getReadTimeout().toMillis()))
+                .setTimeToLive(TimeValue.ofMilliseconds(pool.getTimeToLive().toMillis()))
+                .build());
+
+        HttpClientBuilder builder = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectionRequestTimeout(
+                                Timeout.ofMilliseconds(pool.getConnectionRequestTimeout().toMillis()))
+                        .setResponseTimeout(Timeout.ofMilliseconds(pool.getResponseTimeout().toMillis()))
+                        .build())
+                .evictExpiredConnections()
+                .evictIdleConnections(TimeValue.ofMilliseconds(pool.getIdleEviction().toMillis()));
+        if (!pool.isGzip()) {
+            builder.disableContentCompression();
+        }
+
+        CloseableHttpClient httpClient = builder.build();
+        resources.add(httpClient);
+        return new HttpComponentsClientHttpRequestFactory(httpClient);
+    }
+
+    private ClientHttpRequestFactory createHttp2RequestFactory(
+            MpesaEnvironment environment, DarajaHttpClientProperties.Pool pool, boolean virtualThreads) {
+        HttpClient.Builder builder = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_2)
+                .connectTimeout(pool.getConnectTimeout());
+        if (virtualThreads) {
+            // Response handling otherwise runs on the client's own pool of platform threads
+            ExecutorService executor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("daraja-" + environment.name().toLowerCase() + "-", 0).factory());
+            resources.add(executor);
+            builder.executor(executor);
+        }
+        HttpClient httpClient = builder.build();
+        resources.add(httpClient);
+
+        JdkClientHttpRequestFactory requestFactory = new JdkClientHttpRequestFactory(httpClient);
+        requestFactory.setReadTimeout(pool.getReadTimeout());
+        return requestFactory;
+    }
+}
@@ -0,0 +1,70 @@
+package apps.wmn.daraja.common.http;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.hc.client5.http.HttpRoute;
+import org.apache.hc.client5.http.impl.io.PoolingHttpClientConnectionManager;
+import org.apache.hc.client5.http.io.ConnectionEndpoint;
+import org.apache.hc.client5.http.io.LeaseRequest;
+import org.apache.hc.core5.util.Timeout;
+
+/**
+ * Pooling connection manager that reports pool occupancy and the time callers spend waiting for a
+ * connection lease.
+ */
+class InstrumentedConnectionManager extends PoolingHttpClientConnectionManager {
+    private final Timer leaseWaitTimer;
+
+    InstrumentedConnectionManager(String poolName, MeterRegistry meterRegistry) {
+        Tags tags = Tags.of("pool", poolName);
+        this.leaseWaitTimer = Timer.builder("daraja.http.pool.lease.wait")
+                .description("Time spent waiting for a pooled Daraja connection")
+                .tags(tags)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+
+        Gauge.builder("daraja.http.pool.leased", this, m -> m.getTotalStats().getLeased())
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("daraja.http.pool.available", this, m -> m.getTotalStats().getAvailable())
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("daraja.http.pool.pending", this, m -> m.getTotalStats().getPending())
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("daraja.http.pool.max", this, m -> m.getTotalStats().getMax())
+                .tags(tags).register(meterRegistry);
+        Gauge.builder("daraja.http.pool.saturation", this, InstrumentedConnectionManager::saturation)
+                .description("Ratio of leased connections to the pool maximum")
+                .tags(tags).register(meterRegistry);
+    }
+
+    @Override
+    public LeaseRequest lease(String id, HttpRoute route, Timeout requestTimeout, Object state) {
+        LeaseRequest leaseRequest = super.lease(id, route, requestTimeout, state);
+        long startedAt = System.nanoTime();
+        return new LeaseRequest() {
+            @Override
+            public ConnectionEndpoint get(Timeout timeout)
+                    throws InterruptedException, ExecutionException, TimeoutException {
+                try {
+                    return leaseRequest.get(timeout);
+                } finally {
+                    leaseWaitTimer.record(System.nanoTime() - startedAt, TimeUnit.NANOSECONDS);
+                }
+            }
+
+            @Override
+            public boolean cancel() {
+                return leaseRequest.cancel();
+            }
+        };
+    }
+
+    private double saturation() {
+        int max = getTotalStats().getMax();
+        return max == 0 ? 0.0 : (double) getTotalStats().getLeased() / max;
+    }
+}
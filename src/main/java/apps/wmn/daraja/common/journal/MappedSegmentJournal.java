@@ -0,0 +1,321 @@
+package apps.wmn.daraja.common.journal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only journal of memory-mapped, fixed-size segment files with group commit.
+ *
+ * <p>Each record is {@code [int length][int crc32c][byte type][payload]}, where length covers the
+ * type byte and payload. A zero length marks the unwritten end of a segment. Positions are global:
+ * a segment file is named after the position of its first byte, and the next segment starts
+ * exactly one segment size later, so readers skip to it when they meet the end of a segment.
+ *
+ * <p>{@link #append} returns once the record has been forced to disk. Appenders that arrive while
+ * another thread is forcing wait for it and are usually covered by the same force, so the number of
+ * fsyncs grows with the sync latency rather than with the append rate.
+ *
+ * <p>Readers only see records up to the durable position. {@link #checkpoint} records how far a
+ * consumer has applied the journal and deletes segments that lie entirely before it. On
+ * {@link #open}, the tail segment is scanned and a torn last record is discarded.
+ */
+public final class MappedSegmentJournal implements Closeable {
+    private static final int HEADER_BYTES = 8;
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final String CHECKPOINT_FILE = "checkpoint";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final NavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+    // Not a monitor: roll() forces and creates files while holding it, which would pin a virtual thread
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+
+    private Segment tail;
+    private long writePosition;
+    private volatile long durablePosition;
+    private volatile long checkpointPosition;
+
+    private MappedSegmentJournal(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * A record read back from the journal. {@code nextPosition} is where the following record
+     * starts, and is the value to checkpoint once this record has been applied.
+     */
+    public record Entry(long position, long nextPosition, byte type, byte[] payload) {
+    }
+
+    public static MappedSegmentJournal open(Path directory, int segmentSize) {
+        MappedSegmentJournal journal = new MappedSegmentJournal(directory, segmentSize);
+        try {
+            journal.recover();
+        } catch (IOException e) {
+            journal.close();
+            throw new UncheckedIOException("Failed to open journal in " + directory, e);
+        }
+        return journal;
+    }
+
+    /**
+     * Appends a record and waits until it is durable.
+     *
+     * @return the position just after the record
+     */
+    public long append(byte type, byte[] payload) {
+        int length = payload.length + 1;
+        if (HEADER_BYTES + length > segmentSize) {
+            throw new IllegalArgumentException(
+                    "Record of " + payload.length + " bytes does not fit a " + segmentSize + " byte segment");
+        }
+
+        CRC32C crc = new CRC32C();
+        crc.update(type);
+        crc.update(payload);
+
+        long end;
+        writeLock.lock();
+        try {
+            int offset = (int) (writePosition - tail.base);
+            if (offset + HEADER_BYTES + length > segmentSize) {
+                roll();
+                offset = 0;
+            }
+            MappedByteBuffer buffer = tail.buffer;
+            buffer.put(offset + HEADER_BYTES, type);
+            buffer.put(offset + HEADER_BYTES + 1, payload);
+            buffer.putInt(offset + 4, (int) crc.getValue());
+            // The length goes last so a record is never visible with a partial body
+            buffer.putInt(offset, length);
+            writePosition = tail.base + offset + HEADER_BYTES + length;
+            end = writePosition;
+        } finally {
+            writeLock.unlock();
+        }
+        awaitDurable(end);
+        return end;
+    }
+
+    /**
+     * Reads up to {@code maxEntries} durable records starting at {@code position}.
+     */
+    public List<Entry> read(long position, int maxEntries) {
+        List<Entry> entries = new ArrayList<>();
+        long limit = durablePosition;
+        while (position < limit && entries.size() < maxEntries) {
+            Map.Entry<Long, Segment> floor = segments.floorEntry(position);
+            if (floor == null) {
+                throw new IllegalStateException("No journal segment contains position " + position);
+            }
+            Segment segment = floor.getValue();
+            int offset = (int) (position - segment.base);
+            int length = offset + HEADER_BYTES <= segmentSize ? segment.buffer.getInt(offset) : 0;
+            if (length == 0) {
+                position = segment.base + segmentSize;
+                continue;
+            }
+            byte type = segment.buffer.get(offset + HEADER_BYTES);
+            byte[] payload = new byte[length - 1];
+            segment.buffer.get(offset + HEADER_BYTES + 1, payload);
+            long next = position + HEADER_BYTES + length;
+            entries.add(new Entry(position, next, type, payload));
+            position = next;
+        }
+        return entries;
+    }
+
+    /**
+     * Records that everything before {@code position} has been applied, and deletes the segments
+     * that are no longer needed.
+     */
+    public void checkpoint(long position) {
+        try {
+            Path temp = directory.resolve(CHECKPOINT_FILE + ".tmp");
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.allocate(Long.BYTES).putLong(0, position));
+                channel.force(true);
+            }
+            Files.move(temp, directory.resolve(CHECKPOINT_FILE), StandardCopyOption.ATOMIC_MOVE);
+            checkpointPosition = position;
+
+            for (Segment segment : List.copyOf(segments.headMap(position, false).values())) {
+                if (segment.base + segmentSize <= position) {
+                    segments.remove(segment.base);
+                    segment.close();
+                    Files.deleteIfExists(segment.path);
+                }
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to checkpoint journal at " + position, e);
+        }
+    }
+
+    public long checkpointPosition() {
+        return checkpointPosition;
+    }
+
+    public long durablePosition() {
+        return durablePosition;
+    }
+
+    /**
+     * Bytes appended but not yet checkpointed.
+     */
+    public long backlogBytes() {
+        return durablePosition - checkpointPosition;
+    }
+
+    @Override
+    public void close() {
+        writeLock.lock();
+        try {
+            segments.values().forEach(Segment::close);
+            segments.clear();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    private void awaitDurable(long position) {
+        if (durablePosition >= position) {
+            return;
+        }
+        syncLock.lock();
+        try {
+            if (durablePosition >= position) {
+                return;
+            }
+            long target;
+            MappedByteBuffer buffer;
+            writeLock.lock();
+            try {
+                target = writePosition;
+                buffer = tail.buffer;
+            } finally {
+                writeLock.unlock();
+            }
+            buffer.force();
+            // A roll in the meantime may already have advanced it past target
+            writeLock.lock();
+            try {
+                durablePosition = Math.max(durablePosition, target);
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    /**
+     * Seals the tail segment and starts the next one. Called with the write lock held.
+     */
+    private void roll() {
+        tail.buffer.force();
+        long base = tail.base + segmentSize;
+        try {
+            tail = openSegment(base);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to create journal segment at " + base, e);
+        }
+        writePosition = base;
+        // Everything in the sealed segment is on disk, so it is safe to expose to readers
+        durablePosition = Math.max(durablePosition, base);
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT_FILE);
+        if (Files.exists(checkpointFile)) {
+            checkpointPosition = ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong();
+        }
+
+        List<Long> bases;
+        try (Stream<Path> files = Files.list(directory)) {
+            bases = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .toList();
+        }
+        for (long base : bases) {
+            tail = openSegment(base);
+        }
+        if (tail == null) {
+            tail = openSegment(checkpointPosition);
+        }
+        checkpointPosition = Math.max(checkpointPosition, segments.firstKey());
+
+        writePosition = tail.base + scanTail();
+        tail.buffer.force();
+        durablePosition = writePosition;
+    }
+
+    /**
+     * Finds the end of the last valid record in the tail segment, zeroing anything after it that
+     * a crash left half written.
+     */
+    private int scanTail() {
+        MappedByteBuffer buffer = tail.buffer;
+        int offset = 0;
+        while (offset + HEADER_BYTES <= segmentSize) {
+            int length = buffer.getInt(offset);
+            if (length == 0) {
+                return offset;
+            }
+            if (length < 0 || offset + HEADER_BYTES + length > segmentSize || !checksumMatches(buffer, offset, length)) {
+                for (int i = offset; i < segmentSize; i++) {
+                    buffer.put(i, (byte) 0);
+                }
+                return offset;
+            }
+            offset += HEADER_BYTES + length;
+        }
+        return offset;
+    }
+
+    private static boolean checksumMatches(MappedByteBuffer buffer, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(buffer.slice(offset + HEADER_BYTES, length));
+        return (int) crc.getValue() == buffer.getInt(offset + 4);
+    }
+
+    private Segment openSegment(long base) throws IOException {
+        Path path = directory.resolve(String.format("%020d%s", base, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        Segment segment = new Segment(base, path, channel, buffer);
+        segments.put(base, segment);
+        return segment;
+    }
+
+    private record Segment(long base, Path path, FileChannel channel, MappedByteBuffer buffer) {
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException ignored) {
+                // The mapping stays valid until it is garbage collected
+            }
+        }
+    }
+}
@@ -5,6 +5,9 @@ import static org.springframework.security.config.Customizer.withDefaults;
 import java.util.Arrays;
 import java.util.Collections;
 import lombok.RequiredArgsConstructor;
+import org.springframework.boot.actuate.autoconfigure.security.servlet.EndpointRequest;
+import org.springframework.boot.actuate.health.HealthEndpoint;
+import org.springframework.boot.actuate.info.InfoEndpoint;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.http.HttpHeaders;
@@ -22,6 +25,11 @@ import org.springframework.web.filter.CorsFilter;
 @RequiredArgsConstructor
 @EnableMethodSecurity(securedEnabled = true)
 public class SecurityConfiguration {
+    /**
+     * Keycloak account role required for every actuator endpoint other than health and info; these
+     * include operations such as forcing the Daraja circuit breakers open.
+     */
+    static final String ACTUATOR_ROLE = "daraja_operator";
 
     @Bean
     public SecurityFilterChain securityFilterChain(HttpSecurity http) throws Exception {
@@ -42,6 +50,10 @@ public class SecurityConfiguration {
                                         "/swagger-ui.html"
                                 )
                                 .permitAll()
+                                .requestMatchers(EndpointRequest.to(HealthEndpoint.class, InfoEndpoint.class))
+                                .permitAll()
+                                .requestMatchers(EndpointRequest.toAnyEndpoint())
+                                .hasRole(ACTUATOR_ROLE)
                                 .anyRequest()
                                 .permitAll()
                 )
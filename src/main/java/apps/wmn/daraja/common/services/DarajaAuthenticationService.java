@@ -2,6 +2,7 @@ package apps.wmn.daraja.common.services;
 
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
 import apps.wmn.daraja.common.exceptions.DarajaAuthException;
+import java.util.UUID;
 
 public interface DarajaAuthenticationService {
     /**
@@ -9,23 +10,30 @@ public interface DarajaAuthenticationService {
      * If a valid cached token exists for the shortcode, it will be returned.
      * Otherwise, a new token will be generated.
      *
+     * @param configId The ID of the configuration the credentials belong to, used to look them up
+     *     again when the token is renewed in the background
+     * @param consumerKey The decrypted consumer key of the shortcode
+     * @param consumerSecret The decrypted consumer secret of the shortcode
      * @param shortcode The M-Pesa shortcode to get token for
      * @param environment The environment (SANDBOX/PRODUCTION)
      * @return Valid access token string
      * @throws DarajaAuthException if token generation fails
      */
-    String getAccessToken(String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment);
+    String getAccessToken(UUID configId, String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment);
 
     /**
      * Forces the generation of a new access token for a specific shortcode,
      * invalidating any cached token.
      *
+     * @param configId The ID of the configuration the credentials belong to
+     * @param consumerKey The decrypted consumer key of the shortcode
+     * @param consumerSecret The decrypted consumer secret of the shortcode
      * @param shortcode The M-Pesa shortcode to generate token for
      * @param environment The environment (SANDBOX/PRODUCTION)
      * @return New access token
      * @throws DarajaAuthException if token generation fails
      */
-    String forceNewAccessToken(String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment);
+    String forceNewAccessToken(UUID configId, String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment);
 
     /**
      * Clears all cached authentication tokens.
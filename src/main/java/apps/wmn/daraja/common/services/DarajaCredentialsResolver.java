@@ -0,0 +1,20 @@
+package apps.wmn.daraja.common.services;
+
+import java.util.Optional;
+import java.util.UUID;
+
+/**
+ * Looks up the consumer credentials of a shortcode configuration when they are needed, so that
+ * background token renewal does not have to keep decrypted secrets around between refreshes.
+ */
+public interface DarajaCredentialsResolver {
+    /**
+     * Returns the decrypted consumer key and secret of the configuration, or empty if it no
+     * longer exists or has been deactivated.
+     *
+     * @param configId the configuration ID
+     */
+    Optional<ConsumerCredentials> resolve(UUID configId);
+
+    record ConsumerCredentials(String consumerKey, String consumerSecret) {}
+}
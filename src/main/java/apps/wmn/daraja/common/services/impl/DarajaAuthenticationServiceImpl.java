@@ -1,88 +1,234 @@
 package apps.wmn.daraja.common.services.impl;
 
 import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
-import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.cache.ExpiringValue;
+import apps.wmn.daraja.common.config.DarajaAuthProperties;
 import apps.wmn.daraja.common.config.MpesaUrlConfig;
 import apps.wmn.daraja.common.dto.AccessTokenResponse;
 import apps.wmn.daraja.common.exceptions.DarajaAuthException;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.http.DarajaCallGuard;
+import apps.wmn.daraja.common.http.DarajaEndpoint;
+import apps.wmn.daraja.common.http.DarajaHttpClient;
 import apps.wmn.daraja.common.services.DarajaAuthenticationService;
-import lombok.RequiredArgsConstructor;
+import apps.wmn.daraja.common.services.DarajaCredentialsResolver;
+import apps.wmn.daraja.common.services.DarajaCredentialsResolver.ConsumerCredentials;
+import com.github.benmanes.caffeine.cache.Cache;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Cacheable;
+import org.springframework.cache.CacheManager;
 import org.springframework.http.*;
-import org.springframework.security.crypto.encrypt.TextEncryptor;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
 
-import java.time.LocalDateTime;
+import java.time.Instant;
 import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
 
 @Service
 @Slf4j
-@RequiredArgsConstructor
 public class DarajaAuthenticationServiceImpl implements DarajaAuthenticationService {
-    private final TextEncryptor textEncryptor;
+    private static final String TOKEN_CACHE = "authTokens";
 
-    private final RestTemplate restTemplate;
+    private final DarajaHttpClient darajaHttpClient;
+    private final DarajaCallGuard callGuard;
     private final MpesaUrlConfig mpesaUrlConfig;
+    private final DarajaAuthProperties authProperties;
+    private final DarajaCredentialsResolver credentialsResolver;
+    private final MeterRegistry meterRegistry;
 
-    private final Map<String, TokenDetails> tokenCache = new ConcurrentHashMap<>();
+    private final Cache<Object, Object> tokenCache;
+    private final Map<String, CompletableFuture<TokenDetails>> inFlightRequests = new ConcurrentHashMap<>();
+    private final Map<String, TokenSubscription> subscriptions = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public DarajaAuthenticationServiceImpl(
+            DarajaHttpClient darajaHttpClient,
+            DarajaCallGuard callGuard,
+            MpesaUrlConfig mpesaUrlConfig,
+            DarajaAuthProperties authProperties,
+            DarajaCredentialsResolver credentialsResolver,
+            CacheManager cacheManager,
+            MeterRegistry meterRegistry) {
+        this.darajaHttpClient = darajaHttpClient;
+        this.callGuard = callGuard;
+        this.mpesaUrlConfig = mpesaUrlConfig;
+        this.authProperties = authProperties;
+        this.credentialsResolver = credentialsResolver;
+        this.meterRegistry = meterRegistry;
+        // Tokens are written straight to the native cache so that a token fetched inside a
+        // transaction is visible to other callers immediately rather than after commit.
+        this.tokenCache = (Cache<Object, Object>) cacheManager.getCache(TOKEN_CACHE).getNativeCache();
+    }
 
     @Override
-    @Cacheable(value = "authTokens", key = "#shortcode + '_' + #environment")
-    public String getAccessToken(String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment) {
-        String cacheKey = shortcode + "_" + environment;
-        TokenDetails cachedDetails = tokenCache.get(cacheKey);
+    public String getAccessToken(
+            UUID configId, String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment) {
+        TokenSubscription subscription = subscribe(configId, shortcode, environment);
+        TokenDetails cachedDetails = (TokenDetails) tokenCache.getIfPresent(subscription.cacheKey());
 
         if (isTokenValid(cachedDetails)) {
             log.debug("Using cached access token for shortcode: {}", shortcode);
-            return cachedDetails.token;
+            return cachedDetails.token();
         }
 
         log.info("Generating new Daraja access token for shortcode: {}", shortcode);
-        return generateNewAccessToken(shortcode, environment, consumerKey, consumerSecret);
+        return acquireToken(subscription, new ConsumerCredentials(consumerKey, consumerSecret), Instant.now(), "request")
+                .token();
     }
 
     @Override
-    @CacheEvict(value = "authTokens", key = "#shortcode + '_' + #environment")
-    public String forceNewAccessToken(String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment) {
+    public String forceNewAccessToken(
+            UUID configId, String consumerKey, String consumerSecret, String shortcode, MpesaEnvironment environment) {
         log.info("Forcing generation of new access token for shortcode: {}", shortcode);
-        String cacheKey = shortcode + "_" + environment;
-        tokenCache.remove(cacheKey);
-        return generateNewAccessToken(shortcode, environment, consumerKey, consumerSecret);
+        TokenSubscription subscription = subscribe(configId, shortcode, environment);
+        tokenCache.invalidate(subscription.cacheKey());
+        return acquireToken(subscription, new ConsumerCredentials(consumerKey, consumerSecret), null, "forced").token();
     }
 
     @Override
-    @CacheEvict(value = "authTokens", allEntries = true)
     public void clearTokenCache() {
         log.debug("Clearing all token caches");
-        tokenCache.clear();
+        tokenCache.invalidateAll();
+    }
+
+    /**
+     * Renews tokens that are about to expire so that request threads keep finding a valid token in
+     * the cache. Shortcodes that have gone idle, or whose configuration has been removed or
+     * deactivated, are dropped from renewal. Credentials are looked up again for every renewal
+     * rather than kept with the subscription.
+     */
+    @Scheduled(fixedDelayString = "${mpesa.auth.refresh-interval:30s}")
+    public void refreshExpiringTokens() {
+        Instant now = Instant.now();
+        Instant refreshThreshold = now.plus(authProperties.getRefreshAhead());
+
+        subscriptions.values().forEach(subscription -> {
+            if (subscription.lastUsed().plus(authProperties.getIdleTimeout()).isBefore(now)) {
+                log.debug("Dropping idle token subscription for shortcode: {}", subscription.shortcode());
+                subscriptions.remove(subscription.cacheKey(), subscription);
+                return;
+            }
+
+            TokenDetails cachedDetails = (TokenDetails) tokenCache.getIfPresent(subscription.cacheKey());
+            if (cachedDetails == null || cachedDetails.expiryTime().isBefore(refreshThreshold)) {
+                try {
+                    Optional<ConsumerCredentials> credentials = credentialsResolver.resolve(subscription.configId());
+                    if (credentials.isEmpty()) {
+                        log.debug("Dropping token subscription of inactive configuration for shortcode: {}",
+                                subscription.shortcode());
+                        subscriptions.remove(subscription.cacheKey(), subscription);
+                        return;
+                    }
+                    acquireToken(subscription, credentials.get(), refreshThreshold, "background");
+                } catch (RuntimeException e) {
+                    log.warn("Background token refresh failed for shortcode: {}", subscription.shortcode(), e);
+                }
+            }
+        });
+    }
+
+    private TokenSubscription subscribe(UUID configId, String shortcode, MpesaEnvironment environment) {
+        TokenSubscription subscription = new TokenSubscription(configId, shortcode, environment, Instant.now());
+        subscriptions.put(subscription.cacheKey(), subscription);
+        return subscription;
     }
 
-    private String generateNewAccessToken(String shortcode, MpesaEnvironment environment, String consumerKey, String consumerSecret) {
+    /**
+     * Single-flight token acquisition: the first caller for a shortcode and environment performs the
+     * OAuth request while concurrent callers wait on the same future.
+     *
+     * @param validAfter a cached token that is still valid at this instant is returned instead of
+     *     fetching a new one, which covers callers that lost the race to a fetch that has just
+     *     finished; {@code null} always fetches
+     */
+    private TokenDetails acquireToken(
+            TokenSubscription subscription, ConsumerCredentials credentials, Instant validAfter, String trigger) {
+        CompletableFuture<TokenDetails> request = new CompletableFuture<>();
+        CompletableFuture<TokenDetails> inFlight = inFlightRequests.putIfAbsent(subscription.cacheKey(), request);
+        if (inFlight != null) {
+            meterRegistry.counter("daraja.auth.token.coalesced",
+                    "environment", subscription.environment().name()).increment();
+            return awaitToken(inFlight);
+        }
+
+        TokenDetails cachedDetails = validAfter != null
+                ? (TokenDetails) tokenCache.getIfPresent(subscription.cacheKey())
+                : null;
+        if (cachedDetails != null && validAfter.isBefore(cachedDetails.expiryTime())) {
+            request.complete(cachedDetails);
+            inFlightRequests.remove(subscription.cacheKey(), request);
+            meterRegistry.counter("daraja.auth.token.coalesced",
+                    "environment", subscription.environment().name()).increment();
+            return cachedDetails;
+        }
+
+        Timer.Sample sample = Timer.start(meterRegistry);
+        String outcome = "failure";
         try {
-            HttpHeaders headers = createAuthHeaders(consumerKey, consumerSecret);
+            TokenDetails details = generateNewAccessToken(subscription, credentials);
+            outcome = "success";
+            request.complete(details);
+            return details;
+        } catch (RuntimeException e) {
+            request.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlightRequests.remove(subscription.cacheKey(), request);
+            sample.stop(meterRegistry.timer("daraja.auth.token.refresh",
+                    "environment", subscription.environment().name(),
+                    "trigger", trigger,
+                    "outcome", outcome));
+        }
+    }
+
+    private TokenDetails awaitToken(CompletableFuture<TokenDetails> inFlight) {
+        try {
+            return inFlight.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof DarajaAuthException authException) {
+                throw authException;
+            }
+            if (e.getCause() instanceof DarajaUnavailableException unavailableException) {
+                throw unavailableException;
+            }
+            throw new DarajaAuthException("Failed to generate access token", e.getCause());
+        }
+    }
+
+    private TokenDetails generateNewAccessToken(TokenSubscription subscription, ConsumerCredentials credentials) {
+        String shortcode = subscription.shortcode();
+        MpesaEnvironment environment = subscription.environment();
+        try {
+            HttpHeaders headers = createAuthHeaders(credentials.consumerKey(), credentials.consumerSecret());
             HttpEntity<String> request = new HttpEntity<>(headers);
 
             String authUrl = getAuthUrl(environment);
 
-            ResponseEntity<AccessTokenResponse> response = restTemplate.exchange(
-                    authUrl,
-                    HttpMethod.GET,
-                    request,
-                    AccessTokenResponse.class
-            );
+            ResponseEntity<AccessTokenResponse> response = callGuard.call(environment, DarajaEndpoint.AUTH,
+                    () -> darajaHttpClient.forEnvironment(environment).exchange(
+                            authUrl,
+                            HttpMethod.GET,
+                            request,
+                            AccessTokenResponse.class
+                    ));
 
             if (response.getStatusCode() == HttpStatus.OK && response.getBody() != null) {
-                updateTokenCache(shortcode, environment, response.getBody());
-                log.debug("Token {} generated successfully for shortcode: {}", response.getBody().accessToken(), shortcode);
-                return response.getBody().accessToken();
+                TokenDetails details = updateTokenCache(subscription, response.getBody());
+                log.debug("Token generated successfully for shortcode: {}", shortcode);
+                return details;
             }
 
             throw new DarajaAuthException("Failed to generate access token. Invalid response from Daraja API");
 
+        } catch (DarajaUnavailableException e) {
+            log.warn("Daraja auth unavailable for shortcode: {}: {}", shortcode, e.getMessage());
+            throw e;
         } catch (Exception e) {
             log.error("Error generating Daraja access token for shortcode: {}", shortcode, e);
             throw new DarajaAuthException("Failed to generate access token", e);
@@ -90,26 +236,25 @@ public class DarajaAuthenticationServiceImpl implements DarajaAuthenticationServ
     }
 
     private HttpHeaders createAuthHeaders(String consumerKey, String consumerSecret) {
-        log.info("Consumer Key {} Consumer Secret {}", textEncryptor.decrypt(consumerKey), textEncryptor.decrypt(consumerSecret));
         HttpHeaders headers = new HttpHeaders();
-        headers.setBasicAuth(textEncryptor.decrypt(consumerKey), textEncryptor.decrypt(consumerSecret));
+        headers.setBasicAuth(consumerKey, consumerSecret);
         return headers;
     }
 
-    private void updateTokenCache(String shortcode, MpesaEnvironment environment, AccessTokenResponse tokenResponse) {
-        String cacheKey = shortcode + "_" + environment;
+    private TokenDetails updateTokenCache(TokenSubscription subscription, AccessTokenResponse tokenResponse) {
         TokenDetails details = new TokenDetails(
                 tokenResponse.accessToken(),
-                LocalDateTime.now()
+                Instant.now()
                         .plusSeconds(tokenResponse.expiresIn())
-                        .minusMinutes(3)
+                        .minus(authProperties.getExpirySkew())
         );
-        tokenCache.put(cacheKey, details);
-        log.info("Access token cache updated for shortcode: {}. Valid until: {}", shortcode, details.expiryTime);
+        tokenCache.put(subscription.cacheKey(), details);
+        log.info("Access token cache updated for shortcode: {}. Valid until: {}", subscription.shortcode(), details.expiryTime());
+        return details;
     }
 
     private boolean isTokenValid(TokenDetails details) {
-        return details != null && LocalDateTime.now().isBefore(details.expiryTime);
+        return details != null && Instant.now().isBefore(details.expiryTime());
     }
 
     private String getAuthUrl(MpesaEnvironment environment) {
@@ -118,5 +263,19 @@ public class DarajaAuthenticationServiceImpl implements DarajaAuthenticationServ
                 : mpesaUrlConfig.getUrls().getSandbox().getAuthUrl();
     }
 
-    private record TokenDetails(String token, LocalDateTime expiryTime) {}
-}
\ No newline at end of file
+    /**
+     * Token entries expire from the cache at {@code expiryTime}, which tracks the token's own
+     * {@code expires_in} less a safety margin.
+     */
+    private record TokenDetails(String token, Instant expiryTime) implements ExpiringValue {}
+
+    private record TokenSubscription(
+            UUID configId,
+            String shortcode,
+            MpesaEnvironment environment,
+            Instant lastUsed) {
+        String cacheKey() {
+            return shortcode + "_" + environment;
+        }
+    }
+}
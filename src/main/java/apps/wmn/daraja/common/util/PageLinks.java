@@ -1,8 +1,10 @@
 package apps.wmn.daraja.common.util;
 
+import apps.wmn.daraja.common.dto.CursorPage;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.domain.Page;
+import org.springframework.web.util.UriComponentsBuilder;
 
 @Getter
 @Setter
@@ -36,4 +38,25 @@ public class PageLinks {
 
         return links;
     }
+
+    /**
+     * Links of a keyset page, keeping the filters of the current request. Keyset pages only link
+     * forward, so there is no previous or last link.
+     */
+    public static PageLinks from(CursorPage<?> page, UriComponentsBuilder currentRequest) {
+        PageLinks links = new PageLinks();
+        UriComponentsBuilder builder = currentRequest.cloneBuilder()
+                .replaceQueryParam("size", page.size());
+
+        links.setFirst(builder.cloneBuilder().replaceQueryParam("cursor").toUriString());
+        links.setSelf(page.cursor() != null
+                ? builder.cloneBuilder().replaceQueryParam("cursor", page.cursor()).toUriString()
+                : links.getFirst());
+
+        if (page.hasNext()) {
+            links.setNext(builder.cloneBuilder().replaceQueryParam("cursor", page.nextCursor()).toUriString());
+        }
+
+        return links;
+    }
 }
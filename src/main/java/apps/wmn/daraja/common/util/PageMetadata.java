@@ -1,19 +1,25 @@
 package apps.wmn.daraja.common.util;
 
+import apps.wmn.daraja.common.dto.CursorPage;
 import lombok.Getter;
 import lombok.Setter;
 import org.springframework.data.domain.Page;
 
 @Getter @Setter
 public class PageMetadata {
-    private int pageNumber;
+    /** Null for keyset pages, which have no page number. */
+    private Integer pageNumber;
     private int pageSize;
-    private long totalElements;
-    private int totalPages;
+    /** Null for keyset pages, which are never counted. */
+    private Long totalElements;
+    /** Null for keyset pages, which are never counted. */
+    private Integer totalPages;
     private boolean isFirst;
     private boolean isLast;
     private boolean hasNext;
     private boolean hasPrevious;
+    /** Token that fetches the next keyset page; null for offset pages and on the last page. */
+    private String nextCursor;
 
     public static PageMetadata from(Page<?> page) {
         PageMetadata metadata = new PageMetadata();
@@ -27,4 +33,15 @@ public class PageMetadata {
         metadata.setHasPrevious(page.hasPrevious());
         return metadata;
     }
+
+    public static PageMetadata from(CursorPage<?> page) {
+        PageMetadata metadata = new PageMetadata();
+        metadata.setPageSize(page.size());
+        metadata.setFirst(page.cursor() == null);
+        metadata.setLast(!page.hasNext());
+        metadata.setHasNext(page.hasNext());
+        metadata.setHasPrevious(page.cursor() != null);
+        metadata.setNextCursor(page.nextCursor());
+        return metadata;
+    }
 }
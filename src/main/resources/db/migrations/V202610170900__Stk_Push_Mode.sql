@@ -0,0 +1,8 @@
+-- Per-shortcode choice between calling Daraja on the request thread (SYNC) or in the background (ASYNC)
+ALTER TABLE mpesa_shortcode_configs
+    ADD COLUMN stk_push_mode VARCHAR(10) NOT NULL DEFAULT 'SYNC'
+        CHECK (stk_push_mode IN ('SYNC', 'ASYNC'));
+
+-- Lets clients of asynchronous pushes pick up the Daraja checkout request ID
+ALTER TABLE mpesa_payments
+    ADD COLUMN checkout_request_id VARCHAR(50);
@@ -0,0 +1,31 @@
+-- Outbox of STK pushes awaiting dispatch, written in the same transaction as the payment
+CREATE TABLE stk_push_outbox
+(
+    id             BIGSERIAL PRIMARY KEY,
+    uuid           UUID                              DEFAULT gen_random_uuid(),
+    payment_id     BIGINT                   NOT NULL REFERENCES mpesa_payments (id),
+    environment    VARCHAR(20)              NOT NULL
+        CHECK (environment IN ('SANDBOX', 'PRODUCTION')),
+    status         VARCHAR(20)              NOT NULL DEFAULT 'PENDING'
+        CHECK (status IN ('PENDING', 'DISPATCHING', 'DISPATCHED', 'FAILED', 'ABANDONED')),
+    payload        JSONB                    NOT NULL,
+    attempts       INTEGER                  NOT NULL DEFAULT 0,
+    claimed_date   TIMESTAMP WITH TIME ZONE,
+    completed_date TIMESTAMP WITH TIME ZONE,
+    last_error     TEXT,
+    created_date   TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    modified_date  TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    created_by     VARCHAR(50),
+    modified_by    VARCHAR(50)
+);
+
+-- Dispatchers only ever scan pending and in-flight rows
+CREATE INDEX idx_stk_push_outbox_pending ON stk_push_outbox (id) WHERE status = 'PENDING';
+CREATE INDEX idx_stk_push_outbox_dispatching ON stk_push_outbox (claimed_date) WHERE status = 'DISPATCHING';
+CREATE INDEX idx_stk_push_outbox_payment ON stk_push_outbox (payment_id);
+
+CREATE TRIGGER update_stk_push_outbox_modified_date
+    BEFORE UPDATE
+    ON stk_push_outbox
+    FOR EACH ROW
+    EXECUTE FUNCTION update_modified_date_column();
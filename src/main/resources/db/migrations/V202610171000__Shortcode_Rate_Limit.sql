@@ -0,0 +1,4 @@
+-- Per-shortcode overrides for the outbound Daraja rate limit; NULL falls back to mpesa.rate-limit
+ALTER TABLE mpesa_shortcode_configs
+    ADD COLUMN rate_limit_per_second DOUBLE PRECISION CHECK (rate_limit_per_second > 0),
+    ADD COLUMN rate_limit_burst      INTEGER CHECK (rate_limit_burst > 0);
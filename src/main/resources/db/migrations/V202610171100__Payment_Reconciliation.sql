@@ -0,0 +1,13 @@
+-- STK pushes are reconciled against the environment they were sent to
+ALTER TABLE mpesa_payments
+    ADD COLUMN environment VARCHAR(20);
+
+UPDATE mpesa_payments
+SET environment = raw_request ->> 'environment'
+WHERE transaction_type = 'STK_PUSH'
+  AND raw_request ? 'environment';
+
+-- Keyset scan of pending STK pushes by the reconciliation engine
+CREATE INDEX idx_mpesa_payments_reconcilable
+    ON mpesa_payments (id)
+    WHERE transaction_status = 'PENDING' AND transaction_type = 'STK_PUSH';
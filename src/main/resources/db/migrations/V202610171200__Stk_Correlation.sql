@@ -0,0 +1,17 @@
+-- STK callbacks are correlated on the IDs Daraja returns for the push, not on transaction_id,
+-- which holds the receipt number once the push completes
+ALTER TABLE mpesa_payments
+    ADD COLUMN merchant_request_id VARCHAR(50);
+
+UPDATE mpesa_payments
+SET merchant_request_id = raw_callback ->> 'MerchantRequestID'
+WHERE transaction_type = 'STK_PUSH'
+  AND raw_callback ? 'MerchantRequestID';
+
+CREATE UNIQUE INDEX idx_mpesa_payments_checkout_request
+    ON mpesa_payments (checkout_request_id)
+    WHERE checkout_request_id IS NOT NULL;
+
+CREATE INDEX idx_mpesa_payments_merchant_request
+    ON mpesa_payments (merchant_request_id)
+    WHERE merchant_request_id IS NOT NULL;
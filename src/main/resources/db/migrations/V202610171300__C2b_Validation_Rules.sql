@@ -0,0 +1,10 @@
+-- Per-shortcode rules the C2B validation endpoint applies before Safaricom completes a payment;
+-- a NULL rule is not checked
+ALTER TABLE mpesa_shortcode_configs
+    ADD COLUMN validation_min_amount       NUMERIC(12, 2) CHECK (validation_min_amount >= 0),
+    ADD COLUMN validation_max_amount       NUMERIC(12, 2) CHECK (validation_max_amount >= 0),
+    ADD COLUMN validation_bill_ref_pattern VARCHAR(255),
+    ADD COLUMN validation_allowed_accounts TEXT[],
+    ADD CONSTRAINT validation_amount_range
+        CHECK (validation_min_amount IS NULL OR validation_max_amount IS NULL
+            OR validation_min_amount <= validation_max_amount);
@@ -0,0 +1,13 @@
+-- Keyset pagination of payment search seeks on (created_date, id), newest first. The indexes are
+-- built concurrently so the payments table stays writable; Flyway runs this script outside a
+-- transaction because every statement in it is non-transactional.
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_mpesa_payments_created_id
+    ON mpesa_payments (created_date DESC, id DESC);
+
+-- Phone number is the filter most searches use
+CREATE INDEX CONCURRENTLY IF NOT EXISTS idx_mpesa_payments_phone_created_id
+    ON mpesa_payments (phone_number, created_date DESC, id DESC);
+
+-- Both are prefixes of the indexes above
+DROP INDEX CONCURRENTLY IF EXISTS idx_mpesa_payments_created;
+DROP INDEX CONCURRENTLY IF EXISTS idx_mpesa_payments_phone;
@@ -0,0 +1,7 @@
+-- STK pushes whose outcome cannot be established automatically are parked for manual review
+-- instead of being reported as failed
+ALTER TABLE mpesa_payments
+    DROP CONSTRAINT mpesa_payments_transaction_status_check,
+    ADD CONSTRAINT mpesa_payments_transaction_status_check
+        CHECK (transaction_status IN
+               ('PENDING', 'COMPLETED', 'FAILED', 'CANCELLED', 'REVERSED', 'REFUNDED', 'REQUIRES_REVIEW'));
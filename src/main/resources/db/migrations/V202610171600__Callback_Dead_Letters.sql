@@ -0,0 +1,26 @@
+-- Callbacks that were acknowledged to Safaricom but could not be applied to a payment. Safaricom
+-- will not deliver them again, so they are kept here until they are applied or reviewed.
+CREATE TABLE callback_dead_letters
+(
+    id            BIGSERIAL PRIMARY KEY,
+    callback_type VARCHAR(10)              NOT NULL
+        CHECK (callback_type IN ('STK', 'C2B', 'UNKNOWN')),
+    callback_id   VARCHAR(50),
+    reason        VARCHAR(20)              NOT NULL
+        CHECK (reason IN ('UNMATCHED', 'UNAPPLIABLE', 'UNREADABLE')),
+    payload       BYTEA                    NOT NULL,
+    last_error    TEXT,
+    created_date  TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP,
+    modified_date TIMESTAMP WITH TIME ZONE NOT NULL DEFAULT CURRENT_TIMESTAMP
+);
+
+-- A redelivered callback replaces its earlier dead letter rather than adding another
+CREATE UNIQUE INDEX idx_callback_dead_letters_callback
+    ON callback_dead_letters (callback_type, callback_id)
+    WHERE callback_id IS NOT NULL;
+
+CREATE TRIGGER update_callback_dead_letters_modified_date
+    BEFORE UPDATE
+    ON callback_dead_letters
+    FOR EACH ROW
+    EXECUTE FUNCTION update_modified_date_column();
@@ -0,0 +1,326 @@
+package apps.wmn.daraja.simulator;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the Daraja API for offline load and latency testing. Implements OAuth, STK push,
+ * STK push query and C2B URL registration, and sends STK and C2B callbacks back to the application
+ * with configurable latency, error rates and callback delays (see {@link SimulatorSettings}).
+ *
+ * <p>Start it with {@code ./gradlew runSimulator} and run the application with the
+ * {@code simulator} profile, which points {@code mpesa.urls} at it.
+ */
+public class DarajaSimulator {
+    private static final DateTimeFormatter TIMESTAMP_FORMAT = DateTimeFormatter.ofPattern("yyyyMMddHHmmss");
+    private static final String QUERY_IN_PROGRESS_ERROR = "500.001.1001";
+
+    private final SimulatorSettings settings;
+    private final LatencyModel latency;
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final HttpClient callbackClient = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(5))
+            .executor(Executors.newVirtualThreadPerTaskExecutor())
+            .build();
+    private final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(2);
+
+    /**
+     * Outcome of each STK push once its callback has been sent, for the query endpoint. Entries are
+     * dropped after {@code queryResultRetention}.
+     */
+    private final Map<String, StkResult> stkResults = new ConcurrentHashMap<>();
+    /** Confirmation URL registered per shortcode. */
+    private final Map<String, String> confirmationUrls = new ConcurrentHashMap<>();
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong injectedErrors = new AtomicLong();
+    private final AtomicLong callbacksSent = new AtomicLong();
+    private final AtomicLong callbacksFailed = new AtomicLong();
+
+    public DarajaSimulator(SimulatorSettings settings) {
+        this.settings = settings;
+        this.latency = new LatencyModel(settings.latencyMedian(), settings.latencyP99());
+    }
+
+    public static void main(String[] args) throws IOException {
+        new DarajaSimulator(SimulatorSettings.fromSystemProperties()).start();
+    }
+
+    public void start() throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(settings.port()), 1024);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.createContext("/oauth/v1/generate", handler(this::generateToken));
+        server.createContext("/mpesa/stkpush/v1/processrequest", handler(this::stkPush));
+        server.createContext("/mpesa/stkpushquery/v1/query", handler(this::stkQuery));
+        server.createContext("/mpesa/c2b/v1/registerurl", handler(this::registerUrl));
+        server.createContext("/mpesa/c2b/v1/simulate", handler(this::simulateC2b));
+        server.start();
+
+        scheduler.scheduleAtFixedRate(this::printStats, 10, 10, TimeUnit.SECONDS);
+        scheduler.scheduleAtFixedRate(this::expireStkResults, 10, 10, TimeUnit.SECONDS);
+        if (settings.c2bPaymentsPerSecond() > 0) {
+            long periodMicros = (long) (1_000_000 / settings.c2bPaymentsPerSecond());
+            scheduler.scheduleAtFixedRate(this::sendRandomC2bPayment, periodMicros, periodMicros, TimeUnit.MICROSECONDS);
+        }
+        System.out.println("Daraja simulator listening on port " + settings.port() + " with " + settings);
+    }
+
+    private Reply generateToken(Map<String, Object> body) {
+        return Reply.ok(Map.of("access_token", UUID.randomUUID().toString().replace("-", ""), "expires_in", "3599"));
+    }
+
+    private Reply stkPush(Map<String, Object> body) {
+        Reply injected = injectFailure(true);
+        if (injected != null) {
+            return injected;
+        }
+
+        String merchantRequestId = "SIM-" + UUID.randomUUID();
+        String checkoutRequestId = "ws_CO_" + UUID.randomUUID().toString().replace("-", "");
+        long delayMillis = ThreadLocalRandom.current().nextLong(
+                settings.callbackMinDelay().toMillis(), settings.callbackMaxDelay().toMillis() + 1);
+        scheduler.schedule(() -> sendStkCallback(body, merchantRequestId, checkoutRequestId),
+                delayMillis, TimeUnit.MILLISECONDS);
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("MerchantRequestID", merchantRequestId);
+        response.put("CheckoutRequestID", checkoutRequestId);
+        response.put("ResponseCode", "0");
+        response.put("ResponseDescription", "Success. Request accepted for processing");
+        response.put("CustomerMessage", "Success. Request accepted for processing");
+        return Reply.ok(response);
+    }
+
+    private Reply stkQuery(Map<String, Object> body) {
+        String checkoutRequestId = String.valueOf(body.get("CheckoutRequestID"));
+        StkResult result = stkResults.get(checkoutRequestId);
+        if (result == null) {
+            return new Reply(500, Map.of(
+                    "requestId", UUID.randomUUID().toString(),
+                    "errorCode", QUERY_IN_PROGRESS_ERROR,
+                    "errorMessage", "The transaction is being processed"));
+        }
+
+        Map<String, Object> response = new LinkedHashMap<>();
+        response.put("ResponseCode", "0");
+        response.put("ResponseDescription", "The service request has been accepted successsfully");
+        response.put("MerchantRequestID", result.merchantRequestId());
+        response.put("CheckoutRequestID", checkoutRequestId);
+        response.put("ResultCode", result.resultCode());
+        response.put("ResultDesc", result.resultDesc());
+        return Reply.ok(response);
+    }
+
+    private Reply registerUrl(Map<String, Object> body) {
+        Reply injected = injectFailure(false);
+        if (injected != null) {
+            return injected;
+        }
+        confirmationUrls.put(String.valueOf(body.get("ShortCode")), String.valueOf(body.get("ConfirmationURL")));
+        return Reply.ok(Map.of(
+                "OriginatorCoversationID", UUID.randomUUID().toString(),
+                "ResponseCode", "0",
+                "ResponseDescription", "Success"));
+    }
+
+    /**
+     * Mirrors the sandbox C2B simulate endpoint: sends a confirmation for the given payment to the
+     * URL registered for the shortcode.
+     */
+    private Reply simulateC2b(Map<String, Object> body) {
+        String shortCode = String.valueOf(body.get("ShortCode"));
+        if (!confirmationUrls.containsKey(shortCode)) {
+            return new Reply(400, Map.of("errorCode", "400.002.02", "errorMessage", "No URL registered for " + shortCode));
+        }
+        scheduler.execute(() -> sendC2bCallback(shortCode,
+                String.valueOf(body.getOrDefault("Amount", "1")),
+                String.valueOf(body.getOrDefault("Msisdn", "254708374149")),
+                String.valueOf(body.getOrDefault("BillRefNumber", ""))));
+        return Reply.ok(Map.of(
+                "OriginatorCoversationID", UUID.randomUUID().toString(),
+                "ResponseCode", "0",
+                "ResponseDescription", "Accept the service request successfully."));
+    }
+
+    /**
+     * Answers the request with an injected error at the configured rates, or returns null.
+     */
+    private Reply injectFailure(boolean throttleable) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        if (roll < settings.errorRate()) {
+            injectedErrors.incrementAndGet();
+            return new Reply(500, Map.of("errorCode", "500.003.02", "errorMessage", "System is busy. Please try again"));
+        }
+        if (throttleable && roll < settings.errorRate() + settings.throttleRate()) {
+            injectedErrors.incrementAndGet();
+            return new Reply(429, Map.of("errorCode", "429.000.01", "errorMessage", "Too many requests"));
+        }
+        return null;
+    }
+
+    private void sendStkCallback(Map<String, Object> push, String merchantRequestId, String checkoutRequestId) {
+        double roll = ThreadLocalRandom.current().nextDouble();
+        StkResult result;
+        if (roll < settings.successRate()) {
+            result = new StkResult(merchantRequestId, "0", "The service request is processed successfully.", Instant.now());
+        } else if (roll < settings.successRate() + settings.cancelRate()) {
+            result = new StkResult(merchantRequestId, "1032", "Request cancelled by user", Instant.now());
+        } else {
+            result = new StkResult(merchantRequestId, "1037", "DS timeout user cannot be reached", Instant.now());
+        }
+        stkResults.put(checkoutRequestId, result);
+
+        Map<String, Object> callback = new LinkedHashMap<>();
+        callback.put("MerchantRequestID", merchantRequestId);
+        callback.put("CheckoutRequestID", checkoutRequestId);
+        callback.put("ResultCode", result.resultCode());
+        callback.put("ResultDesc", result.resultDesc());
+        List<Map<String, Object>> items = "0".equals(result.resultCode())
+                ? List.of(
+                        item("Amount", push.get("Amount")),
+                        item("MpesaReceiptNumber", receiptNumber()),
+                        item("TransactionDate", TIMESTAMP_FORMAT.format(LocalDateTime.now())),
+                        item("PhoneNumber", String.valueOf(push.get("PhoneNumber"))))
+                : List.of();
+        callback.put("callbackMetadata", Map.of("Item", items));
+
+        post(String.valueOf(push.get("CallBackURL")), callback);
+    }
+
+    private void sendRandomC2bPayment() {
+        List<String> shortCodes = List.copyOf(confirmationUrls.keySet());
+        if (shortCodes.isEmpty()) {
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        sendC2bCallback(
+                shortCodes.get(random.nextInt(shortCodes.size())),
+                String.valueOf(random.nextInt(10, 5000)),
+                "2547" + random.nextInt(10_000_000, 100_000_000),
+                "INV" + random.nextInt(100_000));
+    }
+
+    private void sendC2bCallback(String shortCode, String amount, String msisdn, String billRefNumber) {
+        Map<String, Object> callback = new LinkedHashMap<>();
+        callback.put("TransactionType", "Pay Bill");
+        callback.put("TransID", receiptNumber());
+        callback.put("TransTime", TIMESTAMP_FORMAT.format(LocalDateTime.now()));
+        callback.put("TransAmount", amount);
+        callback.put("BusinessShortCode", shortCode);
+        callback.put("BillRefNumber", billRefNumber);
+        callback.put("InvoiceNumber", "");
+        callback.put("OrgAccountBalance", "");
+        callback.put("ThirdPartyTransID", "");
+        callback.put("MSISDN", msisdn);
+        callback.put("FirstName", "Simulated");
+        callback.put("MiddleName", "");
+        callback.put("LastName", "Customer");
+        post(confirmationUrls.get(shortCode), callback);
+    }
+
+    private void post(String url, Map<String, Object> payload) {
+        try {
+            HttpRequest request = HttpRequest.newBuilder(URI.create(url))
+                    .timeout(Duration.ofSeconds(30))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(payload)))
+                    .build();
+            callbackClient.sendAsync(request, HttpResponse.BodyHandlers.discarding())
+                    .whenComplete((response, error) -> {
+                        if (error == null && response.statusCode() < 300) {
+                            callbacksSent.incrementAndGet();
+                        } else {
+                            callbacksFailed.incrementAndGet();
+                        }
+                    });
+        } catch (Exception e) {
+            callbacksFailed.incrementAndGet();
+        }
+    }
+
+    private HttpHandler handler(Endpoint endpoint) {
+        return exchange -> {
+            requests.incrementAndGet();
+            try (exchange) {
+                Map<String, Object> body = readBody(exchange);
+                latency.pause();
+                Reply reply = endpoint.handle(body);
+                byte[] bytes = objectMapper.writeValueAsBytes(reply.body());
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(reply.status(), bytes.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(bytes);
+                }
+            } catch (Exception e) {
+                exchange.sendResponseHeaders(500, -1);
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = in.readAllBytes();
+            return bytes.length == 0 ? Map.of() : objectMapper.readValue(bytes, Map.class);
+        }
+    }
+
+    private void expireStkResults() {
+        Instant cutoff = Instant.now().minus(settings.queryResultRetention());
+        stkResults.values().removeIf(result -> result.settledAt().isBefore(cutoff));
+    }
+
+    private void printStats() {
+        System.out.printf("requests=%d injectedErrors=%d callbacksSent=%d callbacksFailed=%d storedResults=%d%n",
+                requests.get(), injectedErrors.get(), callbacksSent.get(), callbacksFailed.get(), stkResults.size());
+    }
+
+    private static Map<String, Object> item(String name, Object value) {
+        Map<String, Object> item = new LinkedHashMap<>();
+        item.put("name", name);
+        item.put("value", value);
+        return item;
+    }
+
+    private static String receiptNumber() {
+        return "SIM" + Long.toString(ThreadLocalRandom.current().nextLong(1L << 40, 1L << 41), 36).toUpperCase();
+    }
+
+    @FunctionalInterface
+    private interface Endpoint {
+        Reply handle(Map<String, Object> body) throws Exception;
+    }
+
+    private record Reply(int status, Object body) {
+        static Reply ok(Object body) {
+            return new Reply(200, body);
+        }
+    }
+
+    private record StkResult(String merchantRequestId, String resultCode, String resultDesc, Instant settledAt) {
+    }
+}
@@ -0,0 +1,34 @@
+package apps.wmn.daraja.simulator;
+
+import java.time.Duration;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Log-normal response time distribution fitted to a median and a 99th percentile, which matches
+ * the long right tail seen from the real Daraja API better than a uniform or normal delay.
+ */
+class LatencyModel {
+    /** z-score of the 99th percentile of the standard normal distribution. */
+    private static final double Z_99 = 2.326;
+
+    private final double mu;
+    private final double sigma;
+
+    LatencyModel(Duration median, Duration p99) {
+        double medianMillis = Math.max(1, median.toMillis());
+        this.mu = Math.log(medianMillis);
+        this.sigma = Math.max(0, Math.log(Math.max(medianMillis, p99.toMillis()) / medianMillis) / Z_99);
+    }
+
+    long sampleMillis() {
+        return Math.round(Math.exp(mu + sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    void pause() {
+        try {
+            Thread.sleep(sampleMillis());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package apps.wmn.daraja.simulator;
+
+import java.time.Duration;
+
+/**
+ * Simulator settings, read from {@code simulator.*} system properties, e.g.
+ * {@code ./gradlew runSimulator -Dsimulator.latency.median=200ms -Dsimulator.error-rate=0.02}.
+ *
+ * @param port port the simulator listens on
+ * @param latencyMedian median response time of the Daraja endpoints
+ * @param latencyP99 99th percentile response time; latencies follow a log-normal distribution
+ * @param errorRate share of STK push and registration requests answered with a 500
+ * @param throttleRate share of STK push requests answered with a 429
+ * @param callbackMinDelay shortest time between an accepted STK push and its callback
+ * @param callbackMaxDelay longest time between an accepted STK push and its callback
+ * @param successRate share of STK pushes the simulated customer completes
+ * @param cancelRate share of STK pushes the simulated customer cancels (1032); the rest time out (1037)
+ * @param c2bPaymentsPerSecond rate of unsolicited C2B payments sent to registered confirmation URLs
+ * @param queryResultRetention how long the outcome of an STK push stays available to the query
+ *     endpoint after its callback; older outcomes are dropped so that long soak runs use bounded memory
+ */
+public record SimulatorSettings(
+        int port,
+        Duration latencyMedian,
+        Duration latencyP99,
+        double errorRate,
+        double throttleRate,
+        Duration callbackMinDelay,
+        Duration callbackMaxDelay,
+        double successRate,
+        double cancelRate,
+        double c2bPaymentsPerSecond,
+        Duration queryResultRetention) {
+
+    public static SimulatorSettings fromSystemProperties() {
+        return new SimulatorSettings(
+                Integer.parseInt(property("port", "20080")),
+                duration(property("latency.median", "150ms")),
+                duration(property("latency.p99", "1s")),
+                Double.parseDouble(property("error-rate", "0")),
+                Double.parseDouble(property("throttle-rate", "0")),
+                duration(property("callback.min-delay", "2s")),
+                duration(property("callback.max-delay", "10s")),
+                Double.parseDouble(property("callback.success-rate", "0.9")),
+                Double.parseDouble(property("callback.cancel-rate", "0.05")),
+                Double.parseDouble(property("c2b.payments-per-second", "0")),
+                duration(property("query.result-retention", "15m")));
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty("simulator." + name, defaultValue);
+    }
+
+    /**
+     * Parses durations written as in Spring configuration: {@code 250ms}, {@code 2s}, {@code 1m}.
+     */
+    static Duration duration(String value) {
+        String trimmed = value.trim().toLowerCase();
+        if (trimmed.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(trimmed.substring(0, trimmed.length() - 2)));
+        }
+        if (trimmed.endsWith("s")) {
+            return Duration.ofMillis((long) (Double.parseDouble(trimmed.substring(0, trimmed.length() - 1)) * 1000));
+        }
+        if (trimmed.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(trimmed.substring(0, trimmed.length() - 1)));
+        }
+        return Duration.parse(value);
+    }
+}
@@ -0,0 +1,173 @@
+package apps.wmn.daraja.simulator;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Closed-loop load test of {@code POST /api/v1/daraja/payments/stk/push}: a fixed number of clients
+ * each send STK pushes back to back for the configured duration, and the test reports completed
+ * pushes per second and latency percentiles per response status.
+ *
+ * <p>Run the application with the {@code simulator} profile against {@code ./gradlew runSimulator},
+ * then {@code ./gradlew runStkLoadTest -Dloadtest.concurrency=1000}. Comparing a run with
+ * {@code spring.threads.virtual.enabled=false} against one with it enabled shows how many concurrent
+ * pushes a node sustains once request threads no longer cap concurrency. Settings are read from
+ * {@code loadtest.*} system properties:
+ * <ul>
+ *   <li>{@code url}: application base URL (default {@code http://localhost:20000})</li>
+ *   <li>{@code shortcode}, {@code environment}: configuration the pushes use (default 174379, SANDBOX)</li>
+ *   <li>{@code concurrency}: number of clients (default 500)</li>
+ *   <li>{@code duration}, {@code warmup}: measured and discarded run time (default 60s, 10s)</li>
+ * </ul>
+ */
+public class StkPushLoadTest {
+    private static final String STK_PUSH_PATH = "/api/v1/daraja/payments/stk/push";
+
+    private final URI target;
+    private final String shortcode;
+    private final String environment;
+    private final int concurrency;
+    private final Duration duration;
+    private final Duration warmup;
+    private final HttpClient client;
+    private final Map<Integer, LongAdder> statuses = new ConcurrentHashMap<>();
+    private final LongAdder failures = new LongAdder();
+
+    public StkPushLoadTest(
+            URI baseUrl, String shortcode, String environment, int concurrency, Duration duration, Duration warmup) {
+        this.target = baseUrl.resolve(STK_PUSH_PATH);
+        this.shortcode = shortcode;
+        this.environment = environment;
+        this.concurrency = concurrency;
+        this.duration = duration;
+        this.warmup = warmup;
+        this.client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        new StkPushLoadTest(
+                URI.create(property("url", "http://localhost:20000")),
+                property("shortcode", "174379"),
+                property("environment", "SANDBOX"),
+                Integer.parseInt(property("concurrency", "500")),
+                SimulatorSettings.duration(property("duration", "60s")),
+                SimulatorSettings.duration(property("warmup", "10s")))
+                .run();
+    }
+
+    public void run() throws InterruptedException {
+        System.out.printf("STK push load test: %d clients against %s, %s warm-up, %s measured%n",
+                concurrency, target, warmup, duration);
+        long start = System.nanoTime();
+        long measureFrom = start + warmup.toNanos();
+        long end = measureFrom + duration.toNanos();
+
+        List<long[]> latencies = new ArrayList<>(concurrency);
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < concurrency; i++) {
+                long[] samples = new long[1 << 16];
+                latencies.add(samples);
+                clients.execute(() -> samples[0] = runClient(samples, measureFrom, end));
+            }
+        }
+        report(latencies);
+    }
+
+    /**
+     * Sends pushes until {@code end}, recording the latency of those started after
+     * {@code measureFrom} in {@code samples[1..]}.
+     *
+     * @return the number of samples recorded
+     */
+    private long runClient(long[] samples, long measureFrom, long end) {
+        int count = 0;
+        while (true) {
+            long sent = System.nanoTime();
+            if (sent >= end) {
+                return count;
+            }
+            int status = push();
+            long latency = System.nanoTime() - sent;
+            if (sent >= measureFrom) {
+                statuses.computeIfAbsent(status, s -> new LongAdder()).increment();
+                if (count + 1 < samples.length) {
+                    samples[++count] = latency;
+                }
+            }
+        }
+    }
+
+    private int push() {
+        String body = """
+                {"phone_number":"2547%08d","amount":%d,"account_number":"LOAD%d","transaction_desc":"Load test",\
+                "short_code":"%s","environment":"%s"}"""
+                .formatted(ThreadLocalRandom.current().nextInt(100_000_000),
+                        ThreadLocalRandom.current().nextInt(1, 1000),
+                        ThreadLocalRandom.current().nextInt(10_000),
+                        shortcode, environment);
+        HttpRequest request = HttpRequest.newBuilder(target)
+                .timeout(Duration.ofSeconds(60))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+        try {
+            return client.send(request, HttpResponse.BodyHandlers.discarding()).statusCode();
+        } catch (Exception e) {
+            failures.increment();
+            return -1;
+        }
+    }
+
+    private void report(List<long[]> latencies) {
+        int total = 0;
+        for (long[] samples : latencies) {
+            total += (int) samples[0];
+        }
+        long[] all = new long[total];
+        int offset = 0;
+        for (long[] samples : latencies) {
+            int count = (int) samples[0];
+            System.arraycopy(samples, 1, all, offset, count);
+            offset += count;
+        }
+        Arrays.sort(all);
+
+        Map<Integer, Long> byStatus = new TreeMap<>();
+        statuses.forEach((status, count) -> byStatus.put(status, count.sum()));
+        System.out.printf("Completed %d pushes in %s: %.1f pushes/s%n",
+                total, duration, total / (duration.toMillis() / 1000.0));
+        System.out.printf("Latency ms: p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n",
+                percentile(all, 0.5), percentile(all, 0.9), percentile(all, 0.99), percentile(all, 1.0));
+        System.out.printf("Responses by status (-1 = connection failure): %s, failures: %d%n",
+                byStatus, failures.sum());
+    }
+
+    private static double percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(quantile * sorted.length) - 1);
+        return sorted[Math.max(index, 0)] / 1_000_000.0;
+    }
+
+    private static String property(String name, String defaultValue) {
+        return System.getProperty("loadtest." + name, defaultValue);
+    }
+}
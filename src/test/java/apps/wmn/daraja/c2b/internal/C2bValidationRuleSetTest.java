@@ -0,0 +1,109 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.enums.C2bValidationResult;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import java.math.BigDecimal;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+class C2bValidationRuleSetTest {
+    private static final String SHORTCODE = "600638";
+
+    private final C2bValidationRuleSet rules =
+            C2bValidationRuleSet.compile(List.of(config(MpesaEnvironment.PRODUCTION)));
+
+    @ParameterizedTest
+    @CsvSource(nullValues = "null", value = {
+            "100, INV000001, 0",
+            "10, INV000001, 0",
+            "150000.00, ' inv000001 ', C2B00012",
+            "9.99, INV000001, C2B00013",
+            "150001, INV000001, C2B00013",
+            "ten, INV000001, C2B00013",
+            "null, INV000001, C2B00013",
+            "100, INV999999, C2B00012",
+            "100, ACC000001, C2B00012",
+            "100, null, C2B00012"
+    })
+    void answersWithTheResultCodeOfTheFirstFailedRule(String amount, String account, String resultCode) {
+        C2bValidationResult result = rules.validate(callback(SHORTCODE, amount, account), true);
+
+        assertThat(result.resultCode()).isEqualTo(resultCode);
+    }
+
+    @Test
+    void matchesAllowedAccountsIgnoringCaseAndSurroundingSpace() {
+        MpesaConfig config = config(MpesaEnvironment.PRODUCTION);
+        config.setValidationBillRefPattern(null);
+        C2bValidationRuleSet accountsOnly = C2bValidationRuleSet.compile(List.of(config));
+
+        assertThat(accountsOnly.validate(callback(SHORTCODE, "100", " inv000001 "), true))
+                .isEqualTo(C2bValidationResult.ACCEPTED);
+    }
+
+    @Test
+    void rejectsOrAcceptsUnknownShortcodesAsConfigured() {
+        C2bCallback callback = callback("999999", "100", "INV000001");
+
+        assertThat(rules.validate(callback, true)).isEqualTo(C2bValidationResult.INVALID_SHORTCODE);
+        assertThat(rules.validate(callback, false)).isEqualTo(C2bValidationResult.ACCEPTED);
+    }
+
+    @Test
+    void failsClosedOnAnInvalidBillRefPattern() {
+        MpesaConfig config = config(MpesaEnvironment.PRODUCTION);
+        config.setValidationBillRefPattern("INV(");
+        C2bValidationRuleSet misconfigured = C2bValidationRuleSet.compile(List.of(config));
+
+        assertThat(misconfigured.validate(callback(SHORTCODE, "100", "INV000001"), true).resultCode())
+                .isEqualTo("C2B00016");
+    }
+
+    @Test
+    void prefersProductionRulesWhenAShortcodeIsConfiguredInBothEnvironments() {
+        MpesaConfig production = config(MpesaEnvironment.PRODUCTION);
+        MpesaConfig sandbox = config(MpesaEnvironment.SANDBOX);
+        sandbox.setValidationMinAmount(null);
+        C2bCallback small = callback(SHORTCODE, "1", "INV000001");
+
+        assertThat(C2bValidationRuleSet.compile(List.of(production, sandbox)).validate(small, true))
+                .isEqualTo(C2bValidationResult.INVALID_AMOUNT);
+        assertThat(C2bValidationRuleSet.compile(List.of(sandbox, production)).validate(small, true))
+                .isEqualTo(C2bValidationResult.INVALID_AMOUNT);
+    }
+
+    @Test
+    void replacesOrRemovesTheRulesOfOneShortcode() {
+        MpesaConfig open = config(MpesaEnvironment.PRODUCTION);
+        open.setValidationMinAmount(null);
+        C2bCallback small = callback(SHORTCODE, "1", "INV000001");
+
+        assertThat(rules.withShortcode(SHORTCODE, List.of(open)).validate(small, true))
+                .isEqualTo(C2bValidationResult.ACCEPTED);
+        assertThat(rules.withShortcode(SHORTCODE, List.of()).validate(small, true))
+                .isEqualTo(C2bValidationResult.INVALID_SHORTCODE);
+        assertThat(rules.validate(small, true)).isEqualTo(C2bValidationResult.INVALID_AMOUNT);
+    }
+
+    private static MpesaConfig config(MpesaEnvironment environment) {
+        MpesaConfig config = new MpesaConfig();
+        config.setShortcode(SHORTCODE);
+        config.setEnvironment(environment);
+        config.setValidationMinAmount(new BigDecimal("10"));
+        config.setValidationMaxAmount(new BigDecimal("150000"));
+        config.setValidationBillRefPattern("INV\\d{6}");
+        config.setValidationAllowedAccounts(List.of("INV000001", "inv000002"));
+        return config;
+    }
+
+    private static C2bCallback callback(String shortcode, String amount, String account) {
+        return new C2bCallback("Pay Bill", "RKTQDM7W6S", "20191122063845", amount, shortcode, account,
+                "", "", "", "254708374149", "John", "", "Doe");
+    }
+}
@@ -0,0 +1,126 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.internal.CallbackDeduplicator.CallbackType;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+class CallbackDeduplicatorTest {
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final CallbackDeduplicator deduplicator =
+            new CallbackDeduplicator(new CaffeineCacheManager("processedCallbacks"), meterRegistry);
+    private final AtomicInteger processed = new AtomicInteger();
+
+    @Test
+    void answersARepeatedDeliveryWithTheFirstOutcome() {
+        PaymentView first = deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6S", processor("RKTQDM7W6S"));
+        PaymentView repeat = deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6S", processor("RKTQDM7W6S"));
+
+        assertThat(repeat).isSameAs(first);
+        assertThat(processed).hasValue(1);
+        assertThat(count("duplicate")).isEqualTo(1);
+    }
+
+    @Test
+    void keepsIdsOfEachCallbackTypeApart() {
+        deduplicator.processOnce(CallbackType.C2B, "ws_CO_1", processor("C2B"));
+        deduplicator.processOnce(CallbackType.STK, "ws_CO_1", processor("STK"));
+
+        assertThat(processed).hasValue(2);
+    }
+
+    @Test
+    void alwaysProcessesCallbacksWithoutAnId() {
+        deduplicator.processOnce(CallbackType.C2B, null, processor("first"));
+        deduplicator.processOnce(CallbackType.C2B, " ", processor("second"));
+
+        assertThat(processed).hasValue(2);
+    }
+
+    @Test
+    void processesTheRetryOfAFailedDeliveryAgain() {
+        assertThatThrownBy(() -> deduplicator.processOnce(CallbackType.STK, "ws_CO_2", () -> {
+            throw new IllegalStateException("database down");
+        })).isInstanceOf(IllegalStateException.class);
+
+        PaymentView retry = deduplicator.processOnce(CallbackType.STK, "ws_CO_2", processor("ws_CO_2"));
+
+        assertThat(retry.transactionId()).isEqualTo("ws_CO_2");
+        assertThat(processed).hasValue(1);
+    }
+
+    @Test
+    void processesTheRetryOfACallbackThatWasOnlyJournaled() {
+        deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6U", () -> {
+            processed.incrementAndGet();
+            return null;
+        });
+
+        PaymentView retry = deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6U", processor("RKTQDM7W6U"));
+
+        assertThat(retry.transactionId()).isEqualTo("RKTQDM7W6U");
+        assertThat(processed).hasValue(2);
+        assertThat(count("duplicate")).isZero();
+    }
+
+    @Test
+    void makesAConcurrentDuplicateWaitForTheFirstDelivery() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        try (ExecutorService deliveries = Executors.newFixedThreadPool(2)) {
+            Future<PaymentView> first = deliveries.submit(() ->
+                    deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6T", () -> {
+                        started.countDown();
+                        await(release);
+                        return processor("RKTQDM7W6T").get();
+                    }));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<PaymentView> duplicate = deliveries.submit(() ->
+                    deduplicator.processOnce(CallbackType.C2B, "RKTQDM7W6T", processor("RKTQDM7W6T")));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (count("concurrent-duplicate") == 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(count("concurrent-duplicate")).isEqualTo(1);
+            assertThat(duplicate).isNotDone();
+
+            release.countDown();
+
+            assertThat(duplicate.get(5, TimeUnit.SECONDS)).isSameAs(first.get(5, TimeUnit.SECONDS));
+            assertThat(processed).hasValue(1);
+        }
+    }
+
+    private Supplier<PaymentView> processor(String transactionId) {
+        return () -> {
+            processed.incrementAndGet();
+            return new PaymentView(UUID.randomUUID(), transactionId, null, null, null, null, null, null,
+                    null, null, "COMPLETED", null, null, null, null, null);
+        };
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("daraja.callback.dedupe", "type", "C2B", "result", result).count();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.C2bCallback;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.DeadLetterReason;
+import apps.wmn.daraja.c2b.repository.CallbackDeadLetterRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.unit.DataSize;
+
+class CallbackJournalApplierTest {
+    private final ObjectMapper objectMapper = Jackson2ObjectMapperBuilder.json().build();
+    private final MpesaPaymentRepository paymentRepository = mock(MpesaPaymentRepository.class);
+    private final CallbackDeadLetterRepository deadLetters = mock(CallbackDeadLetterRepository.class);
+    private final StkCallbackCorrelator correlator = mock(StkCallbackCorrelator.class);
+    private final CallbackIngestionProperties properties = new CallbackIngestionProperties();
+    private final List<String> saved = new ArrayList<>();
+
+    @TempDir
+    Path directory;
+
+    private CallbackJournal journal;
+
+    @BeforeEach
+    void setUp() {
+        properties.setMode(CallbackIngestionProperties.Mode.JOURNAL);
+        properties.setDirectory(directory);
+        properties.setSegmentSize(DataSize.ofKilobytes(64));
+        properties.setApplyBatchSize(10);
+        properties.setMaxApplyAttempts(2);
+        journal = journal();
+        doAnswer(invocation -> {
+            List<String> batch = new ArrayList<>();
+            invocation.<Iterable<MpesaPayment>>getArgument(0).forEach(payment -> batch.add(payment.getTransactionId()));
+            if (batch.stream().anyMatch(id -> id.startsWith("POISON"))) {
+                throw new IllegalArgumentException("Cannot apply " + batch);
+            }
+            saved.addAll(batch.stream().sorted().toList());
+            return List.of();
+        }).when(paymentRepository).saveAll(any());
+    }
+
+    @AfterEach
+    void tearDown() {
+        journal.close();
+    }
+
+    @Test
+    void appliesABatchAndCheckpointsPastIt() {
+        journal.append(c2b("RKTQDM7W6S"), null);
+        journal.append(c2b("RKTQDM7W6T"), null);
+
+        applier().applyPending();
+
+        assertThat(saved).containsExactly("RKTQDM7W6S", "RKTQDM7W6T");
+        assertThat(journal.readPending(10)).isEmpty();
+    }
+
+    @Test
+    void replaysEntriesAfterTheLastCheckpointOnRestart() {
+        journal.append(c2b("RKTQDM7W6S"), null);
+        applier().applyPending();
+        journal.append(c2b("RKTQDM7W6T"), null);
+        journal.close();
+
+        journal = journal();
+        applier().applyPending();
+
+        assertThat(saved).containsExactly("RKTQDM7W6S", "RKTQDM7W6T");
+        assertThat(journal.readPending(10)).isEmpty();
+    }
+
+    @Test
+    void retriesAFailingEntryThenMovesItToTheDeadLetterStore() {
+        journal.append(c2b("RKTQDM7W6S"), null);
+        journal.append(c2b("POISON01"), null);
+        journal.append(c2b("RKTQDM7W6T"), null);
+        CallbackJournalApplier applier = applier();
+
+        applier.applyPending();
+
+        assertThat(saved).containsExactly("RKTQDM7W6S");
+        assertThat(journal.readPending(10)).hasSize(2);
+        verify(deadLetters, never()).save(any(), any(), any(), any(), any());
+
+        applier.applyPending();
+
+        assertThat(saved).containsExactly("RKTQDM7W6S", "RKTQDM7W6T");
+        assertThat(journal.readPending(10)).isEmpty();
+        verify(deadLetters).save(eq("C2B"), eq("POISON01"), eq(DeadLetterReason.UNAPPLIABLE), any(), any());
+    }
+
+    @Test
+    void holdsTheJournalWhileTheDatabaseIsUnavailable() {
+        journal.append(c2b("RKTQDM7W6S"), null);
+        doThrow(new DataAccessResourceFailureException("connection refused")).when(paymentRepository).saveAll(any());
+        CallbackJournalApplier applier = applier();
+
+        for (int pass = 0; pass < 5; pass++) {
+            applier.applyPending();
+        }
+
+        assertThat(journal.readPending(10)).hasSize(1);
+        verify(deadLetters, never()).save(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void movesUnreadableEntriesToTheDeadLetterStore() {
+        journal.append(c2b("RKTQDM7W6S"), "not json".getBytes(StandardCharsets.UTF_8));
+        journal.append(c2b("RKTQDM7W6T"), null);
+
+        applier().applyPending();
+
+        verify(deadLetters).save(eq("C2B"), isNull(), eq(DeadLetterReason.UNREADABLE),
+                eq("not json".getBytes(StandardCharsets.UTF_8)), any());
+        assertThat(saved).containsExactly("RKTQDM7W6T");
+        assertThat(journal.readPending(10)).isEmpty();
+    }
+
+    @Test
+    void parksStkCallbacksThatArriveBeforeTheirPushResponse() {
+        journal.append(stk("ws_CO_191220191020363925"), null);
+
+        applier().applyPending();
+
+        verify(correlator).apply(argThat(callback -> callback.checkoutRequestId().equals("ws_CO_191220191020363925")),
+                any());
+        assertThat(journal.readPending(10)).isEmpty();
+    }
+
+    @Test
+    void keepsAnEarlyStkCallbackInTheJournalUntilItIsParked() {
+        journal.append(stk("ws_CO_191220191020363925"), null);
+        when(correlator.apply(any(), any())).thenThrow(new DataAccessResourceFailureException("connection refused"));
+
+        applier().applyPending();
+
+        assertThat(journal.readPending(10)).hasSize(1);
+    }
+
+    private CallbackJournalApplier applier() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return new CallbackJournalApplier(journal, paymentRepository, deadLetters,
+                mock(PaymentStatusQueryService.class), correlator, new TransactionTemplate(transactionManager),
+                properties, objectMapper, new SimpleMeterRegistry());
+    }
+
+    private CallbackJournal journal() {
+        return new CallbackJournal(properties, objectMapper, new SimpleMeterRegistry());
+    }
+
+    private static C2bCallback c2b(String transId) {
+        return new C2bCallback("Pay Bill", transId, "20191122063845", "100", "600638", "INV000001",
+                "", "", "", "254708374149", "John", "", "Doe");
+    }
+
+    private static StkCallback stk(String checkoutRequestId) {
+        return new StkCallback("29115-34620561-1", checkoutRequestId, "0", "The service request is processed successfully.",
+                new StkCallback.CallbackMetadata(new StkCallback.CallbackMetadata.Item[] {
+                        new StkCallback.CallbackMetadata.Item("MpesaReceiptNumber", "NLJ7RT61SV"),
+                        new StkCallback.CallbackMetadata.Item("PhoneNumber", "254708374149")}));
+    }
+}
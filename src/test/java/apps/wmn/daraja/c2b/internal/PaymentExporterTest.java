@@ -0,0 +1,127 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.PaymentExportRow;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentExportRepository;
+import apps.wmn.daraja.common.config.PaymentExportProperties;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import java.io.ByteArrayOutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.UUID;
+import java.util.function.Consumer;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+
+class PaymentExporterTest {
+    private static final LocalDateTime FROM = LocalDateTime.of(2024, 5, 1, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2024, 6, 1, 0, 0);
+    private static final UUID PAYMENT = UUID.fromString("3f1c2a9e-7b44-4d2a-9a63-0c5f8e2d1b7a");
+
+    private final MpesaPaymentExportRepository repository = mock(MpesaPaymentExportRepository.class);
+    private final PaymentExportProperties properties = new PaymentExportProperties();
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    @Test
+    void quotesCsvFieldsAndNeutralisesFormulas() {
+        streams(row("=HYPERLINK(\"http://x\")", "Rent, \"May\"\nflat 4"));
+
+        exporter().exportCsv(FROM, TO, out);
+
+        assertThat(lines("\r\n")).containsExactly(
+                String.join(",", PaymentExportRow.COLUMNS),
+                PAYMENT + ",RKTQDM7W6S,Pay Bill,COMPLETED,1500.00,,KES,600638,254708374149,254708374149,600638,"
+                        + "\"'=HYPERLINK(\"\"http://x\"\")\",INV-7,\"Rent, \"\"May\"\"\nflat 4\","
+                        + "2024-05-02T09:30,2024-05-02T09:30:05",
+                "# export_complete,rows=1");
+    }
+
+    @Test
+    void leavesPlainCsvFieldsUnquoted() {
+        streams(row("-5", "Rent"), row("@home", "Rent"));
+
+        exporter().exportCsv(FROM, TO, out);
+
+        assertThat(lines("\r\n")).hasSize(4).last().isEqualTo("# export_complete,rows=2");
+        assertThat(lines("\r\n").get(1)).contains(",'-5,INV-7,Rent,");
+        assertThat(lines("\r\n").get(2)).contains(",'@home,INV-7,Rent,");
+    }
+
+    @Test
+    void endsACompleteNdjsonExportWithItsRowCount() {
+        streams(row("ACC-1", "Rent"), row("ACC-2", "Rent"));
+
+        exporter().exportNdjson(FROM, TO, out);
+
+        assertThat(lines("\n")).hasSize(3);
+        assertThat(lines("\n").get(0))
+                .startsWith("{\"uuid\":\"" + PAYMENT + "\",")
+                .contains("\"account_reference\":\"ACC-1\"");
+        assertThat(lines("\n").get(2)).isEqualTo("{\"export_complete\":true,\"rows\":2}");
+    }
+
+    @Test
+    void leavesTheTrailerOffAnExportThatFailsPartWay() {
+        doAnswer(invocation -> {
+            Consumer<PaymentExportRow> consumer = invocation.getArgument(3);
+            consumer.accept(row("ACC-1", "Rent"));
+            throw new QueryTimeoutException("canceling statement due to statement timeout");
+        }).when(repository).streamCreatedBetween(any(), any(), anyInt(), any());
+
+        assertThatThrownBy(() -> exporter().exportNdjson(FROM, TO, out)).isInstanceOf(QueryTimeoutException.class);
+        assertThat(out.toString(StandardCharsets.UTF_8)).doesNotContain("export_complete");
+    }
+
+    @Test
+    void limitsConcurrentExports() {
+        properties.setMaxConcurrent(1);
+        PaymentExporter exporter = exporter();
+
+        PaymentExporter.Slot slot = exporter.reserve();
+        assertThatThrownBy(exporter::reserve).isInstanceOf(RateLimitExceededException.class);
+
+        slot.close();
+        slot.close();
+        exporter.reserve();
+        assertThatThrownBy(exporter::reserve).isInstanceOf(RateLimitExceededException.class);
+    }
+
+    private PaymentExporter exporter() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return new PaymentExporter(
+                repository, properties, transactionManager, Jackson2ObjectMapperBuilder.json().build());
+    }
+
+    private void streams(PaymentExportRow... rows) {
+        doAnswer(invocation -> {
+            Consumer<PaymentExportRow> consumer = invocation.getArgument(3);
+            List.of(rows).forEach(consumer);
+            return null;
+        }).when(repository).streamCreatedBetween(any(), any(), anyInt(), any());
+    }
+
+    private List<String> lines(String separator) {
+        String text = out.toString(StandardCharsets.UTF_8);
+        assertThat(text).endsWith(separator);
+        return List.of(text.substring(0, text.length() - separator.length()).split(separator, -1));
+    }
+
+    private static PaymentExportRow row(String accountReference, String transactionDesc) {
+        return new PaymentExportRow(PAYMENT, "RKTQDM7W6S", "Pay Bill", "COMPLETED", new BigDecimal("1500.00"),
+                null, "KES", "600638", "254708374149", "254708374149", "600638", accountReference, "INV-7",
+                transactionDesc, LocalDateTime.of(2024, 5, 2, 9, 30), LocalDateTime.of(2024, 5, 2, 9, 30, 5));
+    }
+}
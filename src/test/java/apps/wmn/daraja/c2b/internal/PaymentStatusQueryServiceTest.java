@@ -0,0 +1,147 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.cache.ExpiringValueExpiry;
+import apps.wmn.daraja.common.config.PaymentStatusQueryProperties;
+import apps.wmn.daraja.common.exceptions.DarajaUnavailableException;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+
+class PaymentStatusQueryServiceTest {
+    private static final String TRANSACTION_ID = "NLJ7RT61SV";
+
+    private final MpesaPaymentRepository paymentRepository = mock(MpesaPaymentRepository.class);
+    private final StkPaymentReconciler reconciler = mock(StkPaymentReconciler.class);
+    private final PaymentStatusQueryProperties properties = new PaymentStatusQueryProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MpesaPayment payment = new MpesaPayment();
+
+    private PaymentStatusQueryService service;
+
+    @BeforeEach
+    void setUp() {
+        // Pending statuses are not served from cache, so each query reaches the lookup
+        properties.setPendingTtl(Duration.ZERO);
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.registerCustomCache("paymentStatus", Caffeine.newBuilder()
+                .expireAfter(new ExpiringValueExpiry(Duration.ofHours(1)))
+                .build());
+        service = new PaymentStatusQueryService(paymentRepository, reconciler, properties, cacheManager, meterRegistry);
+
+        payment.setTransactionId(TRANSACTION_ID);
+        payment.setCheckoutRequestId("ws_CO_191220191020363925");
+        payment.setTransactionType("STK_PUSH");
+        payment.setTransactionStatus("PENDING");
+        when(paymentRepository.findByTransactionId(TRANSACTION_ID)).thenReturn(Optional.of(payment));
+    }
+
+    @Test
+    void servesASettledStatusFromTheStoredViewAndThenFromCache() {
+        when(paymentRepository.findViewByTransactionId(TRANSACTION_ID)).thenReturn(Optional.of(view("COMPLETED")));
+
+        PaymentView first = service.getStatus(TRANSACTION_ID);
+        PaymentView repeat = service.getStatus(TRANSACTION_ID);
+
+        assertThat(repeat).isSameAs(first);
+        verify(paymentRepository).findViewByTransactionId(TRANSACTION_ID);
+        verify(paymentRepository, never()).findByTransactionId(any());
+        verify(reconciler, never()).reconcile(any());
+        assertThat(count("hit")).isEqualTo(1);
+    }
+
+    @Test
+    void queriesDarajaForAPendingStkPushAtMostOncePerInterval() {
+        when(paymentRepository.findViewByTransactionId(TRANSACTION_ID)).thenReturn(Optional.of(view("PENDING")));
+        when(reconciler.reconcile(payment)).thenAnswer(invocation -> {
+            payment.setTransactionStatus("COMPLETED");
+            return payment;
+        });
+
+        assertThat(service.getStatus(TRANSACTION_ID).transactionStatus()).isEqualTo("COMPLETED");
+        service.evict(TRANSACTION_ID);
+        assertThat(service.getStatus(TRANSACTION_ID).transactionStatus()).isEqualTo("PENDING");
+
+        verify(reconciler, times(1)).reconcile(payment);
+        verify(paymentRepository, times(2)).findViewByTransactionId(TRANSACTION_ID);
+        assertThat(meterRegistry.counter("daraja.status.query.outbound").count()).isEqualTo(1);
+    }
+
+    @Test
+    void answersWithTheStoredStatusWhenDarajaIsUnavailable() {
+        PaymentView stored = view("PENDING");
+        when(paymentRepository.findViewByTransactionId(TRANSACTION_ID)).thenReturn(Optional.of(stored));
+        when(reconciler.reconcile(payment)).thenThrow(new DarajaUnavailableException("Circuit breaker open"));
+
+        assertThat(service.getStatus(TRANSACTION_ID)).isSameAs(stored);
+    }
+
+    @Test
+    void failsFastWhenTheShortcodeIsRateLimited() {
+        when(paymentRepository.findViewByTransactionId(TRANSACTION_ID)).thenReturn(Optional.of(view("PENDING")));
+        when(reconciler.reconcile(payment))
+                .thenThrow(new RateLimitExceededException("Rate limit exceeded", Duration.ofSeconds(1)));
+
+        assertThatThrownBy(() -> service.getStatus(TRANSACTION_ID))
+                .isInstanceOf(RateLimitExceededException.class);
+    }
+
+    @Test
+    void sharesOneLookupBetweenConcurrentQueries() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        when(paymentRepository.findViewByTransactionId(TRANSACTION_ID)).thenAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return Optional.of(view("COMPLETED"));
+        });
+
+        try (ExecutorService clients = Executors.newFixedThreadPool(2)) {
+            Future<PaymentView> first = clients.submit(() -> service.getStatus(TRANSACTION_ID));
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<PaymentView> concurrent = clients.submit(() -> service.getStatus(TRANSACTION_ID));
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (count("coalesced") == 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(count("coalesced")).isEqualTo(1);
+
+            release.countDown();
+
+            assertThat(concurrent.get(5, TimeUnit.SECONDS)).isSameAs(first.get(5, TimeUnit.SECONDS));
+            verify(paymentRepository).findViewByTransactionId(TRANSACTION_ID);
+        }
+    }
+
+    private double count(String result) {
+        return meterRegistry.counter("daraja.status.query", "result", result).count();
+    }
+
+    private static PaymentView view(String status) {
+        return new PaymentView(UUID.randomUUID(), TRANSACTION_ID, "ws_CO_191220191020363925", "254708374149",
+                null, null, "KES", null, null, "STK_PUSH", status, null, null, null, null, null);
+    }
+}
@@ -0,0 +1,113 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.PaymentView;
+import apps.wmn.daraja.c2b.dto.StkCallback;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.DeadLetterReason;
+import apps.wmn.daraja.c2b.repository.CallbackDeadLetterRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.common.config.CallbackIngestionProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+
+class StkCallbackCorrelatorTest {
+    private static final String CHECKOUT_REQUEST_ID = "ws_CO_191220191020363925";
+    private static final String RAW_CALLBACK = "{\"CheckoutRequestID\":\"" + CHECKOUT_REQUEST_ID + "\"}";
+
+    private final MpesaPaymentRepository paymentRepository = mock(MpesaPaymentRepository.class);
+    private final PaymentStatusQueryService statusQueryService = mock(PaymentStatusQueryService.class);
+    private final CallbackDeadLetterRepository deadLetters = mock(CallbackDeadLetterRepository.class);
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final StkCallbackCorrelator correlator = correlator();
+    private final MpesaPayment payment = new MpesaPayment();
+
+    @BeforeEach
+    void setUp() {
+        payment.setCheckoutRequestId(CHECKOUT_REQUEST_ID);
+        payment.setTransactionStatus("PENDING");
+        when(paymentRepository.save(payment)).thenReturn(payment);
+    }
+
+    @Test
+    void appliesACallbackToItsPayment() {
+        when(paymentRepository.findByCheckoutRequestId(CHECKOUT_REQUEST_ID)).thenReturn(Optional.of(payment));
+
+        PaymentView view = correlator.apply(callback(), RAW_CALLBACK);
+
+        assertThat(view.transactionStatus()).isEqualTo("COMPLETED");
+        verify(statusQueryService).evict("29115-34620561-1");
+        verify(deadLetters, never()).save(any(), any(), any(), any(), any());
+    }
+
+    @Test
+    void parksAnEarlyCallbackDurablyUntilItsResponseIsPersisted() {
+        assertThat(correlator.apply(callback(), RAW_CALLBACK)).isNull();
+
+        verify(deadLetters).save(eq("STK"), eq(CHECKOUT_REQUEST_ID), eq(DeadLetterReason.UNMATCHED),
+                eq(RAW_CALLBACK.getBytes(StandardCharsets.UTF_8)), any());
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+
+        when(paymentRepository.findByCheckoutRequestId(CHECKOUT_REQUEST_ID)).thenReturn(Optional.of(payment));
+        PaymentView view = correlator.responsePersisted(CHECKOUT_REQUEST_ID);
+
+        assertThat(view.transactionStatus()).isEqualTo("COMPLETED");
+        verify(deadLetters).delete("STK", CHECKOUT_REQUEST_ID, DeadLetterReason.UNMATCHED);
+        assertThat(correlator.responsePersisted(CHECKOUT_REQUEST_ID)).isNull();
+    }
+
+    @Test
+    void recordsTheSerializedCallbackWhenTheBodyWasNotCaptured() {
+        correlator.apply(callback(), null);
+
+        verify(deadLetters).save(eq("STK"), eq(CHECKOUT_REQUEST_ID), eq(DeadLetterReason.UNMATCHED),
+                argThat(payload -> new String(payload, StandardCharsets.UTF_8).contains(CHECKOUT_REQUEST_ID)), any());
+    }
+
+    @Test
+    void doesNotHoldACallbackItCannotRecord() {
+        doThrow(new DataAccessResourceFailureException("connection refused"))
+                .when(deadLetters).save(any(), any(), any(), any(), any());
+
+        assertThatThrownBy(() -> correlator.apply(callback(), RAW_CALLBACK))
+                .isInstanceOf(DataAccessResourceFailureException.class);
+
+        when(paymentRepository.findByCheckoutRequestId(CHECKOUT_REQUEST_ID)).thenReturn(Optional.of(payment));
+        assertThat(correlator.responsePersisted(CHECKOUT_REQUEST_ID)).isNull();
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+    }
+
+    private StkCallbackCorrelator correlator() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return new StkCallbackCorrelator(paymentRepository, statusQueryService,
+                new TransactionTemplate(transactionManager), deadLetters, new CallbackIngestionProperties(),
+                Jackson2ObjectMapperBuilder.json().build(), meterRegistry);
+    }
+
+    private static StkCallback callback() {
+        return new StkCallback("29115-34620561-1", CHECKOUT_REQUEST_ID, "0",
+                "The service request is processed successfully.",
+                new StkCallback.CallbackMetadata(new StkCallback.CallbackMetadata.Item[] {
+                        new StkCallback.CallbackMetadata.Item("MpesaReceiptNumber", "NLJ7RT61SV"),
+                        new StkCallback.CallbackMetadata.Item("PhoneNumber", "254708374149")}));
+    }
+}
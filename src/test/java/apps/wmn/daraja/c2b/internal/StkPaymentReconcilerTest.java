@@ -0,0 +1,179 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.StkQueryResponse;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.TransactionStatus;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentBatchRepository;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.config.ReconciliationProperties;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+class StkPaymentReconcilerTest {
+    private static final StkQueryResponse IN_PROGRESS = new StkQueryResponse(
+            "0", "The service request has been accepted successsfully", "29115-34620561-1",
+            "ws_CO_191220191020363925", null, null);
+    private static final StkQueryResponse COMPLETED = new StkQueryResponse(
+            "0", "The service request has been accepted successsfully", "29115-34620561-1",
+            "ws_CO_191220191020363925", "0", "The service request is processed successfully.");
+
+    private final MpesaPaymentRepository paymentRepository = mock(MpesaPaymentRepository.class);
+    private final MpesaPaymentBatchRepository paymentBatchRepository = mock(MpesaPaymentBatchRepository.class);
+    private final MpesaConfigService configService = mock(MpesaConfigService.class);
+    private final DarajaStkPushClient stkPushClient = mock(DarajaStkPushClient.class);
+    private final DarajaRateLimiter rateLimiter = mock(DarajaRateLimiter.class);
+    private final ReconciliationProperties properties = new ReconciliationProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final MpesaConfig config = new MpesaConfig();
+
+    private final StkPaymentReconciler reconciler = new StkPaymentReconciler(paymentRepository,
+            paymentBatchRepository, configService, stkPushClient, rateLimiter, properties, meterRegistry);
+
+    @BeforeEach
+    void setUp() {
+        properties.setMaxRetries(3);
+        when(configService.getConfig(any(), any())).thenReturn(config);
+    }
+
+    @Test
+    void settlesAPaymentDarajaHasAnOutcomeFor() {
+        MpesaPayment payment = payment(1, "174379");
+        stuck(payment);
+        when(stkPushClient.query(any(), any(), any())).thenReturn(COMPLETED);
+
+        reconciler.reconcileStuckPayments();
+
+        assertThat(reconciled()).containsExactly(payment);
+        assertThat(payment.getTransactionStatus()).isEqualTo("COMPLETED");
+        assertThat(payment.getCompletedDate()).isNotNull();
+        assertThat(payment.getRetryCount()).isZero();
+    }
+
+    @Test
+    void backsOffAPaymentThatIsStillInProgress() {
+        MpesaPayment payment = payment(1, "174379");
+        stuck(payment);
+        when(stkPushClient.query(any(), any(), any())).thenReturn(IN_PROGRESS);
+
+        reconciler.reconcileStuckPayments();
+
+        assertThat(reconciled()).containsExactly(payment);
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+        assertThat(payment.getRetryCount()).isEqualTo(1);
+        assertThat(payment.getCompletedDate()).isNull();
+    }
+
+    @Test
+    void flagsAPaymentForReviewOnceItsRetriesAreUsedUp() {
+        MpesaPayment payment = payment(1, "174379");
+        payment.setRetryCount(2);
+        stuck(payment);
+        when(stkPushClient.query(any(), any(), any())).thenReturn(IN_PROGRESS);
+
+        reconciler.reconcileStuckPayments();
+
+        assertThat(reconciled()).containsExactly(payment);
+        assertThat(payment.getTransactionStatus()).isEqualTo(TransactionStatus.REQUIRES_REVIEW.name());
+        assertThat(payment.getRetryCount()).isEqualTo(3);
+        assertThat(payment.getCompletedDate()).isNull();
+        assertThat(payment.getErrorMessage()).contains("reconcile manually");
+        assertThat(meterRegistry.counter("daraja.reconciliation.results", "outcome", "gave_up").count())
+                .isEqualTo(1);
+    }
+
+    @Test
+    void skipsARateLimitedPaymentWithoutUsingARetry() {
+        MpesaPayment payment = payment(1, "174379");
+        stuck(payment);
+        doThrow(new RateLimitExceededException("Rate limit exceeded", Duration.ofSeconds(1)))
+                .when(rateLimiter).acquireForBackground(config);
+
+        reconciler.reconcileStuckPayments();
+
+        assertThat(reconciled()).isEmpty();
+        verify(stkPushClient, never()).query(any(), any(), any());
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+        assertThat(payment.getRetryCount()).isZero();
+    }
+
+    @Test
+    void capsConcurrentQueriesPerShortcode() {
+        properties.setPerShortcodeConcurrency(2);
+        List<MpesaPayment> page = IntStream.rangeClosed(1, 8).mapToObj(id -> payment(id, "174379")).toList();
+        stuck(page.toArray(MpesaPayment[]::new));
+        AtomicInteger inFlight = new AtomicInteger();
+        AtomicInteger maxInFlight = new AtomicInteger();
+        when(stkPushClient.query(any(), any(), any())).thenAnswer(invocation -> {
+            maxInFlight.accumulateAndGet(inFlight.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            inFlight.decrementAndGet();
+            return COMPLETED;
+        });
+
+        reconciler.reconcileStuckPayments();
+
+        assertThat(maxInFlight.get()).isBetween(1, 2);
+        assertThat(reconciled()).containsExactlyInAnyOrderElementsOf(page);
+    }
+
+    @Test
+    void flagsStuckPushesWithoutACheckoutRequestIdForReview() {
+        stuck();
+        when(paymentBatchRepository.flagUnqueryableForReview(any())).thenReturn(2);
+        LocalDateTime before = LocalDateTime.now();
+
+        reconciler.reconcileStuckPayments();
+
+        ArgumentCaptor<LocalDateTime> stuckBefore = ArgumentCaptor.forClass(LocalDateTime.class);
+        verify(paymentBatchRepository).flagUnqueryableForReview(stuckBefore.capture());
+        assertThat(stuckBefore.getValue()).isAfterOrEqualTo(before.minus(properties.getStuckAfter()));
+        assertThat(meterRegistry.counter("daraja.reconciliation.results", "outcome", "unqueryable").count())
+                .isEqualTo(2);
+    }
+
+    private void stuck(MpesaPayment... payments) {
+        when(paymentRepository.findReconcilable(any(), any(), anyInt(), anyLong(), anyLong(), eq(0L), anyInt()))
+                .thenReturn(List.of(payments));
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<MpesaPayment> reconciled() {
+        ArgumentCaptor<List<MpesaPayment>> batch = ArgumentCaptor.forClass(List.class);
+        verify(paymentBatchRepository).updateReconciled(batch.capture());
+        return new ArrayList<>(batch.getValue());
+    }
+
+    private static MpesaPayment payment(long id, String shortCode) {
+        MpesaPayment payment = new MpesaPayment();
+        payment.setId(id);
+        payment.setBusinessShortCode(shortCode);
+        payment.setEnvironment(MpesaEnvironment.SANDBOX);
+        payment.setCheckoutRequestId("ws_CO_19122019102036392" + id);
+        payment.setTransactionStatus("PENDING");
+        payment.setRetryCount(0);
+        return payment;
+    }
+}
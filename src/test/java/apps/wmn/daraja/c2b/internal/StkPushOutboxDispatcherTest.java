@@ -0,0 +1,197 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.dto.StkPushResponse;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.entity.MpesaPayment;
+import apps.wmn.daraja.c2b.entity.StkPushOutbox;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.c2b.enums.OutboxStatus;
+import apps.wmn.daraja.c2b.repository.MpesaPaymentRepository;
+import apps.wmn.daraja.c2b.repository.StkPushOutboxRepository;
+import apps.wmn.daraja.c2b.service.MpesaConfigService;
+import apps.wmn.daraja.common.concurrent.BoundedVirtualThreadExecutor;
+import apps.wmn.daraja.common.config.StkDispatchProperties;
+import apps.wmn.daraja.common.exceptions.RateLimitExceededException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.SimpleTransactionStatus;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.ResourceAccessException;
+
+class StkPushOutboxDispatcherTest {
+    private static final String PAYLOAD = """
+            {"phone_number":"254712345678","amount":100.00,"account_number":"ABC123",\
+            "transaction_desc":"Payment for service X","short_code":"174379","environment":"SANDBOX"}""";
+    private static final StkPushResponse RESPONSE = new StkPushResponse(
+            "29115-34620561-1", "ws_CO_191220191020363925", "0", "Success. Request accepted for processing",
+            "Success. Request accepted for processing");
+
+    private final StkPushOutboxRepository outboxRepository = mock(StkPushOutboxRepository.class);
+    private final MpesaPaymentRepository paymentRepository = mock(MpesaPaymentRepository.class);
+    private final MpesaConfigService configService = mock(MpesaConfigService.class);
+    private final DarajaStkPushClient stkPushClient = mock(DarajaStkPushClient.class);
+    private final DarajaRateLimiter rateLimiter = mock(DarajaRateLimiter.class);
+    private final StkCallbackCorrelator correlator = mock(StkCallbackCorrelator.class);
+    private final BoundedVirtualThreadExecutor executor = mock(BoundedVirtualThreadExecutor.class);
+    private final StkDispatchProperties properties = new StkDispatchProperties();
+    private final MpesaConfig config = new MpesaConfig();
+    private final MpesaPayment payment = payment();
+    private final StkPushOutbox entry = entry();
+
+    private final StkPushOutboxDispatcher dispatcher = dispatcher();
+
+    @BeforeEach
+    void setUp() {
+        properties.setBatchSize(1);
+        when(executor.availableCapacity()).thenReturn(10);
+        doAnswer(invocation -> {
+            invocation.<Runnable>getArgument(0).run();
+            return null;
+        }).when(executor).execute(any());
+        when(paymentRepository.findById(payment.getId())).thenReturn(Optional.of(payment));
+        when(configService.getConfig("174379", MpesaEnvironment.SANDBOX)).thenReturn(config);
+    }
+
+    @Test
+    void claimsPendingEntriesAndRecordsTheirResponse() {
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of(entry), List.of());
+        when(stkPushClient.push(any(), eq(config), eq(MpesaEnvironment.SANDBOX))).thenReturn(RESPONSE);
+
+        dispatcher.drain();
+
+        verify(outboxRepository, times(2)).lockPendingBatch(1);
+        assertThat(entry.getAttempts()).isEqualTo(1);
+        assertThat(entry.getClaimedDate()).isNotNull();
+        assertThat(entry.getStatus()).isEqualTo(OutboxStatus.DISPATCHED);
+        assertThat(payment.getCheckoutRequestId()).isEqualTo("ws_CO_191220191020363925");
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+        verify(correlator).responsePersisted("ws_CO_191220191020363925");
+    }
+
+    @Test
+    void claimsNoMoreThanTheExecutorCanRun() {
+        properties.setBatchSize(50);
+        when(executor.availableCapacity()).thenReturn(3);
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of());
+
+        dispatcher.drain();
+
+        verify(outboxRepository).lockPendingBatch(3);
+    }
+
+    @Test
+    void returnsARateLimitedEntryToTheQueueUntilTheNextPoll() {
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of(entry));
+        doThrow(new RateLimitExceededException("Rate limit exceeded", Duration.ofSeconds(1)))
+                .when(rateLimiter).acquireForBackground(config);
+
+        dispatcher.drain();
+
+        verify(outboxRepository).lockPendingBatch(1);
+        verify(stkPushClient, never()).push(any(), any(), any());
+        assertThat(entry.getStatus()).isEqualTo(OutboxStatus.PENDING);
+        assertThat(entry.getClaimedDate()).isNull();
+    }
+
+    @Test
+    void abandonsAnEntryWhoseOutcomeIsUnknown() {
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of(entry), List.of());
+        when(stkPushClient.push(any(), any(), any())).thenThrow(new ResourceAccessException("Read timed out"));
+
+        dispatcher.drain();
+
+        assertThat(entry.getStatus()).isEqualTo(OutboxStatus.ABANDONED);
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+        assertThat(payment.getErrorMessage()).isEqualTo("Read timed out");
+    }
+
+    @Test
+    void failsAPushDarajaRejects() {
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of(entry), List.of());
+        when(stkPushClient.push(any(), any(), any()))
+                .thenThrow(new HttpClientErrorException(HttpStatus.BAD_REQUEST, "Invalid PhoneNumber"));
+
+        dispatcher.drain();
+
+        assertThat(entry.getStatus()).isEqualTo(OutboxStatus.FAILED);
+        assertThat(payment.getTransactionStatus()).isEqualTo("FAILED");
+    }
+
+    @Test
+    void keepsAnAcceptedPushPendingWhenItsResponseCannotBeRecorded() {
+        when(outboxRepository.lockPendingBatch(anyInt())).thenReturn(List.of(entry), List.of());
+        when(stkPushClient.push(any(), any(), any())).thenReturn(RESPONSE);
+        when(paymentRepository.save(payment)).thenThrow(new DataAccessResourceFailureException("connection reset"));
+
+        dispatcher.drain();
+
+        assertThat(entry.getStatus()).isEqualTo(OutboxStatus.ABANDONED);
+        assertThat(entry.getLastError()).contains("ws_CO_191220191020363925");
+        assertThat(payment.getTransactionStatus()).isEqualTo("PENDING");
+        verify(correlator, never()).responsePersisted(any());
+    }
+
+    @Test
+    void abandonsStaleClaimsAndDeletesOldEntries() {
+        LocalDateTime before = LocalDateTime.now();
+
+        dispatcher.maintain();
+
+        verify(outboxRepository).abandonStaleClaims(argThat(cutoff ->
+                !cutoff.isBefore(before.minus(properties.getClaimTimeout()))
+                        && !cutoff.isAfter(LocalDateTime.now().minus(properties.getClaimTimeout()))));
+        verify(outboxRepository).deleteCompletedBefore(argThat(cutoff ->
+                !cutoff.isBefore(before.minus(properties.getRetention()))
+                        && !cutoff.isAfter(LocalDateTime.now().minus(properties.getRetention()))));
+    }
+
+    private StkPushOutboxDispatcher dispatcher() {
+        PlatformTransactionManager transactionManager = mock(PlatformTransactionManager.class);
+        when(transactionManager.getTransaction(any())).thenReturn(new SimpleTransactionStatus());
+        return new StkPushOutboxDispatcher(outboxRepository, paymentRepository, configService, stkPushClient,
+                rateLimiter, correlator, executor, new TransactionTemplate(transactionManager),
+                Jackson2ObjectMapperBuilder.json().build(), properties, new SimpleMeterRegistry());
+    }
+
+    private static MpesaPayment payment() {
+        MpesaPayment payment = new MpesaPayment();
+        payment.setId(7L);
+        payment.setUuid(UUID.fromString("3f1c2a9e-7b44-4d2a-9a63-0c5f8e2d1b7a"));
+        payment.setTransactionStatus("PENDING");
+        return payment;
+    }
+
+    private static StkPushOutbox entry() {
+        StkPushOutbox entry = new StkPushOutbox();
+        entry.setId(11L);
+        entry.setPaymentId(7L);
+        entry.setEnvironment(MpesaEnvironment.SANDBOX);
+        entry.setPayload(PAYLOAD);
+        entry.setCreatedDate(LocalDateTime.now().minusSeconds(1));
+        return entry;
+    }
+}
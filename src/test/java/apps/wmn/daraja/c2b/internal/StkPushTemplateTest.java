@@ -0,0 +1,67 @@
+package apps.wmn.daraja.c2b.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import apps.wmn.daraja.c2b.dto.DarajaStkPushRequest;
+import apps.wmn.daraja.c2b.dto.DarajaStkQueryRequest;
+import apps.wmn.daraja.c2b.dto.StkPushRequest;
+import apps.wmn.daraja.c2b.entity.MpesaConfig;
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import java.math.BigDecimal;
+import java.time.LocalDateTime;
+import org.junit.jupiter.api.Test;
+
+class StkPushTemplateTest {
+    /** The sandbox passkey and the password Daraja's documentation derives from it at {@link #NOW}. */
+    private static final String PASSKEY = "bfb279f9aa9bdbcf158e97dd71a467cd2e0c893059b10f78e6b72ada1ed2c919";
+    private static final String PASSWORD = "MTc0Mzc5YmZiMjc5ZjlhYTliZGJjZjE1OGU5N2RkNzFhNDY3Y2QyZTBjODkzMDU5YjEw"
+            + "Zjc4ZTZiNzJhZGExZWQyYzkxOTIwMTYwMjE2MTY1NjI3";
+    private static final LocalDateTime NOW = LocalDateTime.of(2016, 2, 16, 16, 56, 27);
+
+    private final MpesaConfig config = config();
+    private final StkPushTemplate template = StkPushTemplate.of(config, PASSKEY);
+
+    @Test
+    void bindsAPaymentToTheConfiguration() {
+        StkPushRequest request = new StkPushRequest(
+                "254712345678", new BigDecimal("100.00"), "ABC123", "Payment for service X", "174379", "SANDBOX");
+
+        DarajaStkPushRequest body = template.bind(request, NOW);
+
+        assertThat(body).isEqualTo(new DarajaStkPushRequest(
+                "174379", PASSWORD, "20160216165627", "CustomerPayBillOnline", new BigDecimal("100.00"),
+                "254712345678", "174379", "254712345678", "https://example.com/api/v1/daraja/payments/stk/callback",
+                "ABC123", "Payment for service X"));
+    }
+
+    @Test
+    void bindsAStatusQueryWithAFreshPassword() {
+        DarajaStkQueryRequest query = template.bindQuery("ws_CO_191220191020363925", NOW);
+
+        assertThat(query).isEqualTo(
+                new DarajaStkQueryRequest("174379", PASSWORD, "20160216165627", "ws_CO_191220191020363925"));
+        assertThat(template.bindQuery("ws_CO_191220191020363925", NOW.plusSeconds(1)).password())
+                .isNotEqualTo(PASSWORD);
+    }
+
+    @Test
+    void isCurrentOnlyForTheConfigurationVersionItWasBuiltFrom() {
+        assertThat(template.isCurrent(config)).isTrue();
+
+        config.setModifiedDate(config.getModifiedDate().plusSeconds(1));
+        assertThat(template.isCurrent(config)).isFalse();
+
+        config.setModifiedDate(null);
+        assertThat(template.isCurrent(config)).isFalse();
+        assertThat(StkPushTemplate.of(config, PASSKEY).isCurrent(config)).isTrue();
+    }
+
+    private static MpesaConfig config() {
+        MpesaConfig config = new MpesaConfig();
+        config.setShortcode("174379");
+        config.setEnvironment(MpesaEnvironment.SANDBOX);
+        config.setStkCallbackUrl("https://example.com/api/v1/daraja/payments/stk/callback");
+        config.setModifiedDate(LocalDateTime.of(2024, 1, 1, 0, 0));
+        return config;
+    }
+}
@@ -0,0 +1,102 @@
+package apps.wmn.daraja.common.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import org.junit.jupiter.api.Test;
+
+class MicroBatcherTest {
+    private final List<List<Integer>> flushed = new CopyOnWriteArrayList<>();
+
+    @Test
+    void flushesOnceTheBatchIsFull() throws Exception {
+        try (MicroBatcher<Integer, String> batcher = batcher(3, Duration.ofMinutes(1), 10, this::record)) {
+            CompletableFuture<String> first = batcher.submit(1);
+            CompletableFuture<String> second = batcher.submit(2);
+            CompletableFuture<String> third = batcher.submit(3);
+
+            assertThat(third.get(5, TimeUnit.SECONDS)).isEqualTo("#3");
+            assertThat(first.join()).isEqualTo("#1");
+            assertThat(second.join()).isEqualTo("#2");
+            assertThat(flushed).containsExactly(List.of(1, 2, 3));
+        }
+    }
+
+    @Test
+    void flushesAPartialBatchAfterTheMaxDelay() throws Exception {
+        try (MicroBatcher<Integer, String> batcher = batcher(100, Duration.ofMillis(20), 10, this::record)) {
+            assertThat(batcher.submit(7).get(5, TimeUnit.SECONDS)).isEqualTo("#7");
+            assertThat(flushed).containsExactly(List.of(7));
+        }
+    }
+
+    @Test
+    void failsEveryItemOfABatchWhoseFlushThrows() {
+        Function<List<Integer>, List<String>> failing = items -> {
+            throw new IllegalStateException("database down");
+        };
+        try (MicroBatcher<Integer, String> batcher = batcher(1, Duration.ofMillis(1), 10, failing)) {
+            assertThatThrownBy(() -> batcher.submit(1).get(5, TimeUnit.SECONDS))
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(IllegalStateException.class);
+        }
+    }
+
+    @Test
+    void rejectsItemsOnceTheQueueIsFull() throws Exception {
+        CountDownLatch flushing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Function<List<Integer>, List<String>> blocking = items -> {
+            flushing.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return record(items);
+        };
+        try (MicroBatcher<Integer, String> batcher = batcher(1, Duration.ofMillis(1), 1, blocking)) {
+            CompletableFuture<String> inFlight = batcher.submit(1);
+            assertThat(flushing.await(5, TimeUnit.SECONDS)).isTrue();
+            CompletableFuture<String> queued = batcher.submit(2);
+
+            assertThat(batcher.submit(3)).isCompletedExceptionally();
+
+            release.countDown();
+            assertThat(inFlight.get(5, TimeUnit.SECONDS)).isEqualTo("#1");
+            assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("#2");
+        }
+    }
+
+    @Test
+    void flushesQueuedItemsOnCloseAndRejectsLaterOnes() throws Exception {
+        MicroBatcher<Integer, String> batcher = batcher(100, Duration.ofMinutes(1), 10, this::record);
+        CompletableFuture<String> queued = batcher.submit(1);
+
+        batcher.close();
+
+        assertThat(queued.get(5, TimeUnit.SECONDS)).isEqualTo("#1");
+        assertThatThrownBy(() -> batcher.submit(2).join())
+                .hasCauseInstanceOf(RejectedExecutionException.class);
+    }
+
+    private List<String> record(List<Integer> items) {
+        flushed.add(List.copyOf(items));
+        return items.stream().map(item -> "#" + item).toList();
+    }
+
+    private static MicroBatcher<Integer, String> batcher(
+            int maxBatchSize, Duration maxDelay, int queueCapacity, Function<List<Integer>, List<String>> flush) {
+        return new MicroBatcher<>("test", maxBatchSize, maxDelay, queueCapacity, flush, new SimpleMeterRegistry());
+    }
+}
@@ -0,0 +1,63 @@
+package apps.wmn.daraja.common.concurrent;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    void grantsTheBurstBackToBackThenRejects() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+
+        assertThat(bucket.tryReserve(0)).isZero();
+        assertThat(bucket.tryReserve(0)).isZero();
+        assertThat(bucket.tryReserve(0)).isZero();
+
+        // The negated wait says when the next permit would be available
+        assertThat(bucket.tryReserve(0)).isNegative().isGreaterThanOrEqualTo(-SECOND).isLessThan(-SECOND / 2);
+    }
+
+    @Test
+    void rejectedAttemptsDoNotUseUpPermits() {
+        TokenBucket bucket = new TokenBucket(1, 1);
+        bucket.tryReserve(0);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(bucket.tryReserve(0)).isNegative();
+        }
+        assertThat(bucket.tryReserve(2 * SECOND)).isPositive().isLessThanOrEqualTo(SECOND);
+    }
+
+    @Test
+    void reservesAheadWithinTheMaximumWait() {
+        TokenBucket bucket = new TokenBucket(2, 1);
+        bucket.tryReserve(0);
+
+        long first = bucket.tryReserve(SECOND);
+        long second = bucket.tryReserve(SECOND);
+
+        assertThat(first).isPositive().isLessThanOrEqualTo(SECOND / 2);
+        assertThat(second - first).isBetween(SECOND / 2 - SECOND / 10, SECOND / 2);
+        assertThat(bucket.tryReserve(SECOND)).isNegative();
+    }
+
+    @Test
+    void refillsAtTheSustainedRate() throws InterruptedException {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        assertThat(bucket.tryReserve(0)).isZero();
+
+        TimeUnit.MILLISECONDS.sleep(20);
+
+        assertThat(bucket.tryReserve(0)).isZero();
+    }
+
+    @Test
+    void rejectsNonPositiveSettings() {
+        assertThatThrownBy(() -> new TokenBucket(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucket(1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,141 @@
+package apps.wmn.daraja.common.journal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class MappedSegmentJournalTest {
+    private static final int SEGMENT_SIZE = 4096;
+    private static final String FIRST_SEGMENT = "00000000000000000000.seg";
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackAppendedRecordsInOrder() {
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            long first = journal.append((byte) 1, bytes("first"));
+            long second = journal.append((byte) 2, bytes("second"));
+
+            List<MappedSegmentJournal.Entry> entries = journal.read(0, 10);
+
+            assertThat(entries).extracting(MappedSegmentJournal.Entry::type).containsExactly((byte) 1, (byte) 2);
+            assertThat(entries).extracting(entry -> text(entry.payload())).containsExactly("first", "second");
+            assertThat(entries).extracting(MappedSegmentJournal.Entry::nextPosition).containsExactly(first, second);
+            assertThat(journal.durablePosition()).isEqualTo(second);
+            assertThat(journal.read(first, 10)).hasSize(1);
+        }
+    }
+
+    @Test
+    void recoversDurableRecordsOnReopen() {
+        long end;
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            journal.append((byte) 1, bytes("first"));
+            end = journal.append((byte) 1, bytes("second"));
+        }
+
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            assertThat(journal.durablePosition()).isEqualTo(end);
+            assertThat(journal.read(0, 10)).extracting(entry -> text(entry.payload()))
+                    .containsExactly("first", "second");
+
+            long next = journal.append((byte) 1, bytes("third"));
+            assertThat(journal.read(end, 10)).singleElement()
+                    .satisfies(entry -> assertThat(entry.nextPosition()).isEqualTo(next));
+        }
+    }
+
+    @Test
+    void discardsTornRecordAtTheTail() throws IOException {
+        long end;
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            journal.append((byte) 1, bytes("first"));
+            end = journal.append((byte) 1, bytes("second"));
+        }
+        // A crash after the length was written but before the body was
+        writeAt(FIRST_SEGMENT, end, ByteBuffer.allocate(12).putInt(0, 40).putInt(4, 0x1234).putInt(8, 0x0101));
+
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            assertThat(journal.durablePosition()).isEqualTo(end);
+            assertThat(journal.read(0, 10)).hasSize(2);
+
+            journal.append((byte) 1, bytes("third"));
+            assertThat(journal.read(0, 10)).extracting(entry -> text(entry.payload()))
+                    .containsExactly("first", "second", "third");
+        }
+    }
+
+    @Test
+    void rejectsRecordWhoseChecksumDoesNotMatch() throws IOException {
+        long first;
+        long second;
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            first = journal.append((byte) 1, bytes("first"));
+            second = journal.append((byte) 1, bytes("second"));
+        }
+        // Flip the first payload byte of the second record: [length][crc][type][payload]
+        writeAt(FIRST_SEGMENT, first + 9, ByteBuffer.wrap(bytes("S")));
+
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, SEGMENT_SIZE)) {
+            assertThat(journal.durablePosition()).isEqualTo(first).isLessThan(second);
+            assertThat(journal.read(0, 10)).extracting(entry -> text(entry.payload())).containsExactly("first");
+        }
+    }
+
+    @Test
+    void rollsToTheNextSegmentAndDeletesCheckpointedOnes() {
+        int segmentSize = 64;
+        byte[] payload = new byte[23]; // 32 bytes with header and type, so two fill a segment
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, segmentSize)) {
+            journal.append((byte) 1, payload);
+            journal.append((byte) 1, payload);
+            long third = journal.append((byte) 1, payload);
+
+            assertThat(third).isEqualTo(segmentSize + 32);
+            assertThat(journal.read(0, 10)).extracting(MappedSegmentJournal.Entry::position)
+                    .containsExactly(0L, 32L, (long) segmentSize);
+
+            journal.checkpoint(segmentSize);
+            assertThat(directory.resolve(FIRST_SEGMENT)).doesNotExist();
+            assertThat(journal.backlogBytes()).isEqualTo(32);
+        }
+
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, segmentSize)) {
+            assertThat(journal.checkpointPosition()).isEqualTo(segmentSize);
+            assertThat(journal.read(journal.checkpointPosition(), 10)).hasSize(1);
+        }
+    }
+
+    @Test
+    void rejectsRecordLargerThanASegment() {
+        try (MappedSegmentJournal journal = MappedSegmentJournal.open(directory, 64)) {
+            assertThatThrownBy(() -> journal.append((byte) 1, new byte[64]))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThat(journal.durablePosition()).isZero();
+        }
+    }
+
+    private void writeAt(String segment, long offset, ByteBuffer bytes) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory.resolve(segment), StandardOpenOption.WRITE)) {
+            channel.write(bytes, offset);
+        }
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] payload) {
+        return new String(payload, StandardCharsets.UTF_8);
+    }
+}
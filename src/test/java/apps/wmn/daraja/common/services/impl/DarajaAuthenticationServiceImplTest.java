@@ -0,0 +1,185 @@
+package apps.wmn.daraja.common.services.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import apps.wmn.daraja.c2b.enums.MpesaEnvironment;
+import apps.wmn.daraja.common.cache.ExpiringValueExpiry;
+import apps.wmn.daraja.common.config.DarajaAuthProperties;
+import apps.wmn.daraja.common.config.MpesaUrlConfig;
+import apps.wmn.daraja.common.dto.AccessTokenResponse;
+import apps.wmn.daraja.common.exceptions.DarajaAuthException;
+import apps.wmn.daraja.common.http.DarajaCallGuard;
+import apps.wmn.daraja.common.http.DarajaHttpClient;
+import apps.wmn.daraja.common.services.DarajaCredentialsResolver;
+import apps.wmn.daraja.common.services.DarajaCredentialsResolver.ConsumerCredentials;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.cache.caffeine.CaffeineCacheManager;
+import org.springframework.http.ResponseEntity;
+
+class DarajaAuthenticationServiceImplTest {
+    private static final UUID CONFIG_ID = UUID.fromString("3f1c2a9e-7b44-4d2a-9a63-0c5f8e2d1b7a");
+
+    private final DarajaCallGuard callGuard = mock(DarajaCallGuard.class);
+    private final DarajaCredentialsResolver credentialsResolver = mock(DarajaCredentialsResolver.class);
+    private final DarajaAuthProperties authProperties = new DarajaAuthProperties();
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    private DarajaAuthenticationServiceImpl authenticationService;
+
+    @BeforeEach
+    void setUp() {
+        CaffeineCacheManager cacheManager = new CaffeineCacheManager();
+        cacheManager.registerCustomCache("authTokens", Caffeine.newBuilder()
+                .expireAfter(new ExpiringValueExpiry(Duration.ofHours(1)))
+                .build());
+        authenticationService = new DarajaAuthenticationServiceImpl(mock(DarajaHttpClient.class), callGuard,
+                urlConfig(), authProperties, credentialsResolver, cacheManager, meterRegistry);
+        when(callGuard.call(any(), any(), any())).thenAnswer(invocation -> token());
+    }
+
+    @Test
+    void reusesACachedToken() {
+        String first = getAccessToken();
+        String second = getAccessToken();
+
+        assertThat(second).isEqualTo(first);
+        assertThat(fetches).hasValue(1);
+    }
+
+    @Test
+    void makesConcurrentCallersShareOneTokenRequest() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            return token();
+        }).when(callGuard).call(any(), any(), any());
+
+        try (ExecutorService callers = Executors.newFixedThreadPool(2)) {
+            Future<String> first = callers.submit(this::getAccessToken);
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<String> concurrent = callers.submit(this::getAccessToken);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (coalesced() == 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(coalesced()).isEqualTo(1);
+
+            release.countDown();
+
+            assertThat(concurrent.get(5, TimeUnit.SECONDS)).isEqualTo(first.get(5, TimeUnit.SECONDS));
+            assertThat(fetches).hasValue(1);
+        }
+    }
+
+    @Test
+    void failsWaitingCallersWithTheErrorOfTheSharedRequestAndRetriesAfterwards() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        doAnswer(invocation -> {
+            started.countDown();
+            release.await(5, TimeUnit.SECONDS);
+            throw new IllegalStateException("Invalid credentials");
+        }).doAnswer(invocation -> token()).when(callGuard).call(any(), any(), any());
+
+        try (ExecutorService callers = Executors.newFixedThreadPool(2)) {
+            Future<String> first = callers.submit(this::getAccessToken);
+            assertThat(started.await(5, TimeUnit.SECONDS)).isTrue();
+
+            Future<String> concurrent = callers.submit(this::getAccessToken);
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (coalesced() == 0 && System.nanoTime() < deadline) {
+                Thread.onSpinWait();
+            }
+            assertThat(coalesced()).isEqualTo(1);
+
+            release.countDown();
+
+            assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(DarajaAuthException.class);
+            assertThatThrownBy(() -> concurrent.get(5, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(DarajaAuthException.class);
+        }
+
+        assertThat(getAccessToken()).isEqualTo("token-1");
+    }
+
+    @Test
+    void alwaysFetchesAForcedToken() {
+        getAccessToken();
+
+        String forced = authenticationService.forceNewAccessToken(CONFIG_ID, "key", "secret", "174379",
+                MpesaEnvironment.SANDBOX);
+
+        assertThat(forced).isEqualTo("token-2");
+        assertThat(getAccessToken()).isEqualTo("token-2");
+    }
+
+    @Test
+    void renewsTokensThatAreAboutToExpireInTheBackground() {
+        authProperties.setRefreshAhead(Duration.ofHours(2));
+        when(credentialsResolver.resolve(CONFIG_ID)).thenReturn(Optional.of(new ConsumerCredentials("key", "secret")));
+        getAccessToken();
+
+        authenticationService.refreshExpiringTokens();
+
+        assertThat(getAccessToken()).isEqualTo("token-2");
+        verify(callGuard, times(2)).call(any(), any(), any());
+    }
+
+    @Test
+    void stopsRenewingTokensOfDeactivatedConfigurations() {
+        authProperties.setRefreshAhead(Duration.ofHours(2));
+        when(credentialsResolver.resolve(CONFIG_ID)).thenReturn(Optional.empty());
+        getAccessToken();
+
+        authenticationService.refreshExpiringTokens();
+        authenticationService.refreshExpiringTokens();
+
+        assertThat(fetches).hasValue(1);
+        verify(credentialsResolver, times(1)).resolve(CONFIG_ID);
+    }
+
+    private String getAccessToken() {
+        return authenticationService.getAccessToken(CONFIG_ID, "key", "secret", "174379", MpesaEnvironment.SANDBOX);
+    }
+
+    private ResponseEntity<AccessTokenResponse> token() {
+        return ResponseEntity.ok(new AccessTokenResponse("token-" + fetches.incrementAndGet(), 3599L));
+    }
+
+    private double coalesced() {
+        return meterRegistry.counter("daraja.auth.token.coalesced", "environment", "SANDBOX").count();
+    }
+
+    private static MpesaUrlConfig urlConfig() {
+        MpesaUrlConfig.Environment sandbox = new MpesaUrlConfig.Environment();
+        sandbox.setAuthUrl("https://sandbox.safaricom.co.ke/oauth/v1/generate?grant_type=client_credentials");
+        MpesaUrlConfig.Urls urls = new MpesaUrlConfig.Urls();
+        urls.setSandbox(sandbox);
+        MpesaUrlConfig urlConfig = new MpesaUrlConfig();
+        urlConfig.setUrls(urls);
+        return urlConfig;
+    }
+}
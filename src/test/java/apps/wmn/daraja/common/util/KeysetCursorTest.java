@@ -0,0 +1,55 @@
+package apps.wmn.daraja.common.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import apps.wmn.daraja.common.exceptions.InvalidCursorException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.NullAndEmptySource;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class KeysetCursorTest {
+
+    @Test
+    void decodesWhatItEncodes() {
+        KeysetCursor cursor = new KeysetCursor(LocalDateTime.of(2024, 3, 1, 14, 5, 9, 123_456_000), 42);
+
+        String token = cursor.encode();
+
+        assertThat(token).doesNotContain("=", "+", "/");
+        assertThat(KeysetCursor.decode(token)).isEqualTo(cursor);
+    }
+
+    @Test
+    void roundTripsTheStartCursor() {
+        assertThat(KeysetCursor.decode(KeysetCursor.START.encode())).isEqualTo(KeysetCursor.START);
+    }
+
+    @ParameterizedTest
+    @NullAndEmptySource
+    @ValueSource(strings = "  ")
+    void startsFromTheTopWithoutAToken(String token) {
+        assertThat(KeysetCursor.decode(token)).isSameAs(KeysetCursor.START);
+    }
+
+    @Test
+    void rejectsTokensThatAreNotBase64() {
+        assertThatThrownBy(() -> KeysetCursor.decode("not base64!"))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessage("Malformed cursor");
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = {"2024-03-01T14:05:09", "yesterday|42", "2024-03-01T14:05:09|abc", "|"})
+    void rejectsTokensThatDoNotHoldADateAndId(String value) {
+        String token = Base64.getUrlEncoder().withoutPadding().encodeToString(value.getBytes(StandardCharsets.UTF_8));
+
+        assertThatThrownBy(() -> KeysetCursor.decode(token))
+                .isInstanceOf(InvalidCursorException.class)
+                .hasMessage("Malformed cursor");
+    }
+}